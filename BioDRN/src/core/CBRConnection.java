@@ -49,14 +49,19 @@ public class CBRConnection extends Connection {
 		"start transfer of " + m + " from " + from;
 
 		this.msgFromNode = from;
-		Message newMessage = m.replicate();
-		int retVal = getOtherNode(from).receiveMessage(newMessage, from);
+		DTNHost to = getOtherNode(from);
+		/* the receiver checks the sender's message; the replicate is
+		 * created only if the transfer is accepted */
+		int retVal = to.receiveMessage(m, from);
 		
 		
 		if (retVal == MessageRouter.RCV_OK) {
-			this.msgOnFly = newMessage;
+			Message newMessage = m.replicate();
+			newMessage.addNodeOnPath(to);
+			setMsgOnFly(newMessage);
 			this.transferDoneTime = SimClock.getTime() + 
 			(1.0*m.getSize()) / this.speed;
+			scheduleTransferDone(this.transferDoneTime);
 		}
 		
 		
@@ -4,10 +4,17 @@
  */
 package core;
 
+import input.TransferDoneEvent;
+
+import java.util.LinkedList;
+
 import routing.MessageRouter;
 
 /**
- * A connection between two DTN nodes.
+ * A connection between two DTN nodes. Only one message is transferred at a
+ * time, but the sender can queue a batch of messages that it sends through
+ * the connection back-to-back after the ongoing transfer (see 
+ * {@link #addToBatch(Message)}).
  */
 public abstract class Connection {
 	protected DTNHost toNode;
@@ -20,6 +27,10 @@ public abstract class Connection {
 	protected Message msgOnFly;
 	/** how many bytes this connection has transferred */
 	protected int bytesTransferred;
+	/** messages queued to be sent after the ongoing transfer (or null) */
+	private LinkedList<Message> batch;
+	/** scheduled event for finalizing the ongoing transfer (or null) */
+	private TransferDoneEvent transferDoneEvent;
 
 	/**
 	 * Creates a new connection between nodes and sets the connection
@@ -59,11 +70,16 @@ public abstract class Connection {
 	}
 
 	/**
-	 * Sets the state of the connection.
+	 * Sets the state of the connection. When the connection goes down, the
+	 * transfer done event of the ongoing transfer is cancelled; the sender
+	 * aborts the transfer.
 	 * @param state True if the connection is up, false if not
 	 */
 	public void setUpState(boolean state) {
 		this.isUp = state;
+		if (!state) {
+			cancelTransferDone();
+		}
 	}
 
 	/**
@@ -71,7 +87,8 @@ public abstract class Connection {
 	 * passing is controlled by external events, this method is not needed
 	 * (but then e.g. {@link #finalizeTransfer()} and 
 	 * {@link #isMessageTransferred()} will not work either). Only a one message
-	 * at a time can be transferred using one connection.
+	 * at a time can be transferred using one connection. The message is
+	 * replicated only if the receiver accepts it.
 	 * @param m The message
 	 * @return The value returned by 
 	 * {@link MessageRouter#receiveMessage(Message, DTNHost)}
@@ -111,10 +128,27 @@ public abstract class Connection {
 	 * Calls to {@link #getMessage()} will return null after this.
 	 */
 	protected void clearMsgOnFly() {
+		cancelTransferDone();
+		if (this.msgOnFly != null) {
+			this.fromInterface.transferEnded(this);
+			this.toInterface.transferEnded(this);
+		}
 		this.msgOnFly = null;
 		this.msgFromNode = null;		
 	}
 
+	/**
+	 * Sets the message that this connection is currently transferring and
+	 * informs the interfaces in both ends about the started transfer.
+	 * @param m The message that is being transferred
+	 */
+	protected void setMsgOnFly(Message m) {
+		assert this.msgOnFly == null : "Already transferring " + msgOnFly;
+		this.msgOnFly = m;
+		this.fromInterface.transferStarted(this);
+		this.toInterface.transferStarted(this);
+	}
+
 	/**
 	 * Finalizes the transfer of the currently transferred message.
 	 * The message that was being transferred can <STRONG>not</STRONG> be
@@ -138,6 +172,86 @@ public abstract class Connection {
 	 */
 	public abstract boolean isMessageTransferred();
 
+	/**
+	 * Schedules an event at the time when the ongoing transfer is done, so
+	 * that the sending router finalizes the transfer at that time instead
+	 * of at the next update interval. Replaces the event scheduled earlier
+	 * for the transfer (if any).
+	 * @param doneTime The time when the transfer is done (Double.MAX_VALUE
+	 * if the transfer does not progress)
+	 */
+	protected void scheduleTransferDone(double doneTime) {
+		cancelTransferDone();
+		if (doneTime > SimClock.getTime() && doneTime < Double.MAX_VALUE) {
+			this.transferDoneEvent = new TransferDoneEvent(this, doneTime);
+			SimScenario.getInstance().getWorld().scheduleTransferDone(
+					this.transferDoneEvent);
+		}
+	}
+
+	/**
+	 * Removes the scheduled transfer done event (if any) from the world
+	 */
+	private void cancelTransferDone() {
+		if (this.transferDoneEvent != null) {
+			SimScenario.getInstance().getWorld().cancelTransferDone(
+					this.transferDoneEvent);
+			this.transferDoneEvent = null;
+		}
+	}
+
+	/**
+	 * Returns the host that is sending the message of the ongoing transfer
+	 * @return The sending host or null if there's no ongoing transfer
+	 */
+	public DTNHost getMessageSender() {
+		return this.msgFromNode;
+	}
+
+	/**
+	 * Queues a message to be sent through this connection after the ongoing
+	 * transfer and the messages queued before it. The connection only
+	 * keeps the queue; the sender starts the transfers (see 
+	 * {@link #nextInBatch()}).
+	 * @param m The message to queue
+	 */
+	public void addToBatch(Message m) {
+		if (this.batch == null) {
+			this.batch = new LinkedList<Message>();
+		}
+		this.batch.add(m);
+	}
+
+	/**
+	 * Removes and returns the next message queued for this connection
+	 * @return The next message or null if the queue is empty
+	 */
+	public Message nextInBatch() {
+		if (this.batch == null) {
+			return null;
+		}
+		return this.batch.poll();
+	}
+
+	/**
+	 * Returns the number of messages queued for this connection
+	 * @return The number of queued messages
+	 */
+	public int getBatchSize() {
+		return (this.batch == null ? 0 : this.batch.size());
+	}
+
+	/**
+	 * Removes all the messages queued for this connection. The queued
+	 * messages have not been offered to the receiver, so nothing needs to be
+	 * aborted.
+	 */
+	public void clearBatch() {
+		if (this.batch != null) {
+			this.batch.clear();
+		}
+	}
+
 	/**
 	 * Returns true if the connection is ready to transfer a message (connection
 	 * is up and there is no message being transferred).
@@ -199,7 +199,18 @@ public class DTNHost implements Comparable<DTNHost> {
 	 */
 	public void setLocation(Coord location) {
 		this.location = location.clone();
+		locationChanged();
 	}
+
+	/**
+	 * Informs the network interfaces that the location of this host has
+	 * changed
+	 */
+	private void locationChanged() {
+		for (int i=0, n=net.size(); i < n; i++) {
+			net.get(i).locationChanged();
+		}
+	}
 
 	/**
 	 * Sets the Node's name overriding the default name (groupId + netAddress)
@@ -319,7 +330,8 @@ public class DTNHost implements Comparable<DTNHost> {
 
 	/**
 	 * Updates node's network layer and router.
-	 * @param simulateConnections Should network layer be updated too
+	 * @param simulateConnections Should network layer be updated too (if
+	 * not, only the state of the existing connections is updated)
 	 */
 	public void update(boolean simulateConnections) {
 		if (!isActive()) {
@@ -331,9 +343,43 @@ public class DTNHost implements Comparable<DTNHost> {
 				i.update();
 			}
 		}
+		else {
+			for (NetworkInterface i : net) {
+				i.updateConnections();
+			}
+		}
 		this.router.update();
 	}
 
+	/**
+	 * Deactivates all the network interfaces of this host
+	 * @see World#deactivateHost(DTNHost)
+	 */
+	public void deactivateInterfaces() {
+		for (NetworkInterface i : net) {
+			i.deactivate();
+		}
+	}
+
+	/**
+	 * Reactivates all the network interfaces of this host
+	 * @see World#reactivateHost(DTNHost)
+	 */
+	public void reactivateInterfaces() {
+		for (NetworkInterface i : net) {
+			i.reactivate();
+		}
+	}
+
+	/**
+	 * Updates a deactivated host: only drops the messages whose TTL has
+	 * expired (see {@link MessageRouter#updateDeactivated()})
+	 * @return True if the host still has messages that can expire
+	 */
+	public boolean updateDeactivated() {
+		return this.router.updateDeactivated();
+	}
+
 	/**
 	 * Moves the node towards the next waypoint or waits if it is
 	 * not time to move yet
@@ -353,6 +399,7 @@ public class DTNHost implements Comparable<DTNHost> {
 			}
 		}
 
+		locationChanged();
 		possibleMovement = timeIncrement * speed;
 		distance = this.location.distance(this.destination);
 
@@ -414,19 +461,14 @@ public class DTNHost implements Comparable<DTNHost> {
 
 	/**
 	 * Start receiving a message from another host
-	 * @param m The message
+	 * @param m The message. This is the sender's copy of the message and it
+	 * must not be modified; the router replicates it if it accepts it.
 	 * @param from Who the message is from
 	 * @return The value returned by 
 	 * {@link MessageRouter#receiveMessage(Message, DTNHost)}
 	 */
 	public int receiveMessage(Message m, DTNHost from) {
-		int retVal = this.router.receiveMessage(m, from); 
-
-		if (retVal == MessageRouter.RCV_OK) {
-			m.addNodeOnPath(this);	// add this node on the messages path
-		}
-
-		return retVal;	
+		return this.router.receiveMessage(m, from);
 	}
 
 	/**
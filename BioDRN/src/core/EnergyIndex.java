@@ -0,0 +1,461 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * World-level aggregate of the energy levels of the hosts. Energy models
+ * report the energy trajectory of their host at every state change: the
+ * level at a start time, the consumption per second, and the cost and
+ * interval of the periodic scans. The aggregate keeps the sums of the
+ * trajectories by host role (the name prefix of the host, e.g. "n" or
+ * "CD"), so the total energy and the number of hosts that still have
+ * energy can be queried without going through the hosts.
+ * <P>
+ * The predicted depletion times of the hosts are kept in a priority queue
+ * and a host is removed from the sums when its depletion time is reached.
+ * Hosts whose energy is not reported are counted as alive.
+ * </P>
+ */
+public class EnergyIndex {
+	/** how many trajectory changes are applied to the sums before they are
+	 * recomputed (to keep the rounding errors from accumulating) */
+	private static final int RECOMPUTE_INTERVAL = 100000;
+	/** the event queues are rebuilt when they have more events than this
+	 * many per host (most of them outdated) */
+	private static final int PURGE_FACTOR = 4;
+
+	/** role index of each host (by network address) */
+	private int[] roles;
+	private List<String> roleNames;
+	private HashMap<String, Integer> roleIds;
+	/** number of hosts in each role */
+	private int[] nrofHosts;
+	/** number of hosts in each role that have energy left */
+	private int[] nrofAlive;
+
+	/* trajectories of the hosts (by network address) */
+	private boolean[] isReported;
+	private boolean[] isAlive;
+	/** has the consumption of the host started (after the warmup) */
+	private boolean[] isStarted;
+	private double[] levels;
+	private double[] startTimes;
+	private double[] rates;
+	private double[] scanCosts;
+	private int[] scanIntervalIds;
+	private double[] depletionTimes;
+	/** version of each trajectory; events of older versions are ignored */
+	private int[] versions;
+
+	/* sums of the trajectories by role */
+	private double[] sumBases;
+	private double[] sumRates;
+	/** sums of scan costs by role and scan interval */
+	private double[][] sumScanCosts;
+	/** different scan intervals */
+	private double[] scanIntervals;
+
+	private PriorityQueue<Event> depletions;
+	private PriorityQueue<Event> starts;
+	private int nrofChanges;
+
+	/**
+	 * Constructor.
+	 * @param hosts All the hosts of the world, indexed by their network
+	 * address
+	 */
+	public EnergyIndex(List<DTNHost> hosts) {
+		int n = hosts.size();
+		this.roles = new int[n];
+		this.roleNames = new ArrayList<String>();
+		this.roleIds = new HashMap<String, Integer>();
+		for (int i=0; i < n; i++) {
+			String role = getRole(hosts.get(i).toString());
+			Integer id = roleIds.get(role);
+			if (id == null) {
+				id = roleNames.size();
+				roleIds.put(role, id);
+				roleNames.add(role);
+			}
+			roles[i] = id;
+		}
+
+		int nrofRoles = roleNames.size();
+		this.nrofHosts = new int[nrofRoles];
+		for (int i=0; i < n; i++) {
+			nrofHosts[roles[i]]++;
+		}
+		this.nrofAlive = nrofHosts.clone();
+
+		this.isReported = new boolean[n];
+		this.isAlive = new boolean[n];
+		Arrays.fill(isAlive, true);
+		this.isStarted = new boolean[n];
+		this.levels = new double[n];
+		this.startTimes = new double[n];
+		this.rates = new double[n];
+		this.scanCosts = new double[n];
+		this.scanIntervalIds = new int[n];
+		this.depletionTimes = new double[n];
+		this.versions = new int[n];
+
+		this.sumBases = new double[nrofRoles];
+		this.sumRates = new double[nrofRoles];
+		this.sumScanCosts = new double[nrofRoles][0];
+		this.scanIntervals = new double[0];
+
+		this.depletions = new PriorityQueue<Event>();
+		this.starts = new PriorityQueue<Event>();
+	}
+
+	/**
+	 * Returns the role of a host, i.e., the non-numeric prefix of its name
+	 * @param name Name of the host
+	 * @return The role
+	 */
+	private static String getRole(String name) {
+		int i = 0;
+		while (i < name.length() && !Character.isDigit(name.charAt(i))) {
+			i++;
+		}
+		return name.substring(0, i);
+	}
+
+	/**
+	 * Updates the energy trajectory of a host. Until the start time the
+	 * energy level stays at the given level; after that it decreases by
+	 * the rate per second and by the scan cost at every multiple of the
+	 * scan interval.
+	 * @param host The host
+	 * @param level The energy level at the start time
+	 * @param startTime Time when the consumption starts
+	 * @param rate Energy consumption per second
+	 * @param scanCost Energy consumption per scan
+	 * @param scanInterval Interval of the scans
+	 * @param depletionTime Predicted time when the energy runs out
+	 * (<CODE>Double.POSITIVE_INFINITY</CODE> if never)
+	 */
+	public void update(DTNHost host, double level, double startTime,
+			double rate, double scanCost, double scanInterval,
+			double depletionTime) {
+		double now = SimClock.getTime();
+		int i = host.getAddress();
+		int role = roles[i];
+
+		if (isAlive[i]) {
+			removeTerms(i);
+			nrofAlive[role]--;
+		}
+
+		this.isReported[i] = true;
+		this.versions[i]++;
+		this.levels[i] = level;
+		this.startTimes[i] = startTime;
+		this.rates[i] = rate;
+		this.scanCosts[i] = scanCost;
+		this.scanIntervalIds[i] = getScanIntervalId(scanInterval);
+		this.depletionTimes[i] = depletionTime;
+		this.isAlive[i] = level > 0 && depletionTime > now;
+		this.isStarted[i] = startTime <= now;
+
+		if (isAlive[i]) {
+			addTerms(i);
+			nrofAlive[role]++;
+			if (!isStarted[i]) {
+				starts.add(new Event(startTime, i, versions[i]));
+			}
+			if (depletionTime != Double.POSITIVE_INFINITY) {
+				depletions.add(new Event(depletionTime, i, versions[i]));
+			}
+		}
+
+		if (depletions.size() + starts.size() > PURGE_FACTOR * roles.length) {
+			purge();
+		}
+		if (++nrofChanges >= RECOMPUTE_INTERVAL) {
+			recompute();
+		}
+	}
+
+	/**
+	 * Rebuilds the event queues so that they contain only the events of
+	 * the current trajectories
+	 */
+	private void purge() {
+		advance();
+		this.depletions.clear();
+		this.starts.clear();
+		for (int i=0; i < roles.length; i++) {
+			if (!isAlive[i]) {
+				continue;
+			}
+			if (!isStarted[i]) {
+				starts.add(new Event(startTimes[i], i, versions[i]));
+			}
+			if (depletionTimes[i] != Double.POSITIVE_INFINITY) {
+				depletions.add(new Event(depletionTimes[i], i, versions[i]));
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of a scan interval (adds the interval if needed)
+	 * @param interval The scan interval
+	 * @return Index of the interval
+	 */
+	private int getScanIntervalId(double interval) {
+		for (int i=0; i < scanIntervals.length; i++) {
+			if (scanIntervals[i] == interval) {
+				return i;
+			}
+		}
+
+		int n = scanIntervals.length;
+		double[] newIntervals = new double[n + 1];
+		System.arraycopy(scanIntervals, 0, newIntervals, 0, n);
+		newIntervals[n] = interval;
+		this.scanIntervals = newIntervals;
+		for (int r=0; r < sumScanCosts.length; r++) {
+			double[] costs = new double[n + 1];
+			System.arraycopy(sumScanCosts[r], 0, costs, 0, n);
+			sumScanCosts[r] = costs;
+		}
+		return n;
+	}
+
+	/**
+	 * Adds the terms of a host's trajectory to the sums of its role
+	 * @param i Address of the host
+	 */
+	private void addTerms(int i) {
+		applyTerms(i, 1);
+	}
+
+	/**
+	 * Removes the terms of a host's trajectory from the sums of its role
+	 * @param i Address of the host
+	 */
+	private void removeTerms(int i) {
+		if (isReported[i]) {
+			applyTerms(i, -1);
+		}
+	}
+
+	/**
+	 * Adds the terms of a host's trajectory multiplied by a sign. The
+	 * energy of a started host at time t is
+	 * level + rate*start + cost*floor(start/interval)
+	 * - rate*t - cost*floor(t/interval).
+	 * @param i Address of the host
+	 * @param sign 1 to add the terms, -1 to remove them
+	 */
+	private void applyTerms(int i, int sign) {
+		int role = roles[i];
+		if (!isStarted[i]) {
+			sumBases[role] += sign * levels[i];
+			return;
+		}
+
+		int s = scanIntervalIds[i];
+		double start = startTimes[i];
+		sumBases[role] += sign * (levels[i] + rates[i] * start +
+				scanCosts[i] * Math.floor(start / scanIntervals[s]));
+		sumRates[role] += sign * rates[i];
+		sumScanCosts[role][s] += sign * scanCosts[i];
+	}
+
+	/**
+	 * Recomputes the sums from the trajectories of the hosts
+	 */
+	private void recompute() {
+		Arrays.fill(sumBases, 0);
+		Arrays.fill(sumRates, 0);
+		for (double[] costs : sumScanCosts) {
+			Arrays.fill(costs, 0);
+		}
+		for (int i=0; i < roles.length; i++) {
+			if (isAlive[i] && isReported[i]) {
+				addTerms(i);
+			}
+		}
+		this.nrofChanges = 0;
+	}
+
+	/**
+	 * Applies the starts and depletions that have happened by the current
+	 * simulation time
+	 */
+	private void advance() {
+		double now = SimClock.getTime();
+
+		while (!starts.isEmpty() && starts.peek().time <= now) {
+			Event e = starts.poll();
+			if (e.version == versions[e.host] && isAlive[e.host]) {
+				removeTerms(e.host);
+				isStarted[e.host] = true;
+				addTerms(e.host);
+			}
+		}
+
+		while (!depletions.isEmpty() && depletions.peek().time <= now) {
+			Event e = depletions.poll();
+			if (e.version == versions[e.host] && isAlive[e.host]) {
+				removeTerms(e.host);
+				isAlive[e.host] = false;
+				nrofAlive[roles[e.host]]--;
+			}
+		}
+	}
+
+	/**
+	 * Returns the total energy left in a role at the current time
+	 * @param role Index of the role
+	 * @return The energy left
+	 */
+	private double getEnergy(int role) {
+		double now = SimClock.getTime();
+		double energy = sumBases[role] - sumRates[role] * now;
+		double[] costs = sumScanCosts[role];
+		for (int s=0; s < costs.length; s++) {
+			energy -= costs[s] * Math.floor(now / scanIntervals[s]);
+		}
+		return Math.max(energy, 0);
+	}
+
+	/**
+	 * Returns the names of the host roles
+	 * @return The names of the roles
+	 */
+	public List<String> getRoles() {
+		return this.roleNames;
+	}
+
+	/**
+	 * Returns the total energy left in all the hosts
+	 * @return The energy left
+	 */
+	public double getTotalEnergy() {
+		advance();
+		double energy = 0;
+		for (int r=0; r < roleNames.size(); r++) {
+			energy += getEnergy(r);
+		}
+		return energy;
+	}
+
+	/**
+	 * Returns the total energy left in the hosts of a role
+	 * @param role Name of the role (e.g. "n")
+	 * @return The energy left (0 if there are no such hosts)
+	 */
+	public double getTotalEnergy(String role) {
+		Integer id = roleIds.get(role);
+		if (id == null) {
+			return 0;
+		}
+		advance();
+		return getEnergy(id);
+	}
+
+	/**
+	 * Returns the number of hosts that have energy left
+	 * @return The number of alive hosts
+	 */
+	public int getNrofAlive() {
+		advance();
+		int alive = 0;
+		for (int count : nrofAlive) {
+			alive += count;
+		}
+		return alive;
+	}
+
+	/**
+	 * Returns the number of hosts of a role that have energy left
+	 * @param role Name of the role
+	 * @return The number of alive hosts (0 if there are no such hosts)
+	 */
+	public int getNrofAlive(String role) {
+		Integer id = roleIds.get(role);
+		if (id == null) {
+			return 0;
+		}
+		advance();
+		return nrofAlive[id];
+	}
+
+	/**
+	 * Returns the number of hosts of a role
+	 * @param role Name of the role
+	 * @return The number of hosts
+	 */
+	public int getNrofHosts(String role) {
+		Integer id = roleIds.get(role);
+		return (id == null ? 0 : nrofHosts[id]);
+	}
+
+	/**
+	 * Returns true if the host has energy left
+	 * @param host The host
+	 * @return True if the host is alive
+	 */
+	public boolean isAlive(DTNHost host) {
+		advance();
+		return isAlive[host.getAddress()];
+	}
+
+	/**
+	 * Returns the predicted depletion time of a host
+	 * @param host The host
+	 * @return The depletion time or <CODE>Double.POSITIVE_INFINITY</CODE>
+	 * if the host's energy is not running out
+	 */
+	public double getDepletionTime(DTNHost host) {
+		int i = host.getAddress();
+		return (isReported[i] ? depletionTimes[i] : Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns the time of the next predicted depletion of any host
+	 * @return The time or <CODE>Double.POSITIVE_INFINITY</CODE> if no
+	 * host's energy is running out
+	 */
+	public double getNextDepletionTime() {
+		advance();
+		while (!depletions.isEmpty()) {
+			Event e = depletions.peek();
+			if (e.version == versions[e.host] && isAlive[e.host]) {
+				return e.time;
+			}
+			depletions.poll(); /* outdated prediction */
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Start or depletion of a host's trajectory
+	 */
+	private static class Event implements Comparable<Event> {
+		private double time;
+		private int host;
+		private int version;
+
+		public Event(double time, int host, int version) {
+			this.time = time;
+			this.host = host;
+			this.version = version;
+		}
+
+		public int compareTo(Event other) {
+			return Double.compare(this.time, other.time);
+		}
+	}
+}
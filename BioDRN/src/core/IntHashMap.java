@@ -0,0 +1,245 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash map with primitive integer keys. The keys are not boxed and they are
+ * used directly as hash values, so the map works best with dense keys like
+ * the interned message IDs (see {@link Message#getIntId()}). Null values
+ * are not allowed. The values are iterated in the order of the keys' slots,
+ * i.e., mostly in the ascending order of the keys.
+ * @param <V> Type of the values
+ */
+public class IntHashMap<V> {
+	/** initial capacity of the maps (must be a power of two) */
+	private static final int DEF_CAPACITY = 16;
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+	/** number of structural modifications (for fail-fast iterators) */
+	private int modCount;
+
+	/**
+	 * Creates an empty map
+	 */
+	public IntHashMap() {
+		this(DEF_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty map with the given initial capacity
+	 * @param capacity The initial capacity (rounded up to a power of two,
+	 * at least 2)
+	 */
+	public IntHashMap(int capacity) {
+		int n = 2;
+		while (n < capacity) {
+			n *= 2;
+		}
+		this.keys = new int[n];
+		this.values = new Object[n];
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the slot of a key or the free slot where the key should be put
+	 * @param key The key
+	 * @return The slot index
+	 */
+	private int slotOf(int key) {
+		int mask = keys.length - 1;
+		int i = key & mask;
+		while (values[i] != null && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the value of a key
+	 * @param key The key
+	 * @return The value or null if the map doesn't contain the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		return (V)values[slotOf(key)];
+	}
+
+	/**
+	 * Returns true if the map contains the key
+	 * @param key The key
+	 * @return True if the key has a value
+	 */
+	public boolean containsKey(int key) {
+		return values[slotOf(key)] != null;
+	}
+
+	/**
+	 * Sets the value of a key
+	 * @param key The key
+	 * @param value The new value (not null)
+	 * @return The old value or null if the key had no value
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new SimError("Null value for key " + key);
+		}
+		int i = slotOf(key);
+		V old = (V)values[i];
+		if (old == null) {
+			if (2 * (size + 1) > keys.length) {
+				grow();
+				i = slotOf(key);
+			}
+			keys[i] = key;
+			size++;
+			modCount++;
+		}
+		values[i] = value;
+		return old;
+	}
+
+	/**
+	 * Removes a key from the map
+	 * @param key The key
+	 * @return The removed value or null if the key had no value
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int mask = keys.length - 1;
+		int i = slotOf(key);
+		V old = (V)values[i];
+		if (old == null) {
+			return null;
+		}
+
+		/* move back the following entries that would not be found after
+		 * emptying the slot */
+		for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+			int home = keys[j] & mask;
+			boolean between = (i <= j ? (i < home && home <= j) :
+				(i < home || home <= j));
+			if (!between) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		values[i] = null;
+		size--;
+		modCount++;
+		return old;
+	}
+
+	/**
+	 * Doubles the capacity of the map
+	 */
+	private void grow() {
+		int[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.keys = new int[oldKeys.length * 2];
+		this.values = new Object[oldValues.length * 2];
+		for (int i=0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int j = slotOf(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of keys in the map
+	 * @return The number of keys
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns true if the map is empty
+	 * @return True if the map has no keys
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Removes all keys from the map
+	 */
+	public void clear() {
+		for (int i=0; i < values.length; i++) {
+			values[i] = null;
+		}
+		this.size = 0;
+		modCount++;
+	}
+
+	/**
+	 * Returns a collection view of the values. The view can't be modified
+	 * and its iterators fail if the map is modified during the iteration.
+	 * @return The values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			public int size() {
+				return IntHashMap.this.size;
+			}
+
+			public Iterator<V> iterator() {
+				return new ValueIterator();
+			}
+		};
+	}
+
+	/**
+	 * Iterator over the values of the map
+	 */
+	private class ValueIterator implements Iterator<V> {
+		private int next;
+		private int expectedModCount;
+
+		private ValueIterator() {
+			this.expectedModCount = modCount;
+			this.next = findNext(0);
+		}
+
+		private int findNext(int from) {
+			while (from < values.length && values[from] == null) {
+				from++;
+			}
+			return from;
+		}
+
+		public boolean hasNext() {
+			return next < values.length;
+		}
+
+		@SuppressWarnings("unchecked")
+		public V next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next >= values.length) {
+				throw new NoSuchElementException();
+			}
+			V value = (V)values[next];
+			next = findNext(next + 1);
+			return value;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
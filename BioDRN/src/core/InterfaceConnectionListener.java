@@ -0,0 +1,30 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package core;
+
+/**
+ * Interface for connection listeners that also want to know which network
+ * interfaces the connections are between. The methods are called right 
+ * after the respective {@link ConnectionListener} methods.
+ */
+public interface InterfaceConnectionListener extends ConnectionListener {
+
+	/**
+	 * Method is called when two network interfaces are connected.
+	 * @param ni1 Interface that initiated the connection
+	 * @param ni2 Interface that was connected to
+	 */
+	public void interfacesConnected(NetworkInterface ni1, 
+			NetworkInterface ni2);
+
+	/**
+	 * Method is called when connection between interfaces is disconnected.
+	 * @param ni1 Interface that initiated the disconnection
+	 * @param ni2 Interface at the other end of the connection
+	 */
+	public void interfacesDisconnected(NetworkInterface ni1, 
+			NetworkInterface ni2);
+
+}
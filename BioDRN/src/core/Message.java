@@ -5,13 +5,29 @@
 package core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * A message that is created at a node or passed between nodes.
+ * <P>
+ * Routers can store their per-message state as generic properties (see
+ * {@link #addProperty(String, Object)}) or, for integer values, as integer
+ * properties. The integer property keys are registered once to slots (see
+ * {@link #getIntSlot(String)}) and the values are stored in a primitive
+ * array indexed by the slots, so updating them does not create any objects.
+ * Both kinds of properties are shared with the replicates of the message
+ * until either message modifies them (copy-on-write).
+ * </P>
+ * <P>
+ * The path of the message is stored as a chain of immutable nodes where
+ * each node points to the previous one. Replicates share the nodes of the
+ * common part of their paths, so replicating a message and adding a node on
+ * its path take constant time and memory. The path is materialized as a
+ * list only when {@link #getHops()} is called.
+ * </P>
  */
 public class Message implements Comparable<Message> {
 	/** Value for infinite TTL of message */
@@ -22,8 +38,8 @@ public class Message implements Comparable<Message> {
 	private String id;
 	/** Size of the message (bytes) */
 	private int size;
-	/** List of nodes this message has passed */
-	private List<DTNHost> path; 
+	/** Last node of the path this message has passed */
+	private PathNode path;
 	/** Next unique identifier to be given */
 	private static int nextUniqueId;
 	/** Unique ID of this message */
@@ -45,10 +61,36 @@ public class Message implements Comparable<Message> {
 	 * stored in the properties should be immutable because only a shallow
 	 * copy of the properties is made when replicating messages */
 	private Map<String, Object> properties;
+	/** true if the properties may be shared with another message and must
+	 * be copied before modifying */
+	private boolean propertiesShared;
+	
+	/** Maximum number of registered integer property slots */
+	public static final int MAX_INT_SLOTS = 64;
+	/** slots of the registered integer property keys */
+	private static HashMap<String, Integer> intSlots =
+		new HashMap<String, Integer>();
+	/** registered integer property keys in the order of their slots */
+	private static List<String> intKeys = new ArrayList<String>();
+	
+	/** Values of the integer properties (or null if none) */
+	private int[] intProperties;
+	/** Bit mask of the integer property slots that have a value */
+	private long intPropertiesSet;
+	/** true if the integer properties may be shared with another message
+	 * and must be copied before modifying */
+	private boolean intPropertiesShared;
 	
 	/** Application ID of the application that created the message */
 	private String	appID;
 	
+	/** interned integer identifiers of the message IDs */
+	private static HashMap<String, Integer> intIds;
+	/** message IDs in the order of their integer identifiers */
+	private static List<String> idStrings;
+	/** Interned integer identifier of the message ID */
+	private int intId;
+	
 	static {
 		reset();
 		DTNSim.registerForReset(Message.class.getCanonicalName());
@@ -63,11 +105,24 @@ public class Message implements Comparable<Message> {
 	 * @param size Size of the message (in bytes)
 	 */
 	public Message(DTNHost from, DTNHost to, String id, int size) {
+		this(from, to, id, internId(id), size);
+	}
+	
+	/**
+	 * Creates a new Message whose ID has already been interned.
+	 * @param from Who the message is (originally) from
+	 * @param to Who the message is (originally) to
+	 * @param id Message identifier
+	 * @param intId Interned integer identifier of the message identifier
+	 * @param size Size of the message (in bytes)
+	 */
+	private Message(DTNHost from, DTNHost to, String id, int intId, int size) {
 		this.from = from;
 		this.to = to;
 		this.id = id;
+		this.intId = intId;
 		this.size = size;
-		this.path = new ArrayList<DTNHost>();
+		this.path = null;
 		this.uniqueId = nextUniqueId;
 		
 		this.timeCreated = SimClock.getTime();
@@ -76,6 +131,7 @@ public class Message implements Comparable<Message> {
 		this.responseSize = 0;
 		this.requestMsg = null;
 		this.properties = null;
+		this.intProperties = null;
 		this.appID = null;
 		
 		Message.nextUniqueId++;
@@ -110,6 +166,52 @@ public class Message implements Comparable<Message> {
 		return this.id;
 	}
 	
+	/**
+	 * Returns the interned integer identifier of the message ID. The
+	 * identifiers are dense (0, 1, 2, ... in the order the IDs were first
+	 * created) and same for all replicates of the message, so they can be
+	 * used as keys instead of the ID string.
+	 * @return The integer identifier
+	 */
+	public int getIntId() {
+		return this.intId;
+	}
+	
+	/**
+	 * Returns the integer identifier of a message ID. A new identifier is
+	 * given if the ID has not been interned before.
+	 * @param id The message ID
+	 * @return The integer identifier
+	 */
+	public static int internId(String id) {
+		Integer intId = intIds.get(id);
+		if (intId == null) {
+			intId = idStrings.size();
+			intIds.put(id, intId);
+			idStrings.add(id);
+		}
+		return intId;
+	}
+	
+	/**
+	 * Returns the integer identifier of a message ID without interning it
+	 * @param id The message ID
+	 * @return The integer identifier or -1 if no message has had the ID
+	 */
+	public static int lookupIntId(String id) {
+		Integer intId = intIds.get(id);
+		return (intId == null ? -1 : intId);
+	}
+	
+	/**
+	 * Returns the message ID of an integer identifier
+	 * @param intId The integer identifier
+	 * @return The message ID
+	 */
+	public static String getIdString(int intId) {
+		return idStrings.get(intId);
+	}
+	
 	/**
 	 * Returns an ID that is unique per message instance 
 	 * (different for replicates too)
@@ -132,15 +234,21 @@ public class Message implements Comparable<Message> {
 	 * @param node The node to add
 	 */
 	public void addNodeOnPath(DTNHost node) {
-		this.path.add(node);
+		this.path = new PathNode(node, this.path);
 	}
 	
 	/**
-	 * Returns a list of nodes this message has passed so far
+	 * Returns a list of nodes this message has passed so far. The list is
+	 * created on every call, so modifying it does not change the path.
 	 * @return The list as vector
 	 */
 	public List<DTNHost> getHops() {
-		return this.path;
+		int size = (this.path == null ? 0 : this.path.length);
+		DTNHost[] hops = new DTNHost[size];
+		for (PathNode n = this.path; n != null; n = n.previous) {
+			hops[n.length - 1] = n.host;
+		}
+		return new ArrayList<DTNHost>(Arrays.asList(hops));
 	}
 	
 	/**
@@ -148,7 +256,22 @@ public class Message implements Comparable<Message> {
 	 * @return the amount of hops this message has passed
 	 */
 	public int getHopCount() {
-		return this.path.size() -1;
+		return (this.path == null ? 0 : this.path.length) -1;
+	}
+	
+	/**
+	 * Returns true if the given node is on the path this message has passed
+	 * so far
+	 * @param node The node to look for
+	 * @return True if the message has passed the node
+	 */
+	public boolean hasPassed(DTNHost node) {
+		for (PathNode n = this.path; n != null; n = n.previous) {
+			if (n.host == node) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	/** 
@@ -256,11 +379,12 @@ public class Message implements Comparable<Message> {
 	/**
 	 * Deep copies message data from other message. If new fields are
 	 * introduced to this class, most likely they should be copied here too
-	 * (unless done in constructor).
+	 * (unless done in constructor). The properties are shared with the
+	 * other message and copied only when either message modifies them.
 	 * @param m The message where the data is copied
 	 */
 	protected void copyFrom(Message m) {
-		this.path = new ArrayList<DTNHost>(m.path);
+		this.path = m.path; /* the nodes are immutable */
 		this.timeCreated = m.timeCreated;
 		this.responseSize = m.responseSize;
 		this.requestMsg  = m.requestMsg;
@@ -268,10 +392,15 @@ public class Message implements Comparable<Message> {
 		this.appID = m.appID;
 		
 		if (m.properties != null) {
-			Set<String> keys = m.properties.keySet();
-			for (String key : keys) {
-				updateProperty(key, m.getProperty(key));
-			}
+			this.properties = m.properties;
+			this.propertiesShared = true;
+			m.propertiesShared = true;
+		}
+		if (m.intProperties != null) {
+			this.intProperties = m.intProperties;
+			this.intPropertiesSet = m.intPropertiesSet;
+			this.intPropertiesShared = true;
+			m.intPropertiesShared = true;
 		}
 	}
 	
@@ -320,17 +449,116 @@ public class Message implements Comparable<Message> {
 			/* lazy creation to prevent performance overhead for classes
 			   that don't use the property feature  */
 			this.properties = new HashMap<String, Object>();
-		}		
+		}
+		else if (this.propertiesShared) {
+			this.properties = new HashMap<String, Object>(this.properties);
+		}
+		this.propertiesShared = false;
 
 		this.properties.put(key, value);
 	}
 	
+	/**
+	 * Returns the slot of an integer property key. The key is registered to
+	 * a new slot if it has not been registered yet. The slots stay the same
+	 * for the whole run, so they can be stored in static fields.
+	 * @param key The key
+	 * @return The slot of the key
+	 * @throws SimError if all the {@link #MAX_INT_SLOTS} slots are in use
+	 */
+	public static synchronized int getIntSlot(String key) {
+		Integer slot = intSlots.get(key);
+		if (slot == null) {
+			if (intKeys.size() == MAX_INT_SLOTS) {
+				throw new SimError("Can't register integer message property " +
+						key + ": all " + MAX_INT_SLOTS + " slots are in use");
+			}
+			slot = intKeys.size();
+			intSlots.put(key, slot);
+			intKeys.add(key);
+		}
+		return slot;
+	}
+	
+	/**
+	 * Returns the key of an integer property slot
+	 * @param slot The slot
+	 * @return The key that was registered to the slot
+	 */
+	public static synchronized String getIntKey(int slot) {
+		return intKeys.get(slot);
+	}
+	
+	/**
+	 * Adds an integer property for this message.
+	 * @param slot The slot of the property (see {@link #getIntSlot(String)})
+	 * @param value The value to store
+	 * @throws SimError if the message already has a value for the slot
+	 */
+	public void addIntProperty(int slot, int value) throws SimError {
+		if (hasIntProperty(slot)) {
+			throw new SimError("Message " + this + " already contains value " + 
+					"for a key " + getIntKey(slot));
+		}
+		
+		this.updateIntProperty(slot, value);
+	}
+	
+	/**
+	 * Returns true if this message has a value for an integer property
+	 * @param slot The slot of the property
+	 * @return True if the value has been set
+	 */
+	public boolean hasIntProperty(int slot) {
+		return (this.intPropertiesSet & (1L << slot)) != 0;
+	}
+	
+	/**
+	 * Returns the value of an integer property
+	 * @param slot The slot of the property
+	 * @param naValue The value to return if the message has no value for
+	 * the slot
+	 * @return The stored value or naValue if it isn't found
+	 */
+	public int getIntProperty(int slot, int naValue) {
+		if (!hasIntProperty(slot)) {
+			return naValue;
+		}
+		return this.intProperties[slot];
+	}
+	
+	/**
+	 * Updates the value of an integer property. For storing the value first
+	 * time, {@link #addIntProperty(int, int)} should be used which checks
+	 * for name space clashes.
+	 * @param slot The slot of the property
+	 * @param value The new value to store
+	 */
+	public void updateIntProperty(int slot, int value) {
+		if (this.intProperties == null || this.intProperties.length <= slot) {
+			/* lazy creation; the slots of all registered keys fit in */
+			int[] values = new int[Math.max(slot + 1, intKeys.size())];
+			if (this.intProperties != null) {
+				System.arraycopy(this.intProperties, 0, values, 0,
+						this.intProperties.length);
+			}
+			this.intProperties = values;
+		}
+		else if (this.intPropertiesShared) {
+			this.intProperties = this.intProperties.clone();
+		}
+		this.intPropertiesShared = false;
+		
+		this.intProperties[slot] = value;
+		this.intPropertiesSet |= (1L << slot);
+	}
+	
 	/**
 	 * Returns a replicate of this message (identical except for the unique id)
 	 * @return A replicate of the message
 	 */
 	public Message replicate() {
-		Message m = new Message(from, to, id, size);
+		Message m = new Message(from, to, id, intId, size);
 		m.copyFrom(this);
 		return m;
 	}
@@ -348,6 +576,8 @@ public class Message implements Comparable<Message> {
 	 */
 	public static void reset() {
 		nextUniqueId = 0;
+		intIds = new HashMap<String, Integer>();
+		idStrings = new ArrayList<String>();
 	}
 
 	/**
@@ -364,4 +594,23 @@ public class Message implements Comparable<Message> {
 		this.appID = appID;
 	}
 	
+	/**
+	 * A node of a message's path. The nodes are immutable and shared by the
+	 * replicates of the message.
+	 */
+	private static class PathNode {
+		/** the host that the message passed */
+		private final DTNHost host;
+		/** the previous node of the path (or null if this is the first) */
+		private final PathNode previous;
+		/** number of nodes in the path up to and including this node */
+		private final int length;
+		
+		private PathNode(DTNHost host, PathNode previous) {
+			this.host = host;
+			this.previous = previous;
+			this.length = (previous == null ? 1 : previous.length + 1);
+		}
+	}
+	
 }
@@ -5,6 +5,7 @@
 package core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -13,23 +14,77 @@ import java.util.List;
  * post data, subscribe to data changes and also poll for data values.
  * This is fairly similar to Message class' property interface, but these
  * values are shared for a node instead of message.
- */
+ * <P>
+ * Every key is registered once to an integer slot (see
+ * {@link #getSlot(String)}) and the values are stored in arrays indexed by
+ * the slots. Double and Integer values are stored as primitives, so
+ * modules that use the slot based methods (e.g.
+ * {@link #updateDouble(int, double)}) and listeners that implement
+ * {@link ModuleCommunicationDoubleListener} don't create any objects when
+ * values change. The String based methods work as before.
+ * </P>
+ */
 public class ModuleCommunicationBus {
-	/** Initial capacity for the listener lists (instead of 10) */
-	private static int INIT_CAPACITY = 3;
-	/** The values in the blackboard (or null if none)*/
-	private HashMap<String, Object> values;
-	/** Subscribed listeners (or null if none)*/
-	private HashMap<String, List<ModuleCommunicationListener>> listeners;
+	/** type of an empty slot */
+	private static final byte TYPE_NONE = 0;
+	/** type of a slot that has an object value */
+	private static final byte TYPE_OBJECT = 1;
+	/** type of a slot that has a primitive double value */
+	private static final byte TYPE_DOUBLE = 2;
+	/** type of a slot that has a primitive int value */
+	private static final byte TYPE_INT = 3;
+	
+	/** slots of the registered keys */
+	private static HashMap<String, Integer> slots =
+		new HashMap<String, Integer>();
+	/** registered keys in the order of their slots */
+	private static List<String> keys = new ArrayList<String>();
+	
+	/** The types of the values in the slots (or null if none) */
+	private byte[] types;
+	/** Object values of the slots */
+	private Object[] objects;
+	/** Double values of the slots */
+	private double[] doubles;
+	/** Integer values of the slots */
+	private int[] ints;
+	/** Subscribed listeners of the slots (or null if none)*/
+	private ModuleCommunicationListener[][] listeners;
 	
 	/**
 	 * Constructor.
 	 */
 	public ModuleCommunicationBus() {
-		this.values = null; /* use lazy creation  */
+		this.types = null; /* use lazy creation  */
 		this.listeners = null;
 	}
 	
+	/**
+	 * Returns the slot of a key. The key is registered to a new slot if it
+	 * has not been registered yet. The slots stay the same for the whole
+	 * run, so they can be stored in static fields.
+	 * @param key The key
+	 * @return The slot of the key
+	 */
+	public static synchronized int getSlot(String key) {
+		Integer slot = slots.get(key);
+		if (slot == null) {
+			slot = keys.size();
+			slots.put(key, slot);
+			keys.add(key);
+		}		
+		return slot;
+	}
+	
+	/**
+	 * Returns the key of a slot
+	 * @param slot The slot
+	 * @return The key that was registered to the slot
+	 */
+	public static synchronized String getKey(int slot) {
+		return keys.get(slot);
+	}
+	
 	/**
 	 * Adds a new property for this node. The key can be any string but 
 	 * it should be such that no other class accidently uses the same value.
@@ -40,13 +95,24 @@ public class ModuleCommunicationBus {
 	 * @throws SimError if there is already a value for the given key
 	 */
 	public void addProperty(String key, Object value) throws SimError {
-		if (this.values != null && this.values.containsKey(key)) {
+		addProperty(getSlot(key), value);
+	}
+	
+	/**
+	 * Adds a new property for this node.
+	 * @param slot The slot of the key (see {@link #getSlot(String)})
+	 * @param value The value to store
+	 * @throws SimError if there is already a value for the given key
+	 * @see #addProperty(String, Object)
+	 */
+	public void addProperty(int slot, Object value) throws SimError {
+		if (getType(slot) != TYPE_NONE) {
 			/* check to prevent accidental name space collisions */
-			throw new SimError("A value for the key " + key + 
+			throw new SimError("A value for the key " + getKey(slot) +
 					" already exists");
-		}
+		}		
 		
-		this.updateProperty(key, value);
+		this.updateProperty(slot, value);
 	}
 	
 	/**
@@ -56,10 +122,29 @@ public class ModuleCommunicationBus {
 	 * @return The stored object or null if it isn't found
 	 */
 	public Object getProperty(String key) {
-		if (this.values == null) {
+		if (this.types == null) {
+			return null;
+		}		
+		return getProperty(getSlot(key));
+	}
+	
+	/**
+	 * Returns an object that was stored in the given slot. Primitive values
+	 * are returned as Double and Integer objects.
+	 * @param slot The slot of the key
+	 * @return The stored object or null if it isn't found
+	 */
+	public Object getProperty(int slot) {
+		switch (getType(slot)) {
+		case TYPE_OBJECT:
+			return this.objects[slot];
+		case TYPE_DOUBLE:
+			return this.doubles[slot];
+		case TYPE_INT:
+			return this.ints[slot];
+		default:
 			return null;
-		}
-		return this.values.get(key);
+		}		
 	}
 	
 	/**
@@ -70,16 +155,67 @@ public class ModuleCommunicationBus {
 	 * @param value The new value to store
 	 */
 	public void updateProperty(String key, Object value) throws SimError {
-		if (this.values == null) {
-			/* lazy creation to prevent performance overhead for classes
-			   that don't use the property feature  */
-			this.values = new HashMap<String, Object>();
+		updateProperty(getSlot(key), value);
+	}
+	
+	/**
+	 * Updates a value for an existing property. Double and Integer values
+	 * are stored as primitives.
+	 * @param slot The slot of the key
+	 * @param value The new value to store
+	 */
+	public void updateProperty(int slot, Object value) throws SimError {
+		if (value instanceof Double) {
+			setDouble(slot, (Double)value);
+			return;
 		}		
-
-		this.values.put(key, value);
-		notifyListeners(key, value);
+		if (value instanceof Integer) {
+			setInt(slot, (Integer)value);
+			return;
+		}		
+		
+		ensureCapacity(slot);
+		if (this.objects == null) {
+			this.objects = new Object[this.types.length];
+		}		
+		this.types[slot] = TYPE_OBJECT;
+		this.objects[slot] = value;
+		notifyListeners(slot, value);
 	}
-
+	
+	/**
+	 * Sets a double value of a property
+	 * @param slot The slot of the key
+	 * @param value The new value
+	 */
+	public void setDouble(int slot, double value) {
+		ensureCapacity(slot);
+		if (this.doubles == null) {
+			this.doubles = new double[this.types.length];
+		}		
+		this.types[slot] = TYPE_DOUBLE;
+		this.doubles[slot] = value;
+		notifyDoubleListeners(slot, value);
+	}
+	
+	/**
+	 * Sets an integer value of a property
+	 * @param slot The slot of the key
+	 * @param value The new value
+	 */
+	public void setInt(int slot, int value) {
+		ensureCapacity(slot);
+		if (this.ints == null) {
+			this.ints = new int[this.types.length];
+		}		
+		this.types[slot] = TYPE_INT;
+		this.ints[slot] = value;
+		if (this.listeners != null && slot < this.listeners.length &&
+				this.listeners[slot] != null) {
+			notifyListeners(slot, value);
+		}		
+	}
+	
 	/**
 	 * Changes the Double value with given key with the value delta  
 	 * @param key The key of variable to update
@@ -88,19 +224,30 @@ public class ModuleCommunicationBus {
 	 * @throws SimError if the value with the given key was not a Double
 	 */
 	public double updateDouble(String key, double delta) throws SimError {
-		double current;
-		try {
-			current = (Double)getProperty(key);
-			updateProperty(key, current + delta);
-		}
-		catch (ClassCastException cce) {
-			throw new SimError("No Double value for key " + key);
-		}
-		catch (NullPointerException npe) {
-			throw new SimError("No value for key " + key);
-		}
-
-		return current + delta;
+		return updateDouble(getSlot(key), delta);
+	}
+	
+	/**
+	 * Changes the Double value in the given slot with the value delta
+	 * @param slot The slot of the variable to update
+	 * @param delta Value added to the old value
+	 * @return The new value
+	 * @throws SimError if the value in the slot was not a Double
+	 */
+	public double updateDouble(int slot, double delta) throws SimError {
+		byte type = getType(slot);
+		if (type == TYPE_NONE ||
+				(type == TYPE_OBJECT && this.objects[slot] == null)) {
+			throw new SimError("No value for key " + getKey(slot));
+		}		
+		if (type != TYPE_DOUBLE) {
+			throw new SimError("No Double value for key " + getKey(slot));
+		}		
+		
+		double value = this.doubles[slot] + delta;
+		this.doubles[slot] = value;
+		notifyDoubleListeners(slot, value);
+		return value;
 	}
 	
 	/**
@@ -111,16 +258,28 @@ public class ModuleCommunicationBus {
 	 * @throws SimError if the value with the given key was not a Double
 	 */
 	public double getDouble(String key, double naValue) throws SimError {
-		Object value = this.getProperty(key);
-		if (value == null) {
+		if (this.types == null) {
 			return naValue;
-		}
-		try {
-			return (Double)value;
-		}
-		catch (ClassCastException cce) {
-			throw new SimError("No Double value for key " + key);
-		}
+		}		
+		return getDouble(getSlot(key), naValue);
+	}
+	
+	/**
+	 * Returns a double value from the communication bus.
+	 * @param slot The slot of the variable
+	 * @param naValue The value to return if there is no value in the slot
+	 * @return The value in the slot, or the naValue if there was no value
+	 * @throws SimError if the value in the slot was not a Double
+	 */
+	public double getDouble(int slot, double naValue) throws SimError {
+		byte type = getType(slot);
+		if (type == TYPE_DOUBLE) {
+			return this.doubles[slot];
+		}		
+		if (type == TYPE_NONE || this.getProperty(slot) == null) {
+			return naValue;
+		}		
+		throw new SimError("No Double value for key " + getKey(slot));
 	}
 	
 	/**
@@ -131,16 +290,28 @@ public class ModuleCommunicationBus {
 	 * @throws SimError if the value with the given key was not an Integer
 	 */
 	public int getInt(String key, int naValue) throws SimError {
-		Object value = this.getProperty(key);
-		if (value == null) {
+		if (this.types == null) {
+			return naValue;
+		}		
+		return getInt(getSlot(key), naValue);
+	}
+	
+	/**
+	 * Returns an integer value from the communication bus.
+	 * @param slot The slot of the variable
+	 * @param naValue The value to return if there is no value in the slot
+	 * @return The value in the slot, or the naValue if there was no value
+	 * @throws SimError if the value in the slot was not an Integer
+	 */
+	public int getInt(int slot, int naValue) throws SimError {
+		byte type = getType(slot);
+		if (type == TYPE_INT) {
+			return this.ints[slot];
+		}		
+		if (type == TYPE_NONE || this.getProperty(slot) == null) {
 			return naValue;
-		}
-		try {
-			return (Integer)value;
-		}
-		catch (ClassCastException cce) {
-			throw new SimError("No Integer value for key " + key);
-		}
+		}		
+		throw new SimError("No Integer value for key " + getKey(slot));
 	}
 	
 	/**
@@ -149,20 +320,33 @@ public class ModuleCommunicationBus {
 	 * @param module The module to subscribe.
 	 */
 	public void subscribe(String key, ModuleCommunicationListener module) {
+		subscribe(getSlot(key), module);
+	}
+	
+	/**
+	 * Subscribes a module to changes of the value in a slot.
+	 * @param slot The slot of the value
+	 * @param module The module to subscribe.
+	 */
+	public void subscribe(int slot, ModuleCommunicationListener module) {
 		if (this.listeners == null) {
 			/* first listener for the whole node */
-			this.listeners = 
-				new HashMap<String, List<ModuleCommunicationListener>>();
-		}
+			this.listeners = new ModuleCommunicationListener[slot + 1][];
+		}		
+		else if (slot >= this.listeners.length) {
+			this.listeners = Arrays.copyOf(this.listeners, slot + 1);
+		}		
 		
-		List<ModuleCommunicationListener> list = this.listeners.get(key);
+		ModuleCommunicationListener[] list = this.listeners[slot];
 		if (list == null) {
 			/* first listener for this key */
-			list = new ArrayList<ModuleCommunicationListener>(INIT_CAPACITY);
-			this.listeners.put(key, list);
-		}
-		
-		list.add(module);
+			list = new ModuleCommunicationListener[] {module};
+		}		
+		else {
+			list = Arrays.copyOf(list, list.length + 1);
+			list[list.length - 1] = module;
+		}		
+		this.listeners[slot] = list;
 	}
 	
 	/**
@@ -171,47 +355,134 @@ public class ModuleCommunicationBus {
 	 * @param module The module to whose subscription is removed
 	 */
 	public void unsubscribe(String key, ModuleCommunicationListener module) {
-		List<ModuleCommunicationListener> list;
+		ModuleCommunicationListener[] list;
+		int slot = getSlot(key);
 		
-		if (this.listeners == null) {
+		if (this.listeners == null || slot >= this.listeners.length) {
 			return; /* no subscriptions */
-		}
+		}		
 		
-		list = this.listeners.get(key);
+		list = this.listeners[slot];
 		if (list == null) {
 			return; /* no subscriptions for the key */
-		}
+		}		
 		
-		list.remove(module);
+		for (int i=0; i < list.length; i++) {
+			if (list[i].equals(module)) {
+				ModuleCommunicationListener[] newList =
+					new ModuleCommunicationListener[list.length - 1];
+				System.arraycopy(list, 0, newList, 0, i);
+				System.arraycopy(list, i + 1, newList, i, list.length - i - 1);
+				this.listeners[slot] = newList;
+				return;
+			}
+		}		
 	}
 	
+	/**
+	 * Returns the type of the value in a slot
+	 * @param slot The slot
+	 * @return The type of the value
+	 */
+	private byte getType(int slot) {
+		if (this.types == null || slot >= this.types.length) {
+			return TYPE_NONE;
+		}		
+		return this.types[slot];
+	}
+	
+	/**
+	 * Makes sure that the value arrays have room for the given slot
+	 * @param slot The slot
+	 */
+	private void ensureCapacity(int slot) {
+		if (this.types == null) {
+			/* lazy creation to prevent performance overhead for classes
+			   that don't use the property feature  */
+			this.types = new byte[Math.max(slot + 1, keys.size())];
+		}		
+		else if (slot >= this.types.length) {
+			int size = Math.max(slot + 1, keys.size());
+			this.types = Arrays.copyOf(this.types, size);
+			if (this.objects != null) {
+				this.objects = Arrays.copyOf(this.objects, size);
+			}
+			if (this.doubles != null) {
+				this.doubles = Arrays.copyOf(this.doubles, size);
+			}
+			if (this.ints != null) {
+				this.ints = Arrays.copyOf(this.ints, size);
+			}
+		}		
+	}
 	
 	/**
-	 * Notifies all listeners that have subscribed to the given key 
-	 * @param key The key which got new value
+	 * Notifies all listeners that have subscribed to the given slot
+	 * @param slot The slot which got new value
 	 * @param newValue The new value for the key
 	 */
-	private void notifyListeners(String key, Object newValue) {
-		List<ModuleCommunicationListener> list;
-		
-		if (this.listeners == null) {
+	private void notifyListeners(int slot, Object newValue) {
+		if (this.listeners == null || slot >= this.listeners.length) {
 			return;
-		}
-		list = this.listeners.get(key);
+		}		
+		ModuleCommunicationListener[] list = this.listeners[slot];
 		
 		if (list == null) {
 			return;
-		}
+		}		
 		
+		String key = getKey(slot);
 		for (ModuleCommunicationListener mcl : list) {
 			mcl.moduleValueChanged(key, newValue);
-		}
+		}		
+	}
+	
+	/**
+	 * Notifies all listeners that have subscribed to the given slot of a
+	 * new double value. The value is given as a primitive to the
+	 * {@link ModuleCommunicationDoubleListener}s and as a Double object to
+	 * the other listeners.
+	 * @param slot The slot which got new value
+	 * @param newValue The new value for the key
+	 */
+	private void notifyDoubleListeners(int slot, double newValue) {
+		if (this.listeners == null || slot >= this.listeners.length) {
+			return;
+		}		
+		ModuleCommunicationListener[] list = this.listeners[slot];
+		
+		if (list == null) {
+			return;
+		}		
+		
+		Double boxed = null;
+		for (ModuleCommunicationListener mcl : list) {
+			if (mcl instanceof ModuleCommunicationDoubleListener) {
+				((ModuleCommunicationDoubleListener)mcl).
+					moduleDoubleChanged(slot, newValue);
+			}
+			else {
+				if (boxed == null) {
+					boxed = newValue;
+				}
+				mcl.moduleValueChanged(getKey(slot), boxed);
+			}
+		}		
 	}
 	
 	
 	@Override
 	public String toString() {
-		return "ComBus with mapping: " + (this.values != null ? 
-				this.values.toString() : "n/a");
+		HashMap<String, Object> values = null;
+		if (this.types != null) {
+			values = new HashMap<String, Object>();
+			for (int i=0; i < this.types.length; i++) {
+				if (this.types[i] != TYPE_NONE) {
+					values.put(getKey(i), getProperty(i));
+				}
+			}
+		}		
+		return "ComBus with mapping: " + (values != null ?
+				values.toString() : "n/a");
 	}
 }
@@ -0,0 +1,24 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Listener of ModuleCommunicationBus values that gets the new values of
+ * Double variables as primitives (see
+ * {@link ModuleCommunicationBus#getSlot(String)}), so no objects are
+ * created when the values change. Values of other types are still
+ * given to {@link #moduleValueChanged(String, Object)}.
+ */
+public interface ModuleCommunicationDoubleListener
+		extends ModuleCommunicationListener {
+
+	/**
+	 * This method is called whenever a Double variable, whose changes the
+	 * module has registered to, changes.
+	 * @param slot The slot of the variable
+	 * @param newValue New value for the variable
+	 */
+	public void moduleDoubleChanged(int slot, double newValue);
+}
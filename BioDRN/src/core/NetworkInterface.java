@@ -8,18 +8,24 @@ import interfaces.ConnectivityGrid;
 import interfaces.ConnectivityOptimizer;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Random;
+
+import routing.ActiveRouter;
 
 /**
  * Network interface of a DTNHost. Takes care of connectivity among hosts.
  */
-abstract public class NetworkInterface implements ModuleCommunicationListener {
+abstract public class NetworkInterface 
+		implements ModuleCommunicationDoubleListener {
 	/** transmit range -setting id ({@value})*/
 	public static final String TRANSMIT_RANGE_S = "transmitRange";
 	/** transmit speed -setting id ({@value})*/
 	public static final String TRANSMIT_SPEED_S = "transmitSpeed";
-	/** scanning interval -setting id ({@value})*/
+	/** scanning interval -setting id ({@value}). Read from the interface's
+	 * namespace only; the group setting {@link SimScenario#SCAN_INTERVAL_S}
+	 * is used for the energy model and does not affect the interfaces. */
 	public static final String SCAN_INTERVAL_S = "scanInterval";
 	
 	/** {@link ModuleCommunicationBus} identifier for the "scanning interval" 
@@ -31,6 +37,15 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	/** {@link ModuleCommunicationBus} identifier for the "transmission speed" 
     variable. Value type: integer */
 	public static final String SPEED_ID = "Network.speed";
+	/** bus slot of the {@link #SCAN_INTERVAL_ID} variable */
+	public static final int SCAN_INTERVAL_SLOT = 
+		ModuleCommunicationBus.getSlot(SCAN_INTERVAL_ID);
+	/** bus slot of the {@link #RANGE_ID} variable */
+	public static final int RANGE_SLOT = 
+		ModuleCommunicationBus.getSlot(RANGE_ID);
+	/** bus slot of the {@link #SPEED_ID} variable */
+	public static final int SPEED_SLOT = 
+		ModuleCommunicationBus.getSlot(SPEED_ID);
 	
 	private static final int CON_UP = 1;
 	private static final int CON_DOWN = 2;
@@ -102,6 +117,7 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		this.interfacetype = ni.interfacetype;
 		this.transmitRange = ni.transmitRange;
 		this.transmitSpeed = ni.transmitSpeed;
+		this.scanInterval = ni.scanInterval;
 		
 		/* draw lastScanTime of [0 -- scanInterval] */
 		this.lastScanTime = rng.nextDouble() * scanInterval;
@@ -120,9 +136,9 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	public void setHost(DTNHost host) {
 		this.host = host;
 		ModuleCommunicationBus comBus = host.getComBus();
-		comBus.subscribe(SCAN_INTERVAL_ID, this);
-		comBus.subscribe(RANGE_ID, this);
-		comBus.subscribe(SPEED_ID, this);
+		comBus.subscribe(SCAN_INTERVAL_SLOT, this);
+		comBus.subscribe(RANGE_SLOT, this);
+		comBus.subscribe(SPEED_SLOT, this);
 		
 		optimizer = ConnectivityGrid.ConnectivityGridFactory(
 				this.interfacetype.hashCode(), transmitRange);
@@ -208,6 +224,24 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		return true;
 	}
 
+	/**
+	 * Tries to connect this interface to all the interfaces the optimizer
+	 * finds near it. Interfaces that are not scanning at this update round
+	 * could not connect to anything, so for them the neighbor discovery is
+	 * skipped altogether.
+	 */
+	protected void connectToNearInterfaces() {
+		if (!isScanning()) {
+			return;
+		}
+
+		Collection<NetworkInterface> interfaces = 
+			optimizer.getNearInterfaces(this);
+		for (NetworkInterface i : interfaces) {
+			connect(i);
+		}
+	}
+
 	/**
 	 * Connects the interface to another interface.
 	 * 
@@ -228,10 +262,11 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	protected void connect(Connection con, NetworkInterface anotherInterface) {
 
 		this.connections.add(con);
-		notifyConnectionListeners(CON_UP, anotherInterface.getHost());
+		notifyConnectionListeners(CON_UP, anotherInterface);
 
 		// set up bidirectional connection
 		anotherInterface.getConnections().add(con);
+		connectionOpened(con, anotherInterface);
 
 		// inform routers about the connection
 		this.host.connectionUp(con);
@@ -246,7 +281,8 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	protected void disconnect(Connection con, 
 			NetworkInterface anotherInterface) {
 		con.setUpState(false);
-		notifyConnectionListeners(CON_DOWN, anotherInterface.getHost());
+		connectionClosed(con, anotherInterface);
+		notifyConnectionListeners(CON_DOWN, anotherInterface);
 
 		// tear down bidirectional connection
 		if (!anotherInterface.getConnections().remove(con)) {
@@ -256,7 +292,57 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 
 		this.host.connectionDown(con);
 		anotherInterface.getHost().connectionDown(con);
+		abortSending(con);
 	}
+
+	/**
+	 * Lets the sender of the ongoing transfer of a connection that went
+	 * down abort the transfer right away, so that the transfer is not 
+	 * finalized later (e.g., when the sender is not updated anymore)
+	 * @param con The connection that went down
+	 */
+	private void abortSending(Connection con) {
+		DTNHost sender = con.getMessageSender();
+		if (sender != null && sender.getRouter() instanceof ActiveRouter) {
+			((ActiveRouter)sender.getRouter()).updateTransfer(con);
+		}
+	}
+
+	/**
+	 * Called when a connection of this interface has been set up in both
+	 * ends. Overload this in a derived class that needs to keep track of
+	 * its neighbors' state.
+	 * @param con The new connection
+	 * @param anotherInterface The interface in the other end of the connection
+	 */
+	protected void connectionOpened(Connection con, 
+			NetworkInterface anotherInterface) {}
+
+	/**
+	 * Called when a connection of this interface has been marked down but
+	 * before it is removed from either end or any transfer on it is aborted.
+	 * @param con The connection that is being torn down
+	 * @param anotherInterface The interface in the other end of the connection
+	 * @see #connectionOpened(Connection, NetworkInterface)
+	 */
+	protected void connectionClosed(Connection con, 
+			NetworkInterface anotherInterface) {}
+
+	/**
+	 * Called by a connection of this interface when it starts transferring
+	 * a message. Overload this in a derived class that keeps track of the
+	 * ongoing transfers.
+	 * @param con The connection whose transfer started
+	 */
+	protected void transferStarted(Connection con) {}
+
+	/**
+	 * Called by a connection of this interface when its transfer is
+	 * finalized or aborted.
+	 * @param con The connection whose transfer ended
+	 * @see #transferStarted(Connection)
+	 */
+	protected void transferEnded(Connection con) {}
 
 	/**
 	 * Returns true if another interface is within radio range of this interface
@@ -308,23 +394,51 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	 * that are out of range, recalculates transmission speeds etc.).
 	 */
 	abstract public void update();
+
+	/**
+	 * Called by the host of this interface when its location changes
+	 */
+	public void locationChanged() {
+		if (optimizer != null) {
+			optimizer.locationChanged(this);
+		}
+	}
+
+	/**
+	 * Updates the state of the current connections without tearing down
+	 * old connections or looking for new ones (e.g., recalculates 
+	 * transmission speeds). Used instead of {@link #update()} when the
+	 * connections are not simulated but created by external events.
+	 * Default implementation does nothing.
+	 */
+	public void updateConnections() { }
 
 	/**
 	 * Notifies all the connection listeners about a change in connections.
 	 * @param type Type of the change (e.g. {@link #CON_DOWN} )
-	 * @param otherHost The other host on the other end of the connection.
+	 * @param otherInterface The interface on the other end of the connection.
 	 */
-	private void notifyConnectionListeners(int type, DTNHost otherHost) {
+	private void notifyConnectionListeners(int type, 
+			NetworkInterface otherInterface) {
 		if (this.cListeners == null) {
 			return;
 		}
+		DTNHost otherHost = otherInterface.getHost();
 		for (ConnectionListener cl : this.cListeners) {
 			switch (type) {
 			case CON_UP:
 				cl.hostsConnected(this.host, otherHost);
+				if (cl instanceof InterfaceConnectionListener) {
+					((InterfaceConnectionListener)cl).interfacesConnected(
+							this, otherInterface);
+				}
 				break;
 			case CON_DOWN:
 				cl.hostsDisconnected(this.host, otherHost);
+				if (cl instanceof InterfaceConnectionListener) {
+					((InterfaceConnectionListener)cl).interfacesDisconnected(
+							this, otherInterface);
+				}
 				break;
 			default:
 				assert false : type;	// invalid type code
@@ -352,6 +466,25 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 			throw new SimError("Unexpected combus ID " + key);
 		}
 	}
+
+	/**
+	 * Primitive version of {@link #moduleValueChanged(String, Object)} for
+	 * the scanning interval and range
+	 * @param slot Slot of the changed value
+	 * @param newValue New value for the variable
+	 */
+	public void moduleDoubleChanged(int slot, double newValue) {
+		if (slot == SCAN_INTERVAL_SLOT) {
+			this.scanInterval = newValue;
+		}
+		else if (slot == RANGE_SLOT) {
+			this.transmitRange = newValue;
+		}
+		else {
+			throw new SimError("Unexpected combus ID " + 
+					ModuleCommunicationBus.getKey(slot));
+		}
+	}
 
 	/** 
 	 * Creates a connection to another host. This method does not do any checks
@@ -387,7 +520,8 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		Connection con = this.connections.get(index);
 		DTNHost anotherNode = anotherInterface.getHost();
 		con.setUpState(false);
-		notifyConnectionListeners(CON_DOWN, anotherNode);
+		connectionClosed(con, anotherInterface);
+		notifyConnectionListeners(CON_DOWN, anotherInterface);
 
 		// tear down bidirectional connection
 		if (!anotherInterface.getConnections().remove(con)) {
@@ -399,7 +533,31 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		anotherNode.connectionDown(con);
 
 		connections.remove(index);
+		abortSending(con);
+	}
+
+	/**
+	 * Tears down all the connections of this interface and removes the 
+	 * interface from the connectivity optimizer so that no new connections
+	 * are made to it. Transfers on the connections are aborted when the
+	 * connections are torn down.
+	 * @see #reactivate()
+	 */
+	public void deactivate() {
+		while (this.connections.size() > 0) {
+			Connection con = this.connections.get(0);
+			removeConnectionByIndex(0, con.getOtherInterface(this));
+		}
+		optimizer.removeInterface(this);
 	}
+
+	/**
+	 * Returns a deactivated interface back to the connectivity optimizer
+	 * @see #deactivate()
+	 */
+	public void reactivate() {
+		optimizer.addInterface(this);
+	}
 
 	/**
 	 * Returns the DTNHost of this interface
@@ -15,6 +15,7 @@ import movement.MapBasedMovement;
 import movement.MovementModel;
 import movement.map.SimMap;
 import routing.MessageRouter;
+import topology.TopologyGenerator;
 
 import movement.InCenterVehicleMovement;
 
@@ -41,6 +42,10 @@ public class SimScenario implements Serializable {
 	public static final String UP_INT_S = "updateInterval";
 	/** simulate connections -setting id ({@value})*/
 	public static final String SIM_CON_S = "simulateConnections";
+	/** simulate movement -setting id ({@value}). Boolean (default = true).
+	 * Can be turned off e.g. when connections are replayed from a contact 
+	 * trace and the locations of the nodes are not needed. */
+	public static final String SIM_MOVEMENT_S = "simulateMovement";
 
 	/** namespace for interface type settings ({@value}) */
 	public static final String INTTYPE_NS = "Interface";
@@ -108,8 +113,12 @@ public class SimScenario implements Serializable {
 	private EventQueueHandler eqHandler;
 	/** Should connections between hosts be simulated */
 	private boolean simulateConnections;
+	/** Should movement of hosts be simulated */
+	private boolean simulateMovement;
 	/** Map used for host movement (if any) */
 	private SimMap simMap;
+	/** Cursor over the neighbor lists of the hosts (if any) */
+	private TopologyCursor topology;
 
 	/** Global connection event listeners */
 	private List<ConnectionListener> connectionListeners;
@@ -142,6 +151,10 @@ public class SimScenario implements Serializable {
 		this.endTime = s.getDouble(END_TIME_S);
 		this.updateInterval = s.getDouble(UP_INT_S);
 		this.simulateConnections = s.getBoolean(SIM_CON_S);
+		this.simulateMovement = true;
+		if (s.contains(SIM_MOVEMENT_S)) {
+			this.simulateMovement = s.getBoolean(SIM_MOVEMENT_S);
+		}
 
 		ensurePositiveValue(nrofGroups, NROF_GROUPS_S);
 		ensurePositiveValue(endTime, END_TIME_S);
@@ -166,8 +179,9 @@ public class SimScenario implements Serializable {
 		createHosts();
 		
 		this.world = new World(hosts, worldSizeX, worldSizeY, updateInterval, 
-				updateListeners, simulateConnections, 
+				updateListeners, simulateConnections, simulateMovement,
 				eqHandler.getEventQueues());
+		this.world.setTopologyCursor(topology);
 	}
 	
 	/**
@@ -328,6 +342,9 @@ public class SimScenario implements Serializable {
 	 */
 	protected void createHosts() {
 		this.hosts = new ArrayList<DTNHost>();
+		String neighborListFile = null;
+		Settings overlaySettings = null;
+		int samplingInterval = 0;
 
 		for (int i=1; i<=nrofGroups; i++) {
 			List<NetworkInterface> mmNetInterfaces = 
@@ -395,6 +412,23 @@ public class SimScenario implements Serializable {
 			if (mmProto instanceof MapBasedMovement) {
 				this.simMap = ((MapBasedMovement)mmProto).getMap();
 			}
+
+			// all the groups share the same neighbor lists
+			if (s.contains(TopologyGenerator.OVERLAY_S)) {
+				overlaySettings = s;
+			}
+			if (s.contains(TopologyCursor.NEIGHBOR_LIST_FILE_S) || 
+					s.contains(TopologyGenerator.OVERLAY_S)) {
+				if (s.contains(TopologyCursor.NEIGHBOR_LIST_FILE_S)) {
+					neighborListFile = 
+						s.getSetting(TopologyCursor.NEIGHBOR_LIST_FILE_S);
+				}
+				samplingInterval = 0;
+				if (s.contains(TopologyCursor.SAMPLING_INTERVAL_S)) {
+					samplingInterval = 
+						s.getInt(TopologyCursor.SAMPLING_INTERVAL_S);
+				}
+			}
 
 			// creates hosts of ith group
 			for (int j=0; j<nrofHosts; j++) {
@@ -413,6 +447,15 @@ public class SimScenario implements Serializable {
 				hosts.add(host);
 			}
 		}
+
+		if (overlaySettings != null) {
+			this.topology = new TopologyGenerator(overlaySettings, 
+					samplingInterval);
+		}
+		else if (neighborListFile != null) {
+			this.topology = new TopologyCursor(neighborListFile, 
+					samplingInterval);
+		}
 	}
 
 	/**
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import input.NeighborListReader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * World-level cursor over the epochs of a BioDRN neighbor list file.
+ * Instead of every router polling the neighbor list reader, the cursor
+ * advances once per epoch boundary and pushes the neighbor lists of the
+ * latest epoch at or before the current time to all the hosts whose list
+ * changed. A world update is scheduled for the next epoch boundary so
+ * that no epoch is missed regardless of the update interval.
+ * <P>
+ * If a sampling interval is given, the lists are sampled only at the
+ * multiples of the interval (the first sampling time at or after each
+ * epoch). Hosts that have no neighbor list or an empty list in an epoch
+ * keep their previous list.
+ * </P>
+ * <P>
+ * Subclasses can produce the epochs from another source by overriding
+ * {@link #getNeighborLists(World, int)} and {@link #getNextEpochTime(int)}.
+ * </P>
+ */
+public class TopologyCursor {
+	/** neighbor list file -setting id ({@value}). Path to the neighbor list
+	 * text file or to a neighbor list container. */
+	public static final String NEIGHBOR_LIST_FILE_S = "neighborListFile";
+	/** neighbor list sampling interval -setting id ({@value}). Integer
+	 * (seconds). Default = 0 (sample at every epoch). */
+	public static final String SAMPLING_INTERVAL_S = "samplingInterval";
+
+	private NeighborListReader reader;
+	private int samplingInterval;
+	/** simulation time when the neighbor lists are updated next */
+	private double nextUpdate;
+
+	/**
+	 * Constructor.
+	 * @param neighborListFile Path to the neighbor list file
+	 * @param samplingInterval The sampling interval or 0 if the lists
+	 * should be updated at every epoch
+	 */
+	public TopologyCursor(String neighborListFile, int samplingInterval) {
+		this(samplingInterval);
+		this.reader = new NeighborListReader(neighborListFile);
+	}
+
+	/**
+	 * Constructor for subclasses that don't read a neighbor list file.
+	 * @param samplingInterval The sampling interval or 0 if the lists
+	 * should be updated at every epoch
+	 */
+	protected TopologyCursor(int samplingInterval) {
+		this.samplingInterval = samplingInterval;
+		this.nextUpdate = 0;
+	}
+
+	/**
+	 * Returns the sampling interval
+	 * @return The sampling interval or 0 if the lists are updated at every
+	 * epoch
+	 */
+	public int getSamplingInterval() {
+		return this.samplingInterval;
+	}
+
+	/**
+	 * Updates the neighbor lists of the hosts if an epoch boundary has
+	 * been reached and schedules an update for the next boundary.
+	 * @param world The world whose hosts are updated
+	 */
+	public void update(World world) {
+		if (SimClock.getTime() < this.nextUpdate) {
+			return;
+		}
+
+		int time = SimClock.getIntTime();
+		Map<String, ArrayList<String>> lists = getNeighborLists(world, time);
+		List<DTNHost> hosts = world.getHosts();
+
+		for (int i=0, n = hosts.size(); i < n; i++) {
+			DTNHost host = hosts.get(i);
+			ArrayList<String> list = lists.get(host.toString());
+			if (list == null || list.isEmpty()) {
+				continue; /* keep the previous list */
+			}
+			if (!list.equals(host.getNeighborList())) {
+				host.setNeighborList(list);
+			}
+		}
+
+		int nextEpoch = getNextEpochTime(time);
+		if (nextEpoch == Integer.MAX_VALUE) {
+			this.nextUpdate = Double.MAX_VALUE;
+			return;
+		}
+
+		if (samplingInterval > 0) {
+			/* first sampling time at or after the next epoch */
+			nextEpoch = ((nextEpoch + samplingInterval - 1) /
+					samplingInterval) * samplingInterval;
+		}
+		this.nextUpdate = nextEpoch;
+		world.scheduleUpdate(this.nextUpdate);
+	}
+
+	/**
+	 * Returns the neighbor lists of the latest epoch at or before the given
+	 * time
+	 * @param world The world whose hosts the lists are for
+	 * @param time The time
+	 * @return Neighbor lists mapped by the host names
+	 */
+	protected Map<String, ArrayList<String>> getNeighborLists(World world,
+			int time) {
+		return reader.getLatestNeighborLists(time);
+	}
+
+	/**
+	 * Returns the time of the first epoch after the given time
+	 * @param time The time
+	 * @return The time of the next epoch or Integer.MAX_VALUE if there are
+	 * no more epochs
+	 */
+	protected int getNextEpochTime(int time) {
+		return reader.getNextEpochTime(time);
+	}
+
+	/**
+	 * Releases the resources of the cursor. Called when the simulation is
+	 * done.
+	 */
+	public void close() { }
+}
@@ -8,11 +8,21 @@ import routing.MessageRouter;
 
 /**
  * A connection between two DTN nodes.  The transmission speed
- * is updated every round from the end point transmission speeds
+ * is updated every round from the end point transmission speeds.
+ * The time when the ongoing transfer is done is calculated from the
+ * speed (bytes per second) and recalculated only when the speed changes.
+ * A transfer done event is scheduled at that time (and rescheduled when
+ * the speed changes), so the transfer is finalized when it is done 
+ * regardless of the update interval.
  */
 public class VBRConnection extends Connection {
 	private int msgsize;
-	private int msgsent;
+	/** bytes of the message sent before the last speed change */
+	private double msgsent;
+	/** time of the last speed change during the ongoing transfer */
+	private double lastSpeedChange;
+	/** time when the ongoing transfer is done with the current speed */
+	private double transferDoneTime;
 	private int currentspeed = 0;
 	
 	/**
@@ -47,13 +57,20 @@ public class VBRConnection extends Connection {
 			"start transfer of " + m + " from " + from;
 		
 		this.msgFromNode = from;
-		Message newMessage = m.replicate();
-		int retVal = getOtherNode(from).receiveMessage(newMessage, from);
+		DTNHost to = getOtherNode(from);
+		/* the receiver checks the sender's message; the replicate is
+		 * created only if the transfer is accepted */
+		int retVal = to.receiveMessage(m, from);
 		
 		if (retVal == MessageRouter.RCV_OK) {
-			this.msgOnFly = newMessage;
+			Message newMessage = m.replicate();
+			newMessage.addNodeOnPath(to);
+			setMsgOnFly(newMessage);
 			this.msgsize = m.getSize();
 			this.msgsent = 0;
+			this.lastSpeedChange = SimClock.getTime();
+			this.currentspeed = getInterfaceSpeed();
+			updateTransferDoneTime();
 		}
 
 		return retVal;
@@ -61,18 +78,77 @@ public class VBRConnection extends Connection {
 
 	/**
 	 * Calculate the current transmission speed from the information
-	 * given by the interfaces, and calculate the missing data amount.
-	 *
+	 * given by the interfaces. If the speed changes during a transfer, the
+	 * data sent so far is calculated and the transfer done time is 
+	 * rescheduled.
 	 */
 	public void update() {
-		currentspeed =  this.fromInterface.getTransmitSpeed();
-		int othspeed =  this.toInterface.getTransmitSpeed();
+		int speed = getInterfaceSpeed();
+		if (speed == this.currentspeed) {
+			return; /* transfer done time stays the same */
+		}
 		
-		if (othspeed < currentspeed) {
-			currentspeed = othspeed;
+		if (this.msgOnFly != null && !isMessageTransferred()) {
+			this.msgsent = getBytesSent();
+			this.lastSpeedChange = SimClock.getTime();
+			this.currentspeed = speed;
+			updateTransferDoneTime();
+		}
+		else {
+			this.currentspeed = speed;
 		}
+	}
+	
+	/**
+	 * Sets the state of the connection. When the connection goes down, the
+	 * ongoing transfer stops progressing (it is aborted by the sender).
+	 * @param state True if the connection is up, false if not
+	 */
+	@Override
+	public void setUpState(boolean state) {
+		if (!state && this.msgOnFly != null && !isMessageTransferred()) {
+			this.msgsent = getBytesSent();
+			this.lastSpeedChange = SimClock.getTime();
+			this.currentspeed = 0;
+			updateTransferDoneTime();
+		}
+		super.setUpState(state);
+	}
+	
+	/**
+	 * Returns the current speed of the end point interfaces (the slower 
+	 * one's speed)
+	 * @return The speed
+	 */
+	private int getInterfaceSpeed() {
+		int speed = this.fromInterface.getTransmitSpeed();
+		int othspeed = this.toInterface.getTransmitSpeed();
 		
-		msgsent = msgsent + currentspeed;
+		return (othspeed < speed ? othspeed : speed);
+	}
+	
+	/**
+	 * Returns the amount of bytes of the ongoing transfer sent so far
+	 * @return The amount of bytes sent
+	 */
+	private double getBytesSent() {
+		return this.msgsent + this.currentspeed * 
+			(SimClock.getTime() - this.lastSpeedChange);
+	}
+	
+	/**
+	 * Calculates the time when the ongoing transfer is done with the 
+	 * current speed and schedules the transfer done event at that time
+	 */
+	private void updateTransferDoneTime() {
+		if (this.currentspeed <= 0) {
+			this.transferDoneTime = Double.MAX_VALUE; /* no progress */
+		}
+		else {
+			this.transferDoneTime = this.lastSpeedChange + 
+				(this.msgsize - this.msgsent) / this.currentspeed;
+		}
+		scheduleTransferDone(this.transferDoneTime);
 	}
 	
 	/**
@@ -89,7 +165,10 @@ public class VBRConnection extends Connection {
      * @return the amount of bytes to be transferred
      */
     public int getRemainingByteCount() {
-    	int bytesLeft = msgsize - msgsent; 
+    	if (this.msgOnFly == null || isMessageTransferred()) {
+    		return 0;
+    	}
+    	int bytesLeft = (int)Math.ceil(msgsize - getBytesSent()); 
     	return (bytesLeft > 0 ? bytesLeft : 0);
     }
     
@@ -98,11 +177,10 @@ public class VBRConnection extends Connection {
 	 * @return True if the transfer is done, false if not
 	 */
 	public boolean isMessageTransferred() {
-		if (msgsent >= msgsize) {
-			return true;
-		} else {
-			return false;
+		if (this.msgOnFly == null) {
+			return true; /* finalized or aborted */
 		}
+		return SimClock.getTime() >= this.transferDoneTime;
 	}
 	
 	/**
@@ -6,12 +6,19 @@ package core;
 
 import input.EventQueue;
 import input.ExternalEvent;
+import input.ExternalEventsQueue;
+import input.MessageEventGenerator;
 import input.ScheduledUpdatesQueue;
+import input.TransferDoneEvent;
+import input.TransferDoneQueue;
 import interfaces.ConnectivityGrid;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.Random;
 
 /**
@@ -37,6 +44,12 @@ public class World {
 	 * Default is @link {@link #DEF_RANDOMIZE_UPDATES}.
 	 */
 	public static final String RANDOMIZE_UPDATES_S = "randomizeUpdateOrder";
+	/**
+	 * Should hosts be updated only once after all the events that happen at
+	 * the same time -setting id ({@value}). Boolean (true/false) variable.
+	 * Default is false (hosts are updated after every event).
+	 */
+	public static final String COALESCE_UPDATES_S = "coalesceEventUpdates";
 	/** default value for cell size multiplier ({@value}) */
 	public static final int DEF_CON_CELL_SIZE_MULT = 5;
 	/** should the update order of nodes be randomized -setting's default value
@@ -50,9 +63,30 @@ public class World {
 	private SimClock simClock;
 	private double nextQueueEventTime;
 	private EventQueue nextEventQueue;
+	/** entry of the queue that has the next event */
+	private QueueEntry nextQueueEntry;
+	/** queues whose next event's time changes only when an event is taken
+	 * from them, ordered by the time of their next event */
+	private PriorityQueue<QueueEntry> keyedQueues;
+	/** queues whose next event's time is checked every time */
+	private List<QueueEntry> polledQueues;
+	/** should hosts be updated only once per event time */
+	private boolean coalesceEventUpdates;
 	/** list of nodes; nodes are indexed by their network address */
 	private List<DTNHost> hosts;
+	/** hosts that are updated and moved, in the order of their addresses */
+	private List<DTNHost> activeHosts;
+	/** hosts that have been removed from the active simulation set */
+	private Set<DTNHost> deactivatedHosts;
+	/** hosts whose activity state changes after the current update round */
+	private List<DTNHost> pendingDeactivations;
+	private List<DTNHost> pendingReactivations;
+	/** deactivated hosts whose messages can still expire, in the order 
+	 * they were deactivated */
+	private List<DTNHost> expiringHosts;
 	private boolean simulateConnections;
+	/** should hosts be moved (false when e.g. connections are replayed) */
+	private boolean simulateMovement;
 	/** nodes in the order they should be updated (if the order should be 
 	 * randomized; null value means that the order should not be randomized) */
 	private ArrayList<DTNHost> updateOrder;
@@ -61,6 +95,12 @@ public class World {
 	private List<UpdateListener> updateListeners;
 	/** Queue of scheduled update requests */
 	private ScheduledUpdatesQueue scheduledUpdates;
+	/** Queue of the events that finalize the transfers of connections */
+	private TransferDoneQueue transfersDone;
+	/** cursor that updates the neighbor lists of the hosts (or null) */
+	private TopologyCursor topology;
+	/** aggregate of the energy levels of the hosts */
+	private EnergyIndex energyIndex;
 
 	/** single ConnectivityCell's size is biggest radio range times this */
 	private int conCellSizeMult;
@@ -70,19 +110,29 @@ public class World {
 	 */
 	public World(List<DTNHost> hosts, int sizeX, int sizeY, 
 			double updateInterval, List<UpdateListener> updateListeners,
-			boolean simulateConnections, List<EventQueue> eventQueues) {
+			boolean simulateConnections, boolean simulateMovement,
+			List<EventQueue> eventQueues) {
 		this.hosts = hosts;
+		this.activeHosts = new ArrayList<DTNHost>(hosts);
+		this.deactivatedHosts = new HashSet<DTNHost>();
+		this.pendingDeactivations = new ArrayList<DTNHost>();
+		this.pendingReactivations = new ArrayList<DTNHost>();
+		this.expiringHosts = new ArrayList<DTNHost>();
 		this.sizeX = sizeX;
 		this.sizeY = sizeY;
 		this.updateInterval = updateInterval;
 		this.updateListeners = updateListeners;
 		this.simulateConnections = simulateConnections;
+		this.simulateMovement = simulateMovement;
 		this.eventQueues = eventQueues;
 		
 		this.simClock = SimClock.getInstance();
 		this.scheduledUpdates = new ScheduledUpdatesQueue();
+		this.transfersDone = new TransferDoneQueue();
+		this.energyIndex = new EnergyIndex(hosts);
 		this.isCancelled = false;		
 
+		initEventQueues();
 		setNextEventQueue();
 		initSettings();
 	}
@@ -105,6 +155,11 @@ public class World {
 			this.updateOrder = null;
 		}
 
+		this.coalesceEventUpdates = false;
+		if (s.contains(COALESCE_UPDATES_S)) {
+			coalesceEventUpdates = s.getBoolean(COALESCE_UPDATES_S);
+		}
+
 		if (s.contains(CELL_SIZE_MULT_S)) {
 			conCellSizeMult = s.getInt(CELL_SIZE_MULT_S);
 		}
@@ -126,7 +181,7 @@ public class World {
 	 * @param time The total time (seconds) to move
 	 */
 	public void warmupMovementModel(double time) {
-		if (time <= 0) {
+		if (time <= 0 || !simulateMovement) {
 			return;
 		}
 
@@ -142,23 +197,70 @@ public class World {
 	}
 
 	/**
-	 * Goes through all event Queues and sets the 
-	 * event queue that has the next event.
+	 * Sorts the event queues to the queues that are kept in a heap (the time
+	 * of the next event changes only when an event is taken from the queue)
+	 * and to the queues that are polled every time (the time can change
+	 * any time, e.g., scheduled updates).
+	 */
+	private void initEventQueues() {
+		this.keyedQueues = new PriorityQueue<QueueEntry>();
+		this.polledQueues = new ArrayList<QueueEntry>();
+
+		polledQueues.add(new QueueEntry(transfersDone, -2, false));
+		polledQueues.add(new QueueEntry(scheduledUpdates, -1, false));
+		for (int i=0, n = eventQueues.size(); i < n; i++) {
+			EventQueue eq = eventQueues.get(i);
+			if (eq instanceof ExternalEventsQueue || 
+					eq instanceof MessageEventGenerator) {
+				QueueEntry entry = new QueueEntry(eq, i, true);
+				entry.time = eq.nextEventsTime();
+				keyedQueues.add(entry);
+			}
+			else {
+				polledQueues.add(new QueueEntry(eq, i, false));
+			}
+		}
+	}
+
+	/**
+	 * Sets the event queue that has the next event. If many queues have
+	 * their next event at the same time, transfer done events are first, 
+	 * then scheduled updates and then the queues in the order they were 
+	 * defined.
 	 */
 	public void setNextEventQueue() {
-		EventQueue nextQueue = scheduledUpdates;
-		double earliest = nextQueue.nextEventsTime();
+		QueueEntry next = keyedQueues.peek();
 
-		/* find the queue that has the next event */
-		for (EventQueue eq : eventQueues) {
-			if (eq.nextEventsTime() < earliest){
-				nextQueue = eq;	
-				earliest = eq.nextEventsTime();
+		for (int i=0, n = polledQueues.size(); i < n; i++) {
+			QueueEntry entry = polledQueues.get(i);
+			entry.time = entry.queue.nextEventsTime();
+			if (next == null || entry.compareTo(next) < 0) {
+				next = entry;
 			}
 		}
 
-		this.nextEventQueue = nextQueue;
-		this.nextQueueEventTime = earliest;
+		this.nextQueueEntry = next;
+		this.nextEventQueue = next.queue;
+		this.nextQueueEventTime = next.time;
+	}
+
+	/**
+	 * Takes the next event from the queue that has the next event and 
+	 * updates the queue's position in the heap (if it is in the heap)
+	 * @return The next event
+	 */
+	private ExternalEvent takeNextEvent() {
+		QueueEntry entry = this.nextQueueEntry;
+		ExternalEvent ee = entry.queue.nextEvent();
+
+		if (entry.keyed) {
+			QueueEntry top = keyedQueues.poll();
+			assert top == entry : "Event queue heap is out of order";
+			entry.time = entry.queue.nextEventsTime();
+			keyedQueues.add(entry);
+		}
+
+		return ee;
 	}
 
 	/** 
@@ -174,16 +276,33 @@ public class World {
 		/* process all events that are due until next interval update */
 		while (this.nextQueueEventTime <= runUntil) {
 			simClock.setTime(this.nextQueueEventTime);
-			ExternalEvent ee = this.nextEventQueue.nextEvent();
+			ExternalEvent ee = takeNextEvent();
 			ee.processEvent(this);
+			if (ee instanceof TransferDoneEvent) {
+				/* only the sending router of the connection is updated */
+				setNextEventQueue();
+				continue;
+			}
+			if (coalesceEventUpdates) {
+				setNextEventQueue();
+				if (this.nextQueueEventTime == SimClock.getTime()) {
+					continue; // hosts are updated after the last event
+				}
+			}
 			updateHosts(); // update all hosts after every event
+			applyHostStateChanges();
+			scheduleDepletionUpdate(runUntil);
 			setNextEventQueue();
 		}
 
-		moveHosts(this.updateInterval);
+		if (simulateMovement) {
+			moveHosts(this.updateInterval);
+		}
 		simClock.setTime(runUntil);
 
 		updateHosts();
+		applyHostStateChanges();
+		scheduleDepletionUpdate(runUntil + this.updateInterval);
 
 		/* inform all update listeners */
 		for (UpdateListener ul : this.updateListeners) {
@@ -192,43 +311,153 @@ public class World {
 	}
 
 	/**
-	 * Updates all hosts (calls update for every one of them). If update
-	 * order randomizing is on (updateOrder array is defined), the calls
-	 * are made in random order.
+	 * Updates all active hosts (calls update for every one of them). If 
+	 * update order randomizing is on (updateOrder array is defined), the 
+	 * calls are made in random order.
 	 */
 	private void updateHosts() {
+		if (this.topology != null) {
+			this.topology.update(this);
+		}
+
 		if (this.updateOrder == null) { // randomizing is off
-			for (int i=0, n = hosts.size();i < n; i++) {
+			for (int i=0, n = activeHosts.size();i < n; i++) {
 				if (this.isCancelled) {
 					break;
 				}
-				hosts.get(i).update(simulateConnections);
+				activeHosts.get(i).update(simulateConnections);
 			}
 		}
 		else { // update order randomizing is on
-			assert this.updateOrder.size() == this.hosts.size() : 
+			assert this.updateOrder.size() == this.activeHosts.size() : 
 				"Nrof hosts has changed unexpectedly";
 			Random rng = new Random(SimClock.getIntTime());
 			Collections.shuffle(this.updateOrder, rng); 
-			for (int i=0, n = hosts.size();i < n; i++) {
+			for (int i=0, n = updateOrder.size();i < n; i++) {
 				if (this.isCancelled) {
 					break;
 				}
 				this.updateOrder.get(i).update(simulateConnections);
 			}			
 		}
+
+		/* deactivated hosts only drop their expired messages */
+		for (int i=0; i < expiringHosts.size(); ) {
+			if (expiringHosts.get(i).updateDeactivated()) {
+				i++;
+			}
+			else {
+				expiringHosts.remove(i); /* nothing left to expire */
+			}
+		}
 	}
 
 	/**
-	 * Moves all hosts in the world for a given amount of time
+	 * Schedules an update at the next predicted depletion of a host's
+	 * energy, so that the host is removed when its energy runs out
+	 * @param nextUpdate Time of the next interval update; depletions at or
+	 * after it are not scheduled
+	 */
+	private void scheduleDepletionUpdate(double nextUpdate) {
+		double time = energyIndex.getNextDepletionTime();
+		if (time < nextUpdate) {
+			scheduleUpdate(time);
+		}
+	}
+
+	/**
+	 * Moves all active hosts in the world for a given amount of time
 	 * @param timeIncrement The time how long all nodes should move
 	 */
 	private void moveHosts(double timeIncrement) {
-		for (int i=0,n = hosts.size(); i<n; i++) {
-			DTNHost host = hosts.get(i);
+		for (int i=0,n = activeHosts.size(); i<n; i++) {
+			DTNHost host = activeHosts.get(i);
 			host.move(timeIncrement);			
 		}		
 	}
+
+	/**
+	 * Removes a host from the active simulation set. Deactivated hosts are
+	 * not updated nor moved, their connections are torn down and other 
+	 * hosts can't find them for new connections. Their messages still 
+	 * expire and are dropped as if the hosts were updated. The change takes
+	 * effect after the ongoing host update round, so this method can be 
+	 * called e.g., from routers' update methods. A deactivated host is not
+	 * updated, so it must be reactivated from outside (see 
+	 * {@link #reactivateHost(DTNHost)}).
+	 * @param host The host to deactivate
+	 */
+	public void deactivateHost(DTNHost host) {
+		if (pendingReactivations.remove(host)) {
+			return; /* was not reactivated yet */
+		}
+		if (!deactivatedHosts.contains(host) && 
+				!pendingDeactivations.contains(host)) {
+			pendingDeactivations.add(host);
+		}
+	}
+
+	/**
+	 * Returns a deactivated host back to the active simulation set.
+	 * The change takes effect after the ongoing host update round.
+	 * @param host The host to reactivate
+	 * @see #deactivateHost(DTNHost)
+	 */
+	public void reactivateHost(DTNHost host) {
+		if (pendingDeactivations.remove(host)) {
+			return; /* was not deactivated yet */
+		}
+		if (deactivatedHosts.contains(host) && 
+				!pendingReactivations.contains(host)) {
+			pendingReactivations.add(host);
+		}
+	}
+
+	/**
+	 * Returns true if the host has been removed from the active simulation 
+	 * set (or will be after the ongoing host update round)
+	 * @param host The host to check
+	 * @return True if the host is (being) deactivated
+	 */
+	public boolean isDeactivated(DTNHost host) {
+		if (pendingDeactivations.contains(host)) {
+			return true;
+		}
+		return deactivatedHosts.contains(host) && 
+			!pendingReactivations.contains(host);
+	}
+
+	/**
+	 * Applies the pending host deactivations and reactivations
+	 */
+	private void applyHostStateChanges() {
+		if (pendingDeactivations.isEmpty() && pendingReactivations.isEmpty()) {
+			return;
+		}
+
+		for (DTNHost host : pendingDeactivations) {
+			host.deactivateInterfaces();
+			activeHosts.remove(host);
+			if (this.updateOrder != null) {
+				updateOrder.remove(host);
+			}
+			deactivatedHosts.add(host);
+			expiringHosts.add(host);
+		}
+		for (DTNHost host : pendingReactivations) {
+			host.reactivateInterfaces();
+			int index = Collections.binarySearch(activeHosts, host);
+			activeHosts.add(-index - 1, host);
+			if (this.updateOrder != null) {
+				updateOrder.add(host);
+			}
+			deactivatedHosts.remove(host);
+			expiringHosts.remove(host);
+		}
+
+		pendingDeactivations.clear();
+		pendingReactivations.clear();
+	}
 
 	/**
 	 * Asynchronously cancels the currently running simulation
@@ -236,6 +465,27 @@ public class World {
 	public void cancelSim() {
 		this.isCancelled = true;
 	}
+
+	/**
+	 * Releases the resources of the event queues (closes the external
+	 * events files and stops the background readers and message
+	 * generators) and of the topology
+	 * cursor. Should be called from the simulation thread when the 
+	 * simulation is done or cancelled.
+	 */
+	public void done() {
+		for (EventQueue eq : eventQueues) {
+			if (eq instanceof ExternalEventsQueue) {
+				((ExternalEventsQueue)eq).close();
+			}
+			else if (eq instanceof MessageEventGenerator) {
+				((MessageEventGenerator)eq).close();
+			}
+		}
+		if (topology != null) {
+			topology.close();
+		}
+	}
 
 	/**
 	 * Returns the hosts in a list
@@ -279,6 +529,23 @@ public class World {
 		return node; 
 	}
 
+	/**
+	 * Sets the cursor that updates the neighbor lists of the hosts at the
+	 * epoch boundaries of a neighbor list file
+	 * @param topology The cursor (or null for no neighbor list updates)
+	 */
+	public void setTopologyCursor(TopologyCursor topology) {
+		this.topology = topology;
+	}
+
+	/**
+	 * Returns the aggregate of the energy levels of the hosts
+	 * @return The energy index
+	 */
+	public EnergyIndex getEnergyIndex() {
+		return this.energyIndex;
+	}
+
 	/**
 	 * Schedules an update request to all nodes to happen at the specified 
 	 * simulation time.
@@ -287,4 +554,49 @@ public class World {
 	public void scheduleUpdate(double simTime) {
 		scheduledUpdates.addUpdate(simTime);
 	}
+
+	/**
+	 * Schedules an event that finalizes the transfer of a connection. 
+	 * Unlike {@link #scheduleUpdate(double)}, the event does not update
+	 * the hosts.
+	 * @param event The event
+	 */
+	public void scheduleTransferDone(TransferDoneEvent event) {
+		transfersDone.add(event);
+	}
+
+	/**
+	 * Cancels a scheduled transfer done event, e.g., when the transfer was
+	 * aborted or its done time changed
+	 * @param event The event to cancel
+	 */
+	public void cancelTransferDone(TransferDoneEvent event) {
+		transfersDone.cancel(event);
+	}
+
+	/**
+	 * Event queue with the time of its next event and its position in the
+	 * order of the queues. Entries are ordered by the time and then by the
+	 * position.
+	 */
+	private static class QueueEntry implements Comparable<QueueEntry> {
+		private EventQueue queue;
+		private int order;
+		/** is the entry in the heap of keyed queues */
+		private boolean keyed;
+		private double time;
+
+		public QueueEntry(EventQueue queue, int order, boolean keyed) {
+			this.queue = queue;
+			this.order = order;
+			this.keyed = keyed;
+		}
+
+		public int compareTo(QueueEntry other) {
+			if (this.time != other.time) {
+				return this.time < other.time ? -1 : 1;
+			}
+			return this.order - other.order;
+		}
+	}
 }
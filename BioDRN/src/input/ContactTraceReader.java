@@ -0,0 +1,161 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package input;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import core.SimError;
+
+/**
+ * <P>
+ * Reads connection up/down events from a binary contact trace file (created
+ * e.g. by {@link report.ContactTraceReport}). Replaying a recorded trace 
+ * with connection simulation (and possibly movement simulation) turned off
+ * reproduces the connectivity of the recorded run without the cost of
+ * moving the nodes and detecting their contacts.
+ * </P>
+ * <P>
+ * The file starts with {@link #MAGIC} and {@link #VERSION} followed by
+ * records that start with a record type byte. Interface type records 
+ * ({@link #INTERFACE_TYPE}) are followed by a short index and the UTF 
+ * encoded interface type name. Connection records ({@link #LINK_UP}, 
+ * {@link #LINK_DOWN}) are followed by the time (double), the addresses of
+ * the two hosts (ints) and the index of the interface type (short, 
+ * {@link #NO_INTERFACE} if not known). Interface types are defined before
+ * the first connection record that uses them. 
+ * </P>
+ */
+public class ContactTraceReader implements ExternalEventsReader {
+	/** Extension of contact trace files ({@value}) */
+	public static final String TRACE_EXT = ".bct";
+	/** Identifier in the beginning of contact trace files */
+	public static final int MAGIC = 0x4F4E4543; // "ONEC"
+	/** Version of the contact trace file format */
+	public static final byte VERSION = 1;
+	/** Record type of an interface type definition */
+	public static final byte INTERFACE_TYPE = 0;
+	/** Record type of a connection up event */
+	public static final byte LINK_UP = 1;
+	/** Record type of a connection down event */
+	public static final byte LINK_DOWN = 2;
+	/** Interface type index for connections without an interface type */
+	public static final short NO_INTERFACE = -1;
+
+	/** size of the input buffer */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private DataInputStream in;
+	private List<String> interfaceTypes;
+	private boolean allRead;
+
+	/**
+	 * Constructor.
+	 * @param traceFile The file where the contact trace is read from
+	 */
+	public ContactTraceReader(File traceFile) {
+		this.interfaceTypes = new ArrayList<String>();
+		try {
+			this.in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(traceFile), BUFFER_SIZE));
+			if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+				throw new SimError("Invalid contact trace file " + 
+						traceFile.getAbsolutePath());
+			}
+		} catch (IOException e) {
+			throw new SimError(e);
+		}
+	}
+
+	/**
+	 * Checks if the given file is a contact trace file (starts with the
+	 * contact trace identifier)
+	 * @param file The file to check
+	 * @return True if the file is a contact trace file, false if not
+	 */
+	public static boolean isContactTraceFile(File file) {
+		if (!file.isFile()) {
+			return false;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false; // too short or not readable
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) { /* nothing to do */ }
+			}
+		}
+	}
+
+	/**
+	 * Reads connection events from the trace
+	 * @param nrof Maximum number of events to read
+	 * @return Events in a List (empty list if no more events are left)
+	 */
+	public List<ExternalEvent> readEvents(int nrof) {
+		ArrayList<ExternalEvent> events = new ArrayList<ExternalEvent>(nrof);
+
+		try {
+			while (!allRead && events.size() < nrof) {
+				byte type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					allRead = true;
+					break;
+				}
+
+				if (type == INTERFACE_TYPE) {
+					int index = in.readShort();
+					String name = in.readUTF();
+					while (interfaceTypes.size() <= index) {
+						interfaceTypes.add(null);
+					}
+					interfaceTypes.set(index, name);
+				}
+				else if (type == LINK_UP || type == LINK_DOWN) {
+					double time = in.readDouble();
+					int from = in.readInt();
+					int to = in.readInt();
+					short index = in.readShort();
+					String interfaceId = (index == NO_INTERFACE ? null : 
+						interfaceTypes.get(index));
+					events.add(new ConnectionEvent(from, to, interfaceId, 
+							type == LINK_UP, time));
+				}
+				else {
+					throw new SimError("Unknown contact trace record type " + 
+							type);
+				}
+			}
+		} catch (IOException e) {
+			throw new SimError("Can't read contact trace", e);
+		}
+
+		return events;
+	}
+
+	public void close() {
+		try {
+			this.in.close();
+		} catch (IOException e) {
+			throw new SimError(e);
+		}
+	}
+
+}
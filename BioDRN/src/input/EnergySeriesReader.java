@@ -0,0 +1,270 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package input;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import core.SettingsError;
+
+/**
+ * <P>
+ * Reader of the binary energy time series written by
+ * {@link report.EnergyColumnsReport}. The file is read one block of samples
+ * at a time; the samples of a block are stored by column, one column per
+ * reported host.
+ * </P>
+ * <P>
+ * File format: {@link #MAGIC}, {@link #VERSION}, the number of columns
+ * (int) and the network address (int) and name (UTF) of each column's host,
+ * followed by the blocks. Each block contains the number of samples n
+ * (int), the sample times (n doubles), the total energy of the sensor nodes
+ * (n doubles), the number of sensor nodes that have energy left (n ints)
+ * and the energy levels of each column (n doubles per column, NaN for hosts
+ * that have no energy model).
+ * </P>
+ * <P>
+ * The series can be converted to CSV from the command line:
+ * </P>
+ * <P><TT>java input.EnergySeriesReader &lt;series file&gt;
+ * [&lt;output file&gt;]</TT></P>
+ */
+public class EnergySeriesReader {
+	/** Extension of energy series files ({@value}) */
+	public static final String SERIES_EXT = ".bes";
+	/** Identifier in the beginning of energy series files */
+	public static final int MAGIC = 0x4F4E4545; // "ONEE"
+	/** Version of the file format */
+	public static final int VERSION = 2;
+
+	private File file;
+	private DataInputStream in;
+	private int[] addresses;
+	private String[] names;
+
+	/* samples of the current block */
+	private int nrofSamples;
+	private double[] times;
+	private double[] totals;
+	private int[] alive;
+	private double[][] levels;
+
+	/**
+	 * Opens a series file and reads its header
+	 * @param file The series file
+	 * @throws SettingsError if the file can't be read or it isn't a valid
+	 * energy series file
+	 */
+	public EnergySeriesReader(File file) {
+		this.file = file;
+		try {
+			this.in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 1 << 16));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new SettingsError("Invalid energy series file " + file);
+			}
+			int nrofColumns = in.readInt();
+			this.addresses = new int[nrofColumns];
+			this.names = new String[nrofColumns];
+			for (int i=0; i < nrofColumns; i++) {
+				addresses[i] = in.readInt();
+				names[i] = in.readUTF();
+			}
+		} catch (IOException e) {
+			throw new SettingsError("Can't read energy series " + file +
+					": " + e.getMessage());
+		}
+
+		this.nrofSamples = 0;
+		this.times = new double[0];
+		this.totals = new double[0];
+		this.alive = new int[0];
+		this.levels = new double[names.length][0];
+	}
+
+	/**
+	 * Reads the next block of samples
+	 * @return True if a block was read, false if there are no more blocks
+	 * @throws SettingsError if the file is truncated or can't be read
+	 */
+	public boolean nextBlock() {
+		try {
+			int n;
+			try {
+				n = in.readInt();
+			} catch (EOFException e) {
+				this.nrofSamples = 0;
+				return false; /* no more blocks */
+			}
+
+			if (times.length < n) {
+				this.times = new double[n];
+				this.totals = new double[n];
+				this.alive = new int[n];
+				for (int c=0; c < levels.length; c++) {
+					levels[c] = new double[n];
+				}
+			}
+			for (int i=0; i < n; i++) {
+				times[i] = in.readDouble();
+			}
+			for (int i=0; i < n; i++) {
+				totals[i] = in.readDouble();
+			}
+			for (int i=0; i < n; i++) {
+				alive[i] = in.readInt();
+			}
+			for (int c=0; c < levels.length; c++) {
+				double[] column = levels[c];
+				for (int i=0; i < n; i++) {
+					column[i] = in.readDouble();
+				}
+			}
+			this.nrofSamples = n;
+			return true;
+		} catch (IOException e) {
+			throw new SettingsError("Can't read energy series " + file +
+					": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Closes the file
+	 */
+	public void close() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * Returns the number of columns (reported hosts)
+	 * @return The number of columns
+	 */
+	public int getNrofColumns() {
+		return this.names.length;
+	}
+
+	/**
+	 * Returns the network address of a column's host
+	 * @param column Index of the column
+	 * @return The address
+	 */
+	public int getAddress(int column) {
+		return this.addresses[column];
+	}
+
+	/**
+	 * Returns the name of a column's host
+	 * @param column Index of the column
+	 * @return The name of the host
+	 */
+	public String getName(int column) {
+		return this.names[column];
+	}
+
+	/**
+	 * Returns the number of samples in the current block
+	 * @return The number of samples
+	 */
+	public int getNrofSamples() {
+		return this.nrofSamples;
+	}
+
+	/**
+	 * Returns the time of a sample of the current block
+	 * @param sample Index of the sample in the block
+	 * @return The simulation time of the sample
+	 */
+	public double getTime(int sample) {
+		return this.times[sample];
+	}
+
+	/**
+	 * Returns the total energy of the sensor nodes at a sample
+	 * @param sample Index of the sample in the block
+	 * @return The total energy
+	 */
+	public double getTotalEnergy(int sample) {
+		return this.totals[sample];
+	}
+
+	/**
+	 * Returns the number of sensor nodes that had energy left at a sample
+	 * @param sample Index of the sample in the block
+	 * @return The number of alive nodes
+	 */
+	public int getNrofAlive(int sample) {
+		return this.alive[sample];
+	}
+
+	/**
+	 * Returns the energy levels of a column in the current block. The
+	 * array may be longer than the number of samples.
+	 * @param column Index of the column
+	 * @return The energy levels
+	 */
+	public double[] getLevels(int column) {
+		return this.levels[column];
+	}
+
+	/**
+	 * Writes the series as CSV: one row per sample with the time, the total
+	 * energy, the number of alive nodes and the energy of each host
+	 * @param out Where to write the CSV
+	 */
+	public void writeCsv(PrintWriter out) {
+		out.print("time,available_energy,alive");
+		for (String name : names) {
+			out.print("," + name);
+		}
+		out.println();
+
+		StringBuilder row = new StringBuilder();
+		while (nextBlock()) {
+			for (int i=0; i < nrofSamples; i++) {
+				row.setLength(0);
+				row.append(times[i]).append(',').append(totals[i]);
+				row.append(',').append(alive[i]);
+				for (int c=0; c < levels.length; c++) {
+					row.append(',').append(levels[c][i]);
+				}
+				out.println(row);
+			}
+		}
+	}
+
+	/**
+	 * Converts an energy series file to CSV.
+	 * @param args The series file and optionally the output file (default:
+	 * the series file with .csv extension)
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: java " +
+					EnergySeriesReader.class.getName() +
+					" <series file> [<output file>]");
+			System.exit(1);
+		}
+
+		File input = new File(args[0]);
+		File output = (args.length > 1 ? new File(args[1]) :
+			new File(args[0].replaceFirst("\\" + SERIES_EXT + "$", "") +
+					".csv"));
+		EnergySeriesReader reader = new EnergySeriesReader(input);
+		PrintWriter out = new PrintWriter(output);
+		reader.writeCsv(out);
+		out.close();
+		reader.close();
+		System.out.println("Converted " + input + " to " + output);
+	}
+}
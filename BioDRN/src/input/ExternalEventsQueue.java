@@ -7,12 +7,17 @@ package input;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import core.Settings;
+import core.SimError;
 
 /**
  * Queue of external events. This class also takes care of buffering
- * the events and preloading only a proper amount of them.
+ * the events and preloading only a proper amount of them. Optionally
+ * (see {@link #PREFETCH_SETTING}) the next chunk of events is read by
+ * a background thread while the simulation processes the current chunk.
  */
 public class ExternalEventsQueue implements EventQueue {
 	/** ExternalEvents namespace ({@value})*/
@@ -21,6 +26,12 @@ public class ExternalEventsQueue implements EventQueue {
 	public static final String PRELOAD_SETTING = "nrofPreload";
 	/** path of external events file -setting id ({@value})*/
 	public static final String PATH_SETTING = "filePath";
+	/** read events in background -setting id ({@value}). Boolean (default =
+	 * false). If true, the next chunk of {@link #PRELOAD_SETTING} events is
+	 * read by a background thread while the current chunk is processed. At
+	 * most one chunk is buffered in addition to the current chunk and the
+	 * chunk being read. */
+	public static final String PREFETCH_SETTING = "prefetch";
 	
 	/** default number of preloaded events */
 	public static final int DEFAULT_NROF_PRELOAD = 500;
@@ -31,12 +42,20 @@ public class ExternalEventsQueue implements EventQueue {
 	private int nrofPreload;
 	private List<ExternalEvent> queue;
 	private boolean allEventsRead = false;
+	/** background reader thread (null if events are not prefetched) */
+	private Thread prefetcher;
+	/** chunks read by the background thread (empty chunk = end of events) */
+	private BlockingQueue<List<ExternalEvent>> prefetched;
+	/** error that stopped the background thread (if any) */
+	private volatile Throwable prefetchError;
 	
 	/**
 	 * Creates a new Queue from a file
 	 * @param filePath Path to the file where the events are read from. If
 	 * file ends with extension defined in {@link BinaryEventsReader#BINARY_EXT}
-	 * the file is assumed to be a binary file.
+	 * the file is assumed to be a binary file. Contact trace files 
+	 * (see {@link ContactTraceReader}) and mapped events files (see 
+	 * {@link MappedEventsReader}) are recognized from their content.
 	 * @param nrofPreload How many events to preload
 	 * @see BinaryEventsReader#BINARY_EXT
 	 * @see BinaryEventsReader#storeToBinaryFile(String, List)
@@ -47,8 +66,9 @@ public class ExternalEventsQueue implements EventQueue {
 	}
 	
 	/**
-	 * Create a new Queue based on the given settings: {@link #PRELOAD_SETTING}
-	 * and {@link #PATH_SETTING}. The path setting supports value filling.
+	 * Create a new Queue based on the given settings: {@link #PRELOAD_SETTING},
+	 * {@link #PATH_SETTING}, and {@link #PREFETCH_SETTING}. The path setting
+	 * supports value filling.
 	 * @param s The settings
 	 */
 	public ExternalEventsQueue(Settings s) {
@@ -58,6 +78,9 @@ public class ExternalEventsQueue implements EventQueue {
 		else {
 			setNrofPreload(DEFAULT_NROF_PRELOAD);
 		}
+		if (s.contains(PREFETCH_SETTING) && s.getBoolean(PREFETCH_SETTING)) {
+			this.prefetched = new ArrayBlockingQueue<List<ExternalEvent>>(1);
+		}
         String eeFilePath = s.valueFillString(s.getSetting(PATH_SETTING));
         init(eeFilePath);
     }
@@ -77,12 +100,22 @@ public class ExternalEventsQueue implements EventQueue {
 	private void init(String eeFilePath) {
 		this.eventsFile = new File(eeFilePath);
 		
-		if (BinaryEventsReader.isBinaryEeFile(eventsFile)) {
+		if (ContactTraceReader.isContactTraceFile(eventsFile)) {
+			this.reader = new ContactTraceReader(eventsFile);
+		}
+		else if (MappedEventsReader.isMappedEventsFile(eventsFile)) {
+			this.reader = new MappedEventsReader(eventsFile);
+		}
+		else if (BinaryEventsReader.isBinaryEeFile(eventsFile)) {
 			this.reader = new BinaryEventsReader(eventsFile);
 		}
 		else {
 			this.reader = new StandardEventsReader(eventsFile);
 		}
+
+		if (prefetched != null) {
+			startPrefetcher();
+		}
 		
 		this.queue = readEvents(nrofPreload);
 		this.nextEventIndex = 0;
@@ -150,6 +183,10 @@ public class ExternalEventsQueue implements EventQueue {
 			return new ArrayList<ExternalEvent>(0);
 		}
 		
+		if (prefetcher != null) {
+			return takePrefetched();
+		}
+		
 		List<ExternalEvent> events = reader.readEvents(nrof);
 		
 		if (nrof > 0 && events.size() == 0) {
@@ -159,5 +196,80 @@ public class ExternalEventsQueue implements EventQueue {
 				
 		return events;
 	}
+
+	/**
+	 * Starts the background thread that reads chunks of events to the
+	 * prefetch buffer until all events are read or the queue is closed
+	 */
+	private void startPrefetcher() {
+		this.prefetcher = new Thread("ExternalEventsQueue " + eventsFile) {
+			@Override
+			public void run() {
+				try {
+					List<ExternalEvent> events;
+					do {
+						events = reader.readEvents(nrofPreload);
+						prefetched.put(events);
+					} while (events.size() > 0);
+				} catch (InterruptedException e) {
+					return; // queue was closed
+				} catch (Throwable t) {
+					prefetchError = t;
+					prefetched.offer(new ArrayList<ExternalEvent>(0));
+				} finally {
+					reader.close();
+				}
+			}
+		};
+		prefetcher.setDaemon(true);
+		prefetcher.start();
+	}
+
+	/**
+	 * Returns the next chunk read by the background thread (waits until
+	 * the chunk is available)
+	 * @return The next chunk of events or an empty list if all events have
+	 * been read
+	 */
+	private List<ExternalEvent> takePrefetched() {
+		List<ExternalEvent> events;
+		try {
+			events = prefetched.take();
+		} catch (InterruptedException e) {
+			throw new SimError("Interrupted while reading external events " + 
+					"from " + eventsFile, e);
+		}
+
+		if (prefetchError instanceof Error) {
+			throw (Error)prefetchError; // e.g., SimError from the reader
+		}
+		else if (prefetchError != null) {
+			throw new SimError("Can't read external events from " + 
+					eventsFile, (Exception)prefetchError);
+		}
+		if (events.size() == 0) {
+			allEventsRead = true;
+		}
+
+		return events;
+	}
+
+	/**
+	 * Closes the queue: stops the background reading (if any) and closes
+	 * the events file. No more events are returned after closing.
+	 */
+	public void close() {
+		if (!allEventsRead) {
+			if (prefetcher != null) {
+				prefetcher.interrupt();
+			}
+			else {
+				reader.close();
+			}
+			allEventsRead = true;
+		}
+		this.queue = new ArrayList<ExternalEvent>(0);
+		this.nextEventIndex = 0;
+	}
 	
 }
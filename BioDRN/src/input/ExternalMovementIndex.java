@@ -0,0 +1,485 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package input;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import core.Coord;
+import core.SettingsError;
+import core.Tuple;
+
+/**
+ * <P>
+ * Per-node, time-indexed binary version of an external movement trace
+ * (see {@link ExternalMovementReader}). The index is created once from the
+ * text trace and then memory mapped, so it is shared by all the runs and
+ * JVMs that use the same trace. The location of any node at any sample 
+ * time can be read directly (without reading the preceding samples) and 
+ * locations between the samples can be interpolated.
+ * </P>
+ * <P>
+ * The index contains the nodes (IDs) that have a location at the first
+ * time instance of the trace, i.e., the nodes that
+ * {@link movement.ExternalMovement} can assign to hosts. Values are 
+ * normalized like the values returned by the reader. If a node has more
+ * than one location at the same time instance, the last one is used.
+ * </P>
+ * <P>
+ * File format (all values big-endian): {@link #MAGIC}, {@link #VERSION},
+ * the offsets of the trace (minTime, maxTime, minX, maxX, minY, maxY as 
+ * doubles), the number of nodes and the number of time instances (ints),
+ * and the position of the ID table (long). The header is followed by the
+ * time stamps of the time instances (doubles) and the locations of the 
+ * nodes (x and y as doubles, NaN if the node had no location at the time),
+ * all time instances of the first node first. The ID table in the end of
+ * the file contains the initial locations (number of locations, and node
+ * index, x and y for each) and the UTF encoded node IDs.
+ * </P>
+ */
+public class ExternalMovementIndex {
+	/** Extension that is added to the name of the trace file to get the
+	 * name of the index file ({@value}) */
+	public static final String INDEX_EXT = ".emi";
+	/** Identifier in the beginning of external movement index files */
+	public static final int MAGIC = 0x4F4E4558; // "ONEX"
+	/** Version of the file format */
+	public static final int VERSION = 1;
+	/** Size of the file header (bytes) */
+	private static final int HEADER_SIZE = 72;
+	/** Size of one location (bytes) */
+	private static final int LOCATION_SIZE = 16;
+
+	private MappedByteBuffer data;
+	private double minTime;
+	private double maxTime;
+	private double minX;
+	private double maxX;
+	private double minY;
+	private double maxY;
+	private int nrofNodes;
+	private int nrofSamples;
+	/** position of the first location in the mapped data */
+	private int locationsStart;
+	private String[] ids;
+	private List<Tuple<String, Coord>> initLocations;
+
+	/**
+	 * Opens an index file.
+	 * @param indexFile The index file
+	 * @throws IOException if the file can't be read
+	 * @throws SettingsError if the file isn't a valid index file
+	 */
+	private ExternalMovementIndex(File indexFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+				throw new SettingsError("Invalid external movement index " +
+						indexFile);
+			}
+			this.minTime = raf.readDouble();
+			this.maxTime = raf.readDouble();
+			this.minX = raf.readDouble();
+			this.maxX = raf.readDouble();
+			this.minY = raf.readDouble();
+			this.maxY = raf.readDouble();
+			this.nrofNodes = raf.readInt();
+			this.nrofSamples = raf.readInt();
+			long tablePos = raf.readLong();
+
+			if (tablePos > Integer.MAX_VALUE) {
+				throw new SettingsError("Too large external movement index " +
+						indexFile);
+			}
+			this.data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 
+					0, tablePos);
+			this.locationsStart = HEADER_SIZE + nrofSamples * 8;
+
+			readTable(new DataInputStream(new BufferedInputStream(
+					new FileInputStream(indexFile))), tablePos);
+		} finally {
+			raf.close(); // the mapping stays valid after closing
+		}
+	}
+
+	/**
+	 * Reads the ID table
+	 * @param in The stream to read from (positioned at the file start)
+	 * @param tablePos Position of the table in the file
+	 * @throws IOException if the reading fails
+	 */
+	private void readTable(DataInputStream in, long tablePos) 
+			throws IOException {
+		try {
+			in.skipBytes((int)tablePos);
+			int nrofInit = in.readInt();
+			int[] initNodes = new int[nrofInit];
+			Coord[] initCoords = new Coord[nrofInit];
+			for (int i=0; i < nrofInit; i++) {
+				initNodes[i] = in.readInt();
+				initCoords[i] = new Coord(in.readDouble(), in.readDouble());
+			}
+
+			this.ids = new String[nrofNodes];
+			for (int i=0; i < nrofNodes; i++) {
+				ids[i] = in.readUTF();
+			}
+
+			this.initLocations = new ArrayList<Tuple<String, Coord>>();
+			for (int i=0; i < nrofInit; i++) {
+				initLocations.add(new Tuple<String, Coord>(ids[initNodes[i]],
+						initCoords[i]));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the index of the given trace file. The index is read from the
+	 * file that has the trace's name with {@link #INDEX_EXT} extension. If
+	 * the index file doesn't exist or it is older than the trace, the index 
+	 * is first created. If the given file is an index file itself, it is
+	 * used directly.
+	 * @param traceFilePath Path to the text trace (or an index file)
+	 * @return The index
+	 * @throws SettingsError if the index can't be read or created
+	 */
+	public static ExternalMovementIndex open(String traceFilePath) {
+		File traceFile = new File(traceFilePath);
+		File indexFile = new File(traceFilePath + INDEX_EXT);
+
+		try {
+			if (isIndexFile(traceFile)) {
+				return new ExternalMovementIndex(traceFile);
+			}
+			if (!isIndexFile(indexFile) || 
+					indexFile.lastModified() < traceFile.lastModified()) {
+				createIndex(traceFile, indexFile);
+			}
+			return new ExternalMovementIndex(indexFile);
+		} catch (IOException e) {
+			throw new SettingsError("Can't create external movement index " +
+					"for " + traceFilePath + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Checks if the given file is an external movement index file
+	 * @param file The file to check
+	 * @return True if the file is an index file, false if not
+	 */
+	public static boolean isIndexFile(File file) {
+		if (!file.isFile()) {
+			return false;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			return in.readInt() == MAGIC && in.readInt() == VERSION;
+		} catch (IOException e) {
+			return false; // too short or not readable
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) { /* nothing to do */ }
+			}
+		}
+	}
+
+	/**
+	 * Creates an index file from a text trace. The index is first written
+	 * to a temporary file that is then renamed, so other simulations never
+	 * see a partially written index.
+	 * @param traceFile The text trace
+	 * @param indexFile The index file to create
+	 * @throws IOException if creating the file fails
+	 */
+	public static void createIndex(File traceFile, File indexFile) 
+			throws IOException {
+		ExternalMovementReader reader = 
+			new ExternalMovementReader(traceFile.getPath());
+
+		List<Tuple<String, Coord>> initLocs = reader.readNextMovements();
+		HashMap<String, Integer> nodes = new HashMap<String, Integer>();
+		List<String> ids = new ArrayList<String>();
+		for (Tuple<String, Coord> t : initLocs) {
+			if (!nodes.containsKey(t.getKey())) {
+				nodes.put(t.getKey(), ids.size());
+				ids.add(t.getKey());
+			}
+		}
+
+		/* read all the time instances to a node-major location table */
+		List<Double> times = new ArrayList<Double>();
+		List<double[]> samples = new ArrayList<double[]>();
+		List<Tuple<String, Coord>> moves = initLocs;
+		while (moves.size() > 0) {
+			double[] locs = new double[ids.size() * 2];
+			Arrays.fill(locs, Double.NaN);
+			for (Tuple<String, Coord> t : moves) {
+				Integer node = nodes.get(t.getKey());
+				if (node != null) {
+					locs[node * 2] = t.getValue().getX();
+					locs[node * 2 + 1] = t.getValue().getY();
+				}
+			}
+			times.add(reader.getLastTimeStamp());
+			samples.add(locs);
+			moves = reader.readNextMovements();
+		}
+
+		File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", 
+				indexFile.getAbsoluteFile().getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmpFile), 1 << 16));
+		try {
+			long tablePos = HEADER_SIZE + times.size() * 8L + 
+				(long)ids.size() * times.size() * LOCATION_SIZE;
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(reader.getMinTime());
+			out.writeDouble(reader.getMaxTime());
+			out.writeDouble(reader.getMinX());
+			out.writeDouble(reader.getMaxX());
+			out.writeDouble(reader.getMinY());
+			out.writeDouble(reader.getMaxY());
+			out.writeInt(ids.size());
+			out.writeInt(times.size());
+			out.writeLong(tablePos);
+
+			for (double time : times) {
+				out.writeDouble(time);
+			}
+			for (int node = 0; node < ids.size(); node++) {
+				for (double[] locs : samples) {
+					out.writeDouble(locs[node * 2]);
+					out.writeDouble(locs[node * 2 + 1]);
+				}
+			}
+
+			out.writeInt(initLocs.size());
+			for (Tuple<String, Coord> t : initLocs) {
+				out.writeInt(nodes.get(t.getKey()));
+				out.writeDouble(t.getValue().getX());
+				out.writeDouble(t.getValue().getY());
+			}
+			for (String id : ids) {
+				out.writeUTF(id);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!tmpFile.renameTo(indexFile)) {
+			indexFile.delete();
+			if (!tmpFile.renameTo(indexFile)) {
+				tmpFile.delete();
+				throw new IOException("Can't rename " + tmpFile + " to " + 
+						indexFile);
+			}
+		}
+	}
+
+	/**
+	 * Returns the initial locations (the locations of the first time 
+	 * instance) in the order they appear in the trace
+	 * @return The initial (ID, location) tuples
+	 */
+	public List<Tuple<String, Coord>> getInitialLocations() {
+		return new ArrayList<Tuple<String, Coord>>(this.initLocations);
+	}
+
+	/**
+	 * Returns the number of nodes in the index
+	 * @return the number of nodes
+	 */
+	public int getNrofNodes() {
+		return this.nrofNodes;
+	}
+
+	/**
+	 * Returns the ID of a node
+	 * @param node Index of the node
+	 * @return the ID of the node
+	 */
+	public String getId(int node) {
+		return this.ids[node];
+	}
+
+	/**
+	 * Returns the number of time instances (samples) in the index
+	 * @return the number of time instances
+	 */
+	public int getNrofSamples() {
+		return this.nrofSamples;
+	}
+
+	/**
+	 * Returns the time stamp of a time instance
+	 * @param sample Index of the time instance
+	 * @return The (normalized) time stamp
+	 */
+	public double getTime(int sample) {
+		return data.getDouble(HEADER_SIZE + sample * 8);
+	}
+
+	/**
+	 * Returns the index of the last time instance that is at or before the
+	 * given time. Time instances are assumed to be (nearly) evenly spaced, 
+	 * so the search usually needs no more than one step.
+	 * @param time The (normalized) time
+	 * @return Index of the time instance or -1 if the time is before the
+	 * first time instance
+	 */
+	public int getSampleIndex(double time) {
+		if (nrofSamples == 0 || time < getTime(0)) {
+			return -1;
+		}
+		if (nrofSamples == 1) {
+			return 0;
+		}
+
+		double interval = (getTime(nrofSamples-1) - getTime(0)) / 
+			(nrofSamples - 1);
+		int i = (int)Math.min(nrofSamples - 1, (time - getTime(0)) / interval);
+		while (i > 0 && getTime(i) > time) {
+			i--;
+		}
+		while (i < nrofSamples - 1 && getTime(i + 1) <= time) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns true if the node has a location at the given time instance
+	 * @param node Index of the node
+	 * @param sample Index of the time instance
+	 * @return true if the node has a location at the time instance
+	 */
+	public boolean hasLocation(int node, int sample) {
+		return !Double.isNaN(data.getDouble(locationPos(node, sample)));
+	}
+
+	/**
+	 * Returns the location of a node at a time instance
+	 * @param node Index of the node
+	 * @param sample Index of the time instance
+	 * @return The (normalized) location or null if the node has no location
+	 * at the time instance
+	 */
+	public Coord getLocation(int node, int sample) {
+		int pos = locationPos(node, sample);
+		double x = data.getDouble(pos);
+		if (Double.isNaN(x)) {
+			return null;
+		}
+		return new Coord(x, data.getDouble(pos + 8));
+	}
+
+	/**
+	 * Returns the location of a node at the given time. The location is 
+	 * linearly interpolated between the time instances before and after
+	 * the time.
+	 * @param node Index of the node
+	 * @param time The (normalized) time
+	 * @return The location or null if the node has no location at the
+	 * time instance before the time
+	 */
+	public Coord getLocation(int node, double time) {
+		int sample = getSampleIndex(time);
+		if (sample < 0) {
+			return null;
+		}
+
+		Coord loc = getLocation(node, sample);
+		if (loc == null || sample == nrofSamples - 1) {
+			return loc;
+		}
+
+		Coord next = getLocation(node, sample + 1);
+		if (next == null) {
+			return loc;
+		}
+
+		double t0 = getTime(sample);
+		double ratio = (time - t0) / (getTime(sample + 1) - t0);
+		return new Coord(loc.getX() + (next.getX() - loc.getX()) * ratio,
+				loc.getY() + (next.getY() - loc.getY()) * ratio);
+	}
+
+	/**
+	 * Returns the position of a location in the mapped data
+	 */
+	private int locationPos(int node, int sample) {
+		return locationsStart + (node * nrofSamples + sample) * LOCATION_SIZE;
+	}
+
+	/**
+	 * Returns offset minTime
+	 * @return the minTime
+	 */
+	public double getMinTime() {
+		return minTime;
+	}
+
+	/**
+	 * Returns offset maxTime
+	 * @return the maxTime
+	 */
+	public double getMaxTime() {
+		return maxTime;
+	}
+
+	/**
+	 * Returns offset minX
+	 * @return the minX
+	 */
+	public double getMinX() {
+		return minX;
+	}
+
+	/**
+	 * Returns offset maxX
+	 * @return the maxX
+	 */
+	public double getMaxX() {
+		return maxX;
+	}
+
+	/**
+	 * Returns offset minY
+	 * @return the minY
+	 */
+	public double getMinY() {
+		return minY;
+	}
+
+	/**
+	 * Returns offset maxY
+	 * @return the maxY
+	 */
+	public double getMaxY() {
+		return maxY;
+	}
+
+}
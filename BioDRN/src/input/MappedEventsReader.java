@@ -0,0 +1,411 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package input;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import core.SimError;
+
+/**
+ * <P>
+ * Reads external events from a fixed-record binary events file through a
+ * memory mapped buffer. Compared to the other readers, no parsing or object
+ * deserialization is needed: all strings (message and interface IDs) are
+ * read only once from the string table of the file and the events are
+ * created directly from the records. Files can be created from standard
+ * format text files and from binary external events files with 
+ * {@link #convert(File, String)} or from the command line:
+ * </P>
+ * <P><TT>java input.MappedEventsReader &lt;inputFile&gt; &lt;outputFile&gt;
+ * </TT></P>
+ * <P>
+ * File format (all values big-endian): the header contains 
+ * {@link #MAGIC}, {@link #VERSION}, the number of events (long), and the 
+ * position of the string table (long). The header is followed by the event
+ * records ({@link #RECORD_SIZE} bytes each, in the order of the events): 
+ * time (double), event type (int), the address of the first and the second
+ * host (ints), index of the message or interface ID in the string table (int,
+ * -1 if no ID), message size (int), and response size (int). The string table
+ * in the end of the file contains the number of strings (int) and the UTF
+ * encoded strings.
+ * </P>
+ */
+public class MappedEventsReader implements ExternalEventsReader {
+	/** Identifier in the beginning of mapped events files */
+	public static final int MAGIC = 0x4F4E454D; // "ONEM"
+	/** Version of the file format */
+	public static final int VERSION = 1;
+	/** Size of the file header (bytes) */
+	public static final int HEADER_SIZE = 24;
+	/** Size of one event record (bytes) */
+	public static final int RECORD_SIZE = 32;
+
+	/** Event type of message creation event */
+	public static final int CREATE = 0;
+	/** Event type of message transfer start event */
+	public static final int SEND = 1;
+	/** Event type of message delivered event */
+	public static final int DELIVERED = 2;
+	/** Event type of message transfer aborted event */
+	public static final int ABORT = 3;
+	/** Event type of message dropped event */
+	public static final int DROP = 4;
+	/** Event type of message removed event */
+	public static final int REMOVE = 5;
+	/** Event type of connection up event */
+	public static final int CONNECTION_UP = 6;
+	/** Event type of connection down event */
+	public static final int CONNECTION_DOWN = 7;
+
+	/** String table index for events without an ID */
+	private static final int NO_ID = -1;
+	/** Maximum number of records mapped at a time */
+	private static final int WINDOW_RECORDS = (1 << 30) / RECORD_SIZE;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer window;
+	/** index of the first record in the current window */
+	private long windowStart;
+	/** number of records in the current window */
+	private int windowSize;
+	private long nrofEvents;
+	private long nextEvent;
+	private String[] strings;
+
+	/**
+	 * Constructor.
+	 * @param eventsFile The file where the events are read
+	 */
+	public MappedEventsReader(File eventsFile) {
+		try {
+			this.file = new RandomAccessFile(eventsFile, "r");
+			this.channel = file.getChannel();
+			if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+				throw new SimError("Invalid mapped events file " + 
+						eventsFile.getAbsolutePath());
+			}
+			this.nrofEvents = file.readLong();
+			readStrings(file.readLong());
+		} catch (IOException e) {
+			throw new SimError(e);
+		}
+
+		this.nextEvent = 0;
+		this.windowStart = 0;
+		this.windowSize = 0;
+	}
+
+	/**
+	 * Reads the string table
+	 * @param position Position of the string table in the file
+	 * @throws IOException if the reading fails
+	 */
+	private void readStrings(long position) throws IOException {
+		FileInputStream fis = new FileInputStream(file.getFD());
+		fis.getChannel().position(position);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(fis));
+
+		this.strings = new String[in.readInt()];
+		for (int i=0; i < strings.length; i++) {
+			strings[i] = in.readUTF();
+		}
+	}
+
+	/**
+	 * Checks if the given file is a mapped events file (starts with the
+	 * mapped events file identifier)
+	 * @param file The file to check
+	 * @return True if the file is a mapped events file, false if not
+	 */
+	public static boolean isMappedEventsFile(File file) {
+		if (!file.isFile()) {
+			return false;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false; // too short or not readable
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) { /* nothing to do */ }
+			}
+		}
+	}
+
+	/**
+	 * Maps the next window of records to memory
+	 */
+	private void mapNextWindow() {
+		this.windowStart += windowSize;
+		this.windowSize = (int)Math.min(WINDOW_RECORDS, nrofEvents-windowStart);
+		try {
+			this.window = channel.map(FileChannel.MapMode.READ_ONLY, 
+					HEADER_SIZE + windowStart * RECORD_SIZE, 
+					(long)windowSize * RECORD_SIZE);
+		} catch (IOException e) {
+			throw new SimError("Can't map events file", e);
+		}
+	}
+
+	/**
+	 * Read events from the mapped file
+	 * @param nrof Maximum number of events to read
+	 * @return Events in a List (empty list if no more events are left)
+	 */
+	public List<ExternalEvent> readEvents(int nrof) {
+		int count = (int)Math.min(nrof, nrofEvents - nextEvent);
+		ArrayList<ExternalEvent> events = new ArrayList<ExternalEvent>(count);
+
+		for (int i=0; i < count; i++, nextEvent++) {
+			if (nextEvent >= windowStart + windowSize) {
+				mapNextWindow();
+			}
+			events.add(createEvent((int)(nextEvent - windowStart) * 
+					RECORD_SIZE));
+		}
+
+		return events;
+	}
+
+	/**
+	 * Creates an event from a record of the current window
+	 * @param pos Position of the record in the window
+	 * @return The event
+	 */
+	private ExternalEvent createEvent(int pos) {
+		double time = window.getDouble(pos);
+		int type = window.getInt(pos + 8);
+		int from = window.getInt(pos + 12);
+		int to = window.getInt(pos + 16);
+		int idIndex = window.getInt(pos + 20);
+		String id = (idIndex == NO_ID ? null : strings[idIndex]);
+
+		switch (type) {
+		case CREATE:
+			return new MessageCreateEvent(from, to, id, 
+					window.getInt(pos + 24), window.getInt(pos + 28), time);
+		case SEND:
+			return new MessageRelayEvent(from, to, id, time, 
+					MessageRelayEvent.SENDING);
+		case DELIVERED:
+			return new MessageRelayEvent(from, to, id, time, 
+					MessageRelayEvent.TRANSFERRED);
+		case ABORT:
+			return new MessageRelayEvent(from, to, id, time, 
+					MessageRelayEvent.ABORTED);
+		case DROP:
+			return new MessageDeleteEvent(from, id, time, true);
+		case REMOVE:
+			return new MessageDeleteEvent(from, id, time, false);
+		case CONNECTION_UP:
+			return new ConnectionEvent(from, to, id, true, time);
+		case CONNECTION_DOWN:
+			return new ConnectionEvent(from, to, id, false, time);
+		default:
+			throw new SimError("Unknown event type " + type + 
+					" in mapped events file");
+		}
+	}
+
+	public void close() {
+		this.window = null;
+		try {
+			this.file.close();
+		} catch (IOException e) {
+			throw new SimError(e);
+		}
+	}
+
+	/**
+	 * Converts a standard format or a binary external events file to a
+	 * mapped events file. Events are converted in chunks so the whole input
+	 * doesn't need to fit in memory. The events are written to a temporary
+	 * file that is renamed to the final name when the conversion is done.
+	 * @param eventsFile The file to convert
+	 * @param fileName Path to the file where the events are stored
+	 * @return The number of events that were converted
+	 * @throws IOException if something in storing went wrong
+	 */
+	public static long convert(File eventsFile, String fileName) 
+			throws IOException {
+		ExternalEventsReader reader;
+		if (BinaryEventsReader.isBinaryEeFile(eventsFile)) {
+			reader = new BinaryEventsReader(eventsFile);
+		}
+		else {
+			reader = new StandardEventsReader(eventsFile);
+		}
+
+		HashMap<String, Integer> stringIndexes = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		long nrofEvents = 0;
+		long stringTablePos;
+
+		File file = new File(fileName);
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", 
+				file.getAbsoluteFile().getParentFile());
+		boolean done = false;
+		try {
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile), 1<<16));
+			try {
+				out.write(new byte[HEADER_SIZE]); // header is written last
+
+				List<ExternalEvent> events = reader.readEvents(
+						ExternalEventsQueue.DEFAULT_NROF_PRELOAD);
+				while (events.size() > 0) {
+					for (ExternalEvent ee : events) {
+						writeRecord(out, ee, stringIndexes, strings);
+						nrofEvents++;
+					}
+					events = reader.readEvents(
+							ExternalEventsQueue.DEFAULT_NROF_PRELOAD);
+				}
+
+				stringTablePos = HEADER_SIZE + nrofEvents * RECORD_SIZE;
+				out.writeInt(strings.size());
+				for (String s : strings) {
+					out.writeUTF(s);
+				}
+			} finally {
+				out.close();
+			}
+
+			RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+			try {
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeLong(nrofEvents);
+				raf.writeLong(stringTablePos);
+			} finally {
+				raf.close();
+			}
+
+			file.delete();
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException("Can't rename " + tmpFile + " to " + 
+						file);
+			}
+			done = true;
+		} finally {
+			reader.close();
+			if (!done) {
+				tmpFile.delete();
+			}
+		}
+
+		return nrofEvents;
+	}
+
+	/**
+	 * Writes one event record
+	 * @param out Where to write the record
+	 * @param ee The event
+	 * @param stringIndexes Indexes of the strings in the string table
+	 * @param strings The string table
+	 * @throws IOException if the writing fails
+	 */
+	private static void writeRecord(DataOutputStream out, ExternalEvent ee,
+			HashMap<String, Integer> stringIndexes, List<String> strings) 
+			throws IOException {
+		int type, from, to;
+		int size = 0;
+		int respSize = 0;
+		String id;
+
+		if (ee instanceof ConnectionEvent) {
+			ConnectionEvent ce = (ConnectionEvent)ee;
+			type = ce.isUp ? CONNECTION_UP : CONNECTION_DOWN;
+			from = ce.fromAddr;
+			to = ce.toAddr;
+			id = ce.interfaceId;
+		}
+		else if (ee instanceof MessageEvent) {
+			MessageEvent me = (MessageEvent)ee;
+			from = me.fromAddr;
+			to = me.toAddr;
+			id = me.id;
+
+			if (me instanceof MessageCreateEvent) {
+				type = CREATE;
+				size = ((MessageCreateEvent)me).getSize();
+				respSize = ((MessageCreateEvent)me).getResponseSize();
+			}
+			else if (me instanceof MessageDeleteEvent) {
+				type = ((MessageDeleteEvent)me).isDrop() ? DROP : REMOVE;
+			}
+			else if (me instanceof MessageRelayEvent) {
+				switch (((MessageRelayEvent)me).getStage()) {
+				case MessageRelayEvent.SENDING: type = SEND; break;
+				case MessageRelayEvent.TRANSFERRED: type = DELIVERED; break;
+				case MessageRelayEvent.ABORTED: type = ABORT; break;
+				default: throw new SimError("Unknown stage in " + me);
+				}
+			}
+			else {
+				throw new SimError("Unsupported event " + ee);
+			}
+		}
+		else {
+			throw new SimError("Unsupported event " + ee);
+		}
+
+		int idIndex = NO_ID;
+		if (id != null) {
+			Integer index = stringIndexes.get(id);
+			if (index == null) {
+				index = strings.size();
+				strings.add(id);
+				stringIndexes.put(id, index);
+			}
+			idIndex = index;
+		}
+
+		out.writeDouble(ee.getTime());
+		out.writeInt(type);
+		out.writeInt(from);
+		out.writeInt(to);
+		out.writeInt(idIndex);
+		out.writeInt(size);
+		out.writeInt(respSize);
+	}
+
+	/**
+	 * Converts an external events file to a mapped events file.
+	 * @param args The input file and the output file
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: java " + 
+					MappedEventsReader.class.getName() + 
+					" <inputFile> <outputFile>");
+			System.exit(1);
+		}
+
+		long count = convert(new File(args[0]), args[1]);
+		System.out.println("Converted " + count + " events to " + args[1]);
+	}
+
+}
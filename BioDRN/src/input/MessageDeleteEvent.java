@@ -30,6 +30,15 @@ public class MessageDeleteEvent extends MessageEvent {
 		super(host, host, id, time);
 		this.drop = drop;
 	}
+
+	/**
+	 * Returns true if the delete is caused by a drop
+	 * @return true if the delete is caused by a drop, false if the message
+	 * is "normally" removed
+	 */
+	public boolean isDrop() {
+		return this.drop;
+	}
 	
 	/**
 	 * Deletes the message
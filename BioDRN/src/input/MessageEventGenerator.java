@@ -4,15 +4,33 @@
  */
 package input;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import core.Settings;
 import core.SettingsError;
+import core.SimError;
+import core.SimScenario;
 
 /**
  * Message creation -external events generator. Creates uniformly distributed
  * message creation patterns whose message size and inter-message intervals can
- * be configured.
+ * be configured. Optionally the message schedule can be pre-generated in 
+ * windows by a background thread (see {@link #PREGENERATE_S}) and stored
+ * to a file for the later runs (see {@link #SCHEDULE_FILE_S}). The 
+ * pre-generated schedule is identical to the one generated one message at 
+ * a time.
  */
 public class MessageEventGenerator implements EventQueue {
 	/** Message size range -setting id ({@value}). Can be either a single
@@ -44,6 +62,22 @@ public class MessageEventGenerator implements EventQueue {
 	 * and after the second value. By default, messages are created for the 
 	 * whole simulation time. */
 	public static final String MESSAGE_TIME_S = "time";
+	/** Message schedule pre-generation window -setting id ({@value}). 
+	 * Number of messages that a background thread generates ahead at a 
+	 * time. At most two windows are buffered. Default is 0 (messages are 
+	 * generated one at a time when they are needed). */
+	public static final String PREGENERATE_S = "pregenerate";
+	/** Message schedule file -setting id ({@value}). If defined, the whole
+	 * message schedule (until the end of the {@link #MESSAGE_TIME_S} range 
+	 * or the end of the scenario) is read from this file. If the file 
+	 * doesn't exist or it was created with different settings, the schedule
+	 * is generated and stored to the file. Supports value filling. */
+	public static final String SCHEDULE_FILE_S = "scheduleFile";
+	
+	/** Identifier in the beginning of message schedule files */
+	private static final int SCHEDULE_MAGIC = 0x4F4E4553; // "ONES"
+	/** Version of the message schedule file format */
+	private static final int SCHEDULE_VERSION = 1;
 	
 	/** Time of the next event (simulated seconds) */
 	protected double nextEventsTime = 0;
@@ -65,6 +99,19 @@ public class MessageEventGenerator implements EventQueue {
 	/** Random number generator for this Class */
 	protected Random rng;
 	
+	/** pre-generated messages that are being consumed (null if messages 
+	 * are not pre-generated) */
+	private ScheduleWindow window;
+	/** index of the next message in the window */
+	private int windowIndex;
+	/** windows generated by the background thread (null if no more windows
+	 * are generated) */
+	private BlockingQueue<ScheduleWindow> windows;
+	/** the background thread generating the windows (null if none) */
+	private Thread generator;
+	/** time of the next message to pre-generate */
+	private double genTime;
+	
 	/**
 	 * Constructor, initializes the interval between events, 
 	 * and the size of messages generated, as well as number 
@@ -129,6 +176,242 @@ public class MessageEventGenerator implements EventQueue {
 			+ msgInterval[0] + 
 			(msgInterval[0] == msgInterval[1] ? 0 : 
 			rng.nextInt(msgInterval[1] - msgInterval[0]));
+		
+		initSchedule(s);
+	}
+	
+	/**
+	 * Initializes the pre-generated message schedule if it is requested
+	 * in the settings
+	 * @param s The settings of this generator
+	 */
+	private void initSchedule(Settings s) {
+		int windowSize = 0;
+		String scheduleFile = null;
+		
+		if (s.contains(PREGENERATE_S)) {
+			windowSize = s.getInt(PREGENERATE_S);
+		}
+		if (s.contains(SCHEDULE_FILE_S)) {
+			scheduleFile = s.valueFillString(s.getSetting(SCHEDULE_FILE_S));
+		}
+		if (windowSize <= 0 && scheduleFile == null) {
+			return; // no pre-generation
+		}
+		if (getClass() != MessageEventGenerator.class) {
+			throw new SettingsError(getClass().getSimpleName() + " doesn't " +
+					"support message schedule pre-generation");
+		}
+		
+		this.genTime = this.nextEventsTime;
+		this.windowIndex = 0;
+		
+		if (scheduleFile != null) {
+			/* the time range limits the schedule if it is defined */
+			double limit = (msgTime != null ? Double.MAX_VALUE : new Settings(
+				SimScenario.SCENARIO_NS).getDouble(SimScenario.END_TIME_S));
+			this.window = loadSchedule(scheduleFile, limit);
+			if (this.window == null) {
+				this.window = generateWindow(Integer.MAX_VALUE, limit);
+				storeSchedule(scheduleFile, limit, this.window);
+			}
+			this.windows = null;
+		}
+		else {
+			this.windows = new ArrayBlockingQueue<ScheduleWindow>(1);
+			startGenerator(windowSize);
+			this.window = takeWindow();
+		}
+		
+		if (window.count == 0) {
+			this.nextEventsTime = window.nextTime;
+		}
+	}
+	
+	/**
+	 * Starts the background thread that generates windows of messages
+	 * until the end of the message time range
+	 * @param windowSize Number of messages in a window
+	 */
+	private void startGenerator(final int windowSize) {
+		final BlockingQueue<ScheduleWindow> queue = this.windows;
+		this.generator = new Thread("MessageEventGenerator " + idPrefix) {
+			@Override
+			public void run() {
+				ScheduleWindow w;
+				try {
+					do {
+						w = generateWindow(windowSize, Double.MAX_VALUE);
+						queue.put(w);
+					} while (w.nextTime != Double.MAX_VALUE);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		};
+		generator.setDaemon(true);
+		generator.start();
+	}
+	
+	/**
+	 * Stops the background generation of messages (if any). Should be 
+	 * called when the simulation is done; no more windows of pre-generated
+	 * messages are taken after this.
+	 */
+	public void close() {
+		if (this.generator != null) {
+			generator.interrupt();
+			this.generator = null;
+		}
+		this.windows = null;
+	}
+	
+	/**
+	 * Returns the next window generated by the background thread
+	 * @return The next window
+	 */
+	private ScheduleWindow takeWindow() {
+		try {
+			return windows.take();
+		} catch (InterruptedException e) {
+			throw new SimError("Interrupted while generating messages", e);
+		}
+	}
+	
+	/**
+	 * Generates a window of messages with the same random draws that 
+	 * {@link #nextEvent()} would use
+	 * @param maxCount Maximum number of messages in the window
+	 * @param limit No messages are generated after this time
+	 * @return The window
+	 */
+	private ScheduleWindow generateWindow(int maxCount, double limit) {
+		ScheduleWindow w = new ScheduleWindow(Math.min(maxCount, 1024));
+		
+		while (w.count < maxCount && genTime != Double.MAX_VALUE) {
+			if (genTime > limit) {
+				genTime = Double.MAX_VALUE;
+				break;
+			}
+			
+			int from = drawHostAddress(this.hostRange);
+			int to = drawToAddress(hostRange, from);
+			w.add(genTime, from, to, drawMessageSize());
+			
+			genTime += drawNextEventTimeDiff();
+			if (this.msgTime != null && genTime > this.msgTime[1]) {
+				genTime = Double.MAX_VALUE;
+			}
+		}
+		
+		w.nextTime = genTime;
+		return w;
+	}
+	
+	/**
+	 * Writes the settings that affect the message schedule to a stream
+	 * @param out The stream
+	 * @param limit The time limit of the schedule
+	 * @throws IOException if writing fails
+	 */
+	private void writeScheduleKey(DataOutputStream out, double limit) 
+			throws IOException {
+		out.writeInt(SCHEDULE_MAGIC);
+		out.writeInt(SCHEDULE_VERSION);
+		out.writeUTF(idPrefix);
+		for (int[] range : new int[][] {sizeRange, msgInterval, hostRange, 
+				toHostRange != null ? toHostRange : new int[] {-1, -1}}) {
+			out.writeInt(range[0]);
+			out.writeInt(range[1]);
+		}
+		out.writeDouble(msgTime != null ? msgTime[0] : -1);
+		out.writeDouble(msgTime != null ? msgTime[1] : -1);
+		out.writeDouble(limit);
+	}
+	
+	/**
+	 * Reads a message schedule from a file
+	 * @param fileName Path of the file
+	 * @param limit The time limit of the schedule
+	 * @return The schedule or null if the file doesn't exist or it was 
+	 * created with different settings
+	 */
+	private ScheduleWindow loadSchedule(String fileName, double limit) {
+		File file = new File(fileName);
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 1 << 16));
+
+			/* compare the stored key to the key of this generator */
+			ByteArrayOutputStream key = new ByteArrayOutputStream();
+			writeScheduleKey(new DataOutputStream(key), limit);
+			byte[] expected = key.toByteArray();
+			byte[] stored = new byte[expected.length];
+			in.readFully(stored);
+			if (!Arrays.equals(expected, stored)) {
+				return null;
+			}
+			
+			ScheduleWindow w = new ScheduleWindow(in.readInt());
+			for (int i=0, n = w.times.length; i < n; i++) {
+				w.add(in.readDouble(), in.readInt(), in.readInt(), 
+						in.readInt());
+			}
+			w.nextTime = in.readDouble();
+			return w;
+		} catch (IOException e) {
+			return null; // invalid or truncated file -> regenerate
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) { /* nothing to do */ }
+			}
+		}
+	}
+	
+	/**
+	 * Stores a message schedule to a file
+	 * @param fileName Path of the file
+	 * @param limit The time limit of the schedule
+	 * @param w The schedule
+	 */
+	private void storeSchedule(String fileName, double limit, 
+			ScheduleWindow w) {
+		File file = new File(fileName);
+		try {
+			File tmpFile = File.createTempFile(file.getName(), ".tmp", 
+					file.getAbsoluteFile().getParentFile());
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile), 1<<16));
+			try {
+				writeScheduleKey(out, limit);
+				out.writeInt(w.count);
+				for (int i=0; i < w.count; i++) {
+					out.writeDouble(w.times[i]);
+					out.writeInt(w.from[i]);
+					out.writeInt(w.to[i]);
+					out.writeInt(w.sizes[i]);
+				}
+				out.writeDouble(w.nextTime);
+			} finally {
+				out.close();
+			}
+			
+			file.delete();
+			if (!tmpFile.renameTo(file)) {
+				tmpFile.delete();
+				throw new IOException("Can't rename " + tmpFile);
+			}
+		} catch (IOException e) {
+			throw new SettingsError("Can't store message schedule to " + 
+					fileName + ": " + e.getMessage());
+		}
 	}
 	
 	
@@ -186,6 +469,10 @@ public class MessageEventGenerator implements EventQueue {
 	 * @see input.EventQueue#nextEvent()
 	 */
 	public ExternalEvent nextEvent() {
+		if (this.window != null) {
+			return nextScheduledEvent();
+		}
+		
 		int responseSize = 0; /* zero stands for one way messages */
 		int msgSize;
 		int interval;
@@ -212,6 +499,35 @@ public class MessageEventGenerator implements EventQueue {
 		return mce;
 	}
 
+	/**
+	 * Returns the next message creation event from the pre-generated 
+	 * schedule
+	 * @return The next event
+	 */
+	private ExternalEvent nextScheduledEvent() {
+		if (windowIndex >= window.count) { // schedule is finished
+			return new ExternalEvent(Double.MAX_VALUE);
+		}
+		
+		int i = windowIndex++;
+		MessageCreateEvent mce = new MessageCreateEvent(window.from[i], 
+				window.to[i], this.getID(), window.sizes[i], 0, 
+				window.times[i]);
+		
+		if (windowIndex < window.count) {
+			this.nextEventsTime = window.times[windowIndex];
+		}
+		else {
+			this.nextEventsTime = window.nextTime;
+			if (windows != null && nextEventsTime != Double.MAX_VALUE) {
+				this.window = takeWindow();
+				this.windowIndex = 0;
+			}
+		}
+		
+		return mce;
+	}
+
 	/**
 	 * Returns next message creation event's time
 	 * @see input.EventQueue#nextEventsTime()
@@ -228,4 +544,40 @@ public class MessageEventGenerator implements EventQueue {
 		this.id++;
 		return idPrefix + this.id;
 	}	
+	
+	/**
+	 * Pre-generated messages in primitive arrays
+	 */
+	private static class ScheduleWindow {
+		private double[] times;
+		private int[] from;
+		private int[] to;
+		private int[] sizes;
+		private int count;
+		/** time of the message after the last message of this window */
+		private double nextTime;
+		
+		public ScheduleWindow(int capacity) {
+			this.times = new double[capacity];
+			this.from = new int[capacity];
+			this.to = new int[capacity];
+			this.sizes = new int[capacity];
+			this.count = 0;
+		}
+		
+		public void add(double time, int fromAddr, int toAddr, int size) {
+			if (count == times.length) {
+				int capacity = Math.max(16, times.length * 2);
+				times = Arrays.copyOf(times, capacity);
+				from = Arrays.copyOf(from, capacity);
+				to = Arrays.copyOf(to, capacity);
+				sizes = Arrays.copyOf(sizes, capacity);
+			}
+			times[count] = time;
+			from[count] = fromAddr;
+			to[count] = toAddr;
+			sizes[count] = size;
+			count++;
+		}
+	}
 }
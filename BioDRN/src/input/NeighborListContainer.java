@@ -0,0 +1,588 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package input;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import core.SettingsError;
+import core.SimError;
+
+/**
+ * <P>
+ * Binary, delta encoded container of BioDRN neighbor lists and a lazy 
+ * loader for it. The container is read one epoch (time instance of the
+ * neighbor lists) at a time, and only the neighbor lists of the current
+ * epoch are kept in memory, so memory use and load time don't depend on
+ * the length of the scenario.
+ * </P>
+ * <P>
+ * Containers are created from the text format read by 
+ * {@link NeighborListReader} with {@link #convert(File, File)} or from the
+ * command line (directories are converted file by file):
+ * </P>
+ * <P><TT>java input.NeighborListContainer &lt;input file or directory&gt;
+ * [&lt;output file or directory&gt;]</TT></P>
+ * <P>
+ * File format: {@link #MAGIC}, {@link #VERSION}, the minimum and maximum 
+ * time of the text file's header (ints) and the number of epochs (int),
+ * followed by the epochs. Each epoch contains its time (int) and the number
+ * of nodes whose neighbor list changed from the previous epoch (varint). 
+ * For every such node the record has the node's ID (varint) and a flag
+ * telling if the node has a neighbor list in the epoch (byte). If it has,
+ * the added and the removed neighbors follow (count and the sorted IDs as 
+ * differences to the previous ID, all varints). The first epoch's lists are
+ * stored as additions to empty lists. Varints are unsigned LEB128 
+ * integers.
+ * </P>
+ */
+public class NeighborListContainer {
+	/** Extension of neighbor list container files ({@value}) */
+	public static final String CONTAINER_EXT = ".bnl";
+	/** Identifier in the beginning of neighbor list container files */
+	public static final int MAGIC = 0x4F4E454E; // "ONEN"
+	/** Version of the file format */
+	public static final int VERSION = 1;
+
+	/** Flag of a node that has no neighbor list in the epoch */
+	private static final int ABSENT = 0;
+	/** Flag of a node that has a neighbor list in the epoch */
+	private static final int PRESENT = 1;
+	/** Neighbor list of nodes without neighbors */
+	private static final int[] NO_NEIGHBORS = new int[0];
+
+	private File file;
+	private DataInputStream in;
+	private int minTime;
+	private int maxTime;
+	private int nrofEpochs;
+	/** number of epochs read from the file */
+	private int epochsRead;
+	/** time of the current epoch (-1 if no epoch is read yet) */
+	private int epochTime;
+	/** time of the next epoch (Integer.MAX_VALUE if no more epochs) */
+	private int nextEpochTime;
+	/** neighbor lists of the current epoch indexed by the node ID (null 
+	 * for nodes that have no neighbor list) */
+	private int[][] neighbors;
+
+	/**
+	 * Opens a container file
+	 * @param file The container file
+	 * @throws SettingsError if the file can't be read or it isn't a valid
+	 * container file
+	 */
+	public NeighborListContainer(File file) {
+		this.file = file;
+		open();
+	}
+
+	/**
+	 * (Re)opens the file and moves to the beginning of the first epoch
+	 */
+	private void open() {
+		try {
+			if (in != null) {
+				in.close();
+			}
+			this.in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 1 << 16));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new SettingsError("Invalid neighbor list container " + 
+						file);
+			}
+			this.minTime = in.readInt();
+			this.maxTime = in.readInt();
+			this.nrofEpochs = in.readInt();
+		} catch (IOException e) {
+			throw new SettingsError("Can't read neighbor list container " + 
+					file + ": " + e.getMessage());
+		}
+
+		this.epochsRead = 0;
+		this.epochTime = -1;
+		this.neighbors = new int[0][];
+		this.nextEpochTime = readNextEpochTime();
+	}
+
+	/**
+	 * Checks if the given file is a neighbor list container file
+	 * @param file The file to check
+	 * @return True if the file is a container file, false if not
+	 */
+	public static boolean isContainerFile(File file) {
+		if (!file.isFile()) {
+			return false;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false; // too short or not readable
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) { /* nothing to do */ }
+			}
+		}
+	}
+
+	/**
+	 * Reads the time of the next epoch
+	 * @return The time or Integer.MAX_VALUE if there are no more epochs
+	 */
+	private int readNextEpochTime() {
+		if (epochsRead >= nrofEpochs) {
+			return Integer.MAX_VALUE;
+		}
+		try {
+			return in.readInt();
+		} catch (IOException e) {
+			throw new SimError("Can't read neighbor list container " + file,
+					e);
+		}
+	}
+
+	/**
+	 * Moves to the latest epoch at or before the given time. Moving 
+	 * backwards in time re-reads the container from the beginning.
+	 * @param time The time
+	 * @return True if the current epoch changed, false if not
+	 */
+	public boolean advanceTo(int time) {
+		boolean changed = false;
+
+		if (time < epochTime) {
+			open();
+			changed = true;
+		}
+		while (nextEpochTime <= time) {
+			readEpoch();
+			changed = true;
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Reads the changes of the next epoch and applies them to the current
+	 * neighbor lists
+	 */
+	private void readEpoch() {
+		try {
+			int nrofChanged = readVarInt(in);
+			for (int i=0; i < nrofChanged; i++) {
+				int node = readVarInt(in);
+				if (node >= neighbors.length) {
+					neighbors = Arrays.copyOf(neighbors, 
+							Math.max(node + 1, neighbors.length * 2));
+				}
+
+				if (in.readByte() == ABSENT) {
+					neighbors[node] = null;
+					continue;
+				}
+
+				int[] added = readIds(in);
+				int[] removed = readIds(in);
+				int[] old = (neighbors[node] != null ? neighbors[node] : 
+					NO_NEIGHBORS);
+				neighbors[node] = applyChanges(old, added, removed);
+			}
+		} catch (IOException e) {
+			throw new SimError("Can't read neighbor list container " + file,
+					e);
+		}
+
+		this.epochTime = nextEpochTime;
+		this.epochsRead++;
+		this.nextEpochTime = readNextEpochTime();
+	}
+
+	/**
+	 * Merges sorted additions and removals to a sorted list of IDs
+	 * @param old The old list
+	 * @param added IDs to add (not in the old list)
+	 * @param removed IDs to remove (all in the old list)
+	 * @return The new list
+	 */
+	private static int[] applyChanges(int[] old, int[] added, int[] removed) {
+		int[] result = new int[old.length + added.length - removed.length];
+		int o = 0, a = 0, r = 0, n = 0;
+
+		while (o < old.length || a < added.length) {
+			if (a < added.length && (o >= old.length || added[a] < old[o])) {
+				result[n++] = added[a++];
+			}
+			else if (r < removed.length && removed[r] == old[o]) {
+				r++;
+				o++;
+			}
+			else {
+				result[n++] = old[o++];
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the time of the current epoch
+	 * @return The time of the current epoch or -1 if the current time is
+	 * before the first epoch
+	 */
+	public int getEpochTime() {
+		return this.epochTime;
+	}
+
+	/**
+	 * Returns the time of the next epoch
+	 * @return The time of the next epoch or Integer.MAX_VALUE if there are
+	 * no more epochs
+	 */
+	public int getNextEpochTime() {
+		return this.nextEpochTime;
+	}
+
+	/**
+	 * Returns the neighbors of a node in the current epoch
+	 * @param node ID of the node
+	 * @return Sorted IDs of the neighbors or null if the node has no 
+	 * neighbor list in the current epoch. The array must not be modified.
+	 */
+	public int[] getNeighbors(int node) {
+		if (node < 0 || node >= neighbors.length) {
+			return null;
+		}
+		return neighbors[node];
+	}
+
+	/**
+	 * Returns the number of node IDs the current neighbor lists can refer
+	 * to (the largest node ID + 1)
+	 * @return The number of node IDs
+	 */
+	public int getNodeIdLimit() {
+		return neighbors.length;
+	}
+
+	/**
+	 * Returns the container file
+	 * @return the container file
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Returns the minimum time of the original file's header
+	 * @return the minimum time
+	 */
+	public int getMinTime() {
+		return minTime;
+	}
+
+	/**
+	 * Returns the maximum time of the original file's header
+	 * @return the maximum time
+	 */
+	public int getMaxTime() {
+		return maxTime;
+	}
+
+	/**
+	 * Closes the container file
+	 */
+	public void close() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			throw new SimError(e);
+		}
+	}
+
+	/**
+	 * Converts a neighbor list text file to a container file. The lines 
+	 * of the text file must be sorted by time.
+	 * @param textFile The text file
+	 * @param containerFile The container file to create
+	 * @throws IOException if reading or writing fails
+	 * @throws SettingsError if the text file is not valid
+	 */
+	public static void convert(File textFile, File containerFile) 
+			throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(textFile));
+		List<int[]> epochLines = new ArrayList<int[]>();
+		int nrofEpochs = 0;
+		int epochTime = -1;
+		int minTime, maxTime;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(containerFile), 1 << 16));
+		try {
+			String headerLine = reader.readLine();
+			if (headerLine == null) {
+				throw new SettingsError("Empty neighbor list file " + textFile);
+			}
+			String[] header = headerLine.trim().split("\\s+");
+			minTime = Integer.parseInt(header[0]);
+			maxTime = Integer.parseInt(header[1]);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(minTime);
+			out.writeInt(maxTime);
+			out.writeInt(0); // number of epochs is written in the end
+
+			int[][] previous = new int[0][];
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || 
+						line.startsWith(NeighborListReader.COMMENT_PREFIX)) {
+					continue;
+				}
+
+				String[] fields = line.split("\\s+");
+				int[] values = new int[fields.length];
+				for (int i=0; i < fields.length; i++) {
+					values[i] = Integer.parseInt(fields[i]);
+				}
+
+				if (values[0] != epochTime && !epochLines.isEmpty()) {
+					if (values[0] < epochTime) {
+						throw new SettingsError("Neighbor list file " + 
+								textFile + " is not sorted by time");
+					}
+					previous = writeEpoch(out, epochTime, epochLines, 
+							previous);
+					nrofEpochs++;
+					epochLines.clear();
+				}
+				epochTime = values[0];
+				epochLines.add(values);
+			}
+			if (!epochLines.isEmpty()) {
+				writeEpoch(out, epochTime, epochLines, previous);
+				nrofEpochs++;
+			}
+		} catch (NumberFormatException e) {
+			throw new SettingsError("Invalid neighbor list file " + textFile +
+					": " + e.getMessage());
+		} finally {
+			reader.close();
+			out.close();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(containerFile, "rw");
+		raf.seek(16);
+		raf.writeInt(nrofEpochs);
+		raf.close();
+	}
+
+	/**
+	 * Writes one epoch as changes to the previous epoch
+	 * @param out Where to write
+	 * @param time Time of the epoch
+	 * @param lines Lines of the epoch (time, node, neighbors...)
+	 * @param previous Neighbor lists of the previous epoch (indexed by node)
+	 * @return Neighbor lists of this epoch
+	 * @throws IOException if writing fails
+	 */
+	private static int[][] writeEpoch(DataOutputStream out, int time, 
+			List<int[]> lines, int[][] previous) throws IOException {
+		/* neighbor lists of this epoch; lines of the same node are merged */
+		TreeMap<Integer, int[]> current = new TreeMap<Integer, int[]>();
+		for (int[] line : lines) {
+			int[] list = Arrays.copyOfRange(line, 2, line.length);
+			int[] old = current.get(line[1]);
+			if (old != null) {
+				int[] merged = Arrays.copyOf(old, old.length + list.length);
+				System.arraycopy(list, 0, merged, old.length, list.length);
+				list = merged;
+			}
+			current.put(line[1], list);
+		}
+
+		int size = previous.length;
+		if (!current.isEmpty()) {
+			size = Math.max(size, current.lastKey() + 1);
+		}
+		int[][] lists = new int[size][];
+		for (Integer node : current.keySet()) {
+			lists[node] = sortedUnique(current.get(node));
+		}
+
+		/* write only the nodes whose lists changed */
+		List<Integer> changed = new ArrayList<Integer>();
+		for (int node = 0; node < size; node++) {
+			int[] old = (node < previous.length ? previous[node] : null);
+			if (!Arrays.equals(old, lists[node])) {
+				changed.add(node);
+			}
+		}
+
+		out.writeInt(time);
+		writeVarInt(out, changed.size());
+		for (int node : changed) {
+			writeVarInt(out, node);
+			if (lists[node] == null) {
+				out.writeByte(ABSENT);
+				continue;
+			}
+			out.writeByte(PRESENT);
+			int[] old = (node < previous.length && previous[node] != null ?
+					previous[node] : NO_NEIGHBORS);
+			writeIds(out, difference(lists[node], old));
+			writeIds(out, difference(old, lists[node]));
+		}
+
+		return lists;
+	}
+
+	/**
+	 * Returns a sorted copy of the IDs without duplicates
+	 */
+	private static int[] sortedUnique(int[] ids) {
+		int[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i=0; i < sorted.length; i++) {
+			if (n == 0 || sorted[n-1] != sorted[i]) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, n);
+	}
+
+	/**
+	 * Returns the sorted IDs that are in the first sorted list but not in 
+	 * the second
+	 */
+	private static int[] difference(int[] ids, int[] others) {
+		int[] result = new int[ids.length];
+		int n = 0;
+		for (int i=0, j=0; i < ids.length; i++) {
+			while (j < others.length && others[j] < ids[i]) {
+				j++;
+			}
+			if (j >= others.length || others[j] != ids[i]) {
+				result[n++] = ids[i];
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Writes a sorted list of IDs as the count and ID differences
+	 */
+	private static void writeIds(DataOutputStream out, int[] ids) 
+			throws IOException {
+		writeVarInt(out, ids.length);
+		int last = 0;
+		for (int id : ids) {
+			writeVarInt(out, id - last);
+			last = id;
+		}
+	}
+
+	/**
+	 * Reads a list of IDs written with {@link #writeIds(DataOutputStream, 
+	 * int[])}
+	 */
+	private static int[] readIds(DataInputStream in) throws IOException {
+		int[] ids = new int[readVarInt(in)];
+		int last = 0;
+		for (int i=0; i < ids.length; i++) {
+			last += readVarInt(in);
+			ids[i] = last;
+		}
+		return ids;
+	}
+
+	/**
+	 * Writes a non-negative integer as an unsigned LEB128 varint
+	 */
+	private static void writeVarInt(DataOutputStream out, int value) 
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Reads an unsigned LEB128 varint
+	 */
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new EOFException("Invalid varint");
+	}
+
+	/**
+	 * Converts neighbor list text files to container files.
+	 * @param args The input file or directory and optionally the output
+	 * file or directory (default: next to the input files)
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: java " + 
+					NeighborListContainer.class.getName() + 
+					" <input file or directory> [<output file or directory>]");
+			System.exit(1);
+		}
+
+		File input = new File(args[0]);
+		if (input.isDirectory()) {
+			File outDir = (args.length > 1 ? new File(args[1]) : input);
+			outDir.mkdirs();
+			for (File f : input.listFiles()) {
+				if (f.isFile() && f.getName().endsWith(".txt")) {
+					String name = f.getName();
+					try {
+						convert(f, new File(outDir, name.substring(0, 
+								name.length() - 4) + CONTAINER_EXT));
+						System.out.println("Converted " + f);
+					} catch (SettingsError e) {
+						System.out.println("Skipped " + f + ": " + 
+								e.getMessage());
+					}
+				}
+			}
+		}
+		else {
+			File output = (args.length > 1 ? new File(args[1]) : 
+				new File(args[0].replaceFirst("\\.txt$", "") + CONTAINER_EXT));
+			convert(input, output);
+			System.out.println("Converted " + input + " to " + output);
+		}
+	}
+
+}
@@ -7,8 +7,10 @@ package input;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 import core.Coord;
@@ -47,6 +49,12 @@ public class NeighborListReader {
 	private boolean normalize;
 	private String survivorId = "n";
 	private ArrayList<String> allLines = new ArrayList<String>();
+	/** binary neighbor list container (null if the text file is used) */
+	private NeighborListContainer container;
+	/** times of the epochs of the text file (null until indexed) */
+	private int[] epochTimes;
+	/** index of the first line of each epoch in the text file */
+	private int[] epochStarts;
 		
 	/**
 	 * Constructor. Creates a new reader that reads the data from a file.
@@ -56,6 +64,15 @@ public class NeighborListReader {
 	public NeighborListReader(String inFilePath) {
 		this.normalize = true;
 		File inFile = new File(inFilePath);
+		
+		if (NeighborListContainer.isContainerFile(inFile)) {
+			// epochs are loaded lazily from the container
+			container = new NeighborListContainer(inFile);
+			minTime = container.getMinTime();
+			maxTime = container.getMaxTime();
+			return;
+		}
+		
 		try {
 				scanner = new Scanner(inFile);
 			} catch (FileNotFoundException e) {
@@ -98,6 +115,17 @@ public class NeighborListReader {
 	
 	public ArrayList<String> getNeighborListEdgeRewiring(String nodeId){
 		ArrayList<String> neighborList = new ArrayList<String>();
+		if (container != null) {
+			// go through all the epochs with a separate cursor
+			NeighborListContainer all = new NeighborListContainer(
+					container.getFile());
+			while (all.getNextEpochTime() != Integer.MAX_VALUE) {
+				all.advanceTo(all.getNextEpochTime());
+				addNeighbors(neighborList, all, nodeId);
+			}
+			all.close();
+			return neighborList;
+		}
 		for(int i =0; i < allLines.size(); i++){
 			Scanner lineScan = new Scanner(allLines.get(i));
 			int time = lineScan.nextInt();
@@ -116,6 +144,13 @@ public class NeighborListReader {
 	
 	public ArrayList<String> getNeighborList(String nodeId, int simTime){
 		ArrayList<String> neighborList = new ArrayList<String>();
+		if (container != null) {
+			container.advanceTo(simTime);
+			if (container.getEpochTime() == simTime) {
+				addNeighbors(neighborList, container, nodeId);
+			}
+			return neighborList;
+		}
 		for(int i =0; i < allLines.size(); i++){
 			Scanner lineScan = new Scanner(allLines.get(i));
 			int time = lineScan.nextInt();
@@ -139,6 +174,134 @@ public class NeighborListReader {
 	}
 	
 	
+	/**
+	 * Returns the neighbor lists of the latest epoch at or before the 
+	 * given time.
+	 * @param simTime The time
+	 * @return Neighbor lists mapped by the node IDs (survivor ID prefix and
+	 * the node number). Nodes that have no neighbor list in the epoch are 
+	 * not in the map. If the time is before the first epoch, the map is 
+	 * empty.
+	 */
+	public Map<String, ArrayList<String>> getLatestNeighborLists(int simTime) {
+		Map<String, ArrayList<String>> lists = 
+			new HashMap<String, ArrayList<String>>();
+		
+		if (container != null) {
+			container.advanceTo(simTime);
+			if (container.getEpochTime() < 0) {
+				return lists;
+			}
+			for (int i=0, n = container.getNodeIdLimit(); i < n; i++) {
+				int[] neighbors = container.getNeighbors(i);
+				if (neighbors == null) {
+					continue;
+				}
+				ArrayList<String> neighborList = 
+					new ArrayList<String>(neighbors.length);
+				for (int neighbor : neighbors) {
+					neighborList.add(survivorId + neighbor);
+				}
+				lists.put(survivorId + i, neighborList);
+			}
+			return lists;
+		}
+		
+		int epoch = getEpochIndex(simTime);
+		if (epoch < 0) {
+			return lists;
+		}
+		int end = (epoch + 1 < epochStarts.length ? 
+				epochStarts[epoch + 1] : allLines.size());
+		for (int i = epochStarts[epoch]; i < end; i++) {
+			Scanner lineScan = new Scanner(allLines.get(i));
+			lineScan.nextInt(); // time
+			String id = survivorId + lineScan.next();
+			ArrayList<String> neighborList = lists.get(id);
+			if (neighborList == null) {
+				neighborList = new ArrayList<String>();
+				lists.put(id, neighborList);
+			}
+			while(lineScan.hasNext()){
+				neighborList.add(survivorId + lineScan.nextInt());
+			}
+		}
+		return lists;
+	}
+	
+	/**
+	 * Returns the time of the first epoch after the given time
+	 * @param simTime The time
+	 * @return The time of the next epoch or Integer.MAX_VALUE if there are
+	 * no epochs after the time
+	 */
+	public int getNextEpochTime(int simTime) {
+		if (container != null) {
+			container.advanceTo(simTime);
+			return container.getNextEpochTime();
+		}
+		
+		int next = getEpochIndex(simTime) + 1;
+		return (next < epochTimes.length ? epochTimes[next] : 
+			Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Returns the index of the latest epoch of the text file at or before
+	 * the given time. Indexes the epochs on the first call.
+	 * @param simTime The time
+	 * @return The index of the epoch or -1 if the time is before the first
+	 * epoch
+	 */
+	private int getEpochIndex(int simTime) {
+		if (epochTimes == null) {
+			List<Integer> times = new ArrayList<Integer>();
+			List<Integer> starts = new ArrayList<Integer>();
+			for (int i=0; i < allLines.size(); i++) {
+				int time = new Scanner(allLines.get(i)).nextInt();
+				if (times.isEmpty() || time != times.get(times.size()-1)) {
+					times.add(time);
+					starts.add(i);
+				}
+			}
+			epochTimes = new int[times.size()];
+			epochStarts = new int[starts.size()];
+			for (int i=0; i < epochTimes.length; i++) {
+				epochTimes[i] = times.get(i);
+				epochStarts[i] = starts.get(i);
+			}
+		}
+		
+		int i = Arrays.binarySearch(epochTimes, simTime);
+		return (i >= 0 ? i : -i - 2);
+	}
+	
+	/**
+	 * Adds the neighbors of a node in the current epoch of a container to 
+	 * a list
+	 * @param neighborList The list where the neighbors are added
+	 * @param c The container
+	 * @param nodeId ID of the node (survivor ID prefix and the node number)
+	 */
+	private void addNeighbors(List<String> neighborList, 
+			NeighborListContainer c, String nodeId) {
+		if (!nodeId.startsWith(survivorId)) {
+			return;
+		}
+		int[] neighbors;
+		try {
+			neighbors = c.getNeighbors(Integer.parseInt(
+					nodeId.substring(survivorId.length())));
+		} catch (NumberFormatException e) {
+			return; // not a node of the neighbor lists
+		}
+		if (neighbors != null) {
+			for (int n : neighbors) {
+				neighborList.add(survivorId + n);
+			}
+		}
+	}
+	
 	/**
 	 * Reads all new id-coordinate tuples that belong to the same time instance
 	 * @return A list of tuples or empty list if there were no more moves
@@ -4,8 +4,7 @@
  */
 package input;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.TreeSet;
 
 /**
  * Event queue where simulation objects can request an update to happen
@@ -15,14 +14,15 @@ import java.util.List;
 public class ScheduledUpdatesQueue implements EventQueue {
 	/** Time of the event (simulated seconds) */
 	private ExternalEvent nextEvent;
-	private List<ExternalEvent> updates;
+	/** times of the updates after the next event in ascending order */
+	private TreeSet<Double> updates;
 	
 	/**
 	 * Constructor. Creates an empty update queue.
 	 */
 	public ScheduledUpdatesQueue(){
 		this.nextEvent = new ExternalEvent(Double.MAX_VALUE);
-		this.updates = new ArrayList<ExternalEvent>();
+		this.updates = new TreeSet<Double>();
 	}
 	
 	/**
@@ -33,11 +33,11 @@ public class ScheduledUpdatesQueue implements EventQueue {
 	public ExternalEvent nextEvent() {
 		ExternalEvent event = this.nextEvent;
 		
-		if (this.updates.size() == 0) {
+		if (this.updates.isEmpty()) {
 			this.nextEvent = new ExternalEvent(Double.MAX_VALUE);
 		}
 		else {
-			this.nextEvent = this.updates.remove(0);
+			this.nextEvent = new ExternalEvent(this.updates.pollFirst());
 		}
 		
 		return event;
@@ -57,47 +57,38 @@ public class ScheduledUpdatesQueue implements EventQueue {
 	 * @param simTime The time when the update should happen
 	 */
 	public void addUpdate(double simTime) {
-		ExternalEvent ee = new ExternalEvent(simTime);
+		double nextTime = this.nextEvent.getTime();
+		simTime += 0.0; // -0.0 -> 0.0 so that equal times are merged
 
-		if (ee.compareTo(nextEvent) == 0) { // this event is already next
+		if (simTime == nextTime) { // this event is already next
 			return;
 		}
-		else if (this.nextEvent.getTime() > simTime) { // new nextEvent
-			putToQueue(this.nextEvent); // put the old nextEvent back to q
-			this.nextEvent = ee;
+		else if (nextTime > simTime) { // new nextEvent
+			putToQueue(nextTime); // put the old nextEvent back to q
+			this.nextEvent = new ExternalEvent(simTime);
 		}
 		else { // given event happens later..
-			putToQueue(ee);
+			putToQueue(simTime);
 		}
 	}
 	
 	/**
-	 * Puts a event to the queue in the right place
-	 * @param ee The event to put to the queue
+	 * Puts an update time to the queue (if the queue doesn't have an update
+	 * with the same time already)
+	 * @param time The time to put to the queue
 	 */
-	private void putToQueue(ExternalEvent ee) {
-		double eeTime = ee.getTime();
-		
-		for (int i=0, n=this.updates.size(); i<n; i++) {
-			double time = updates.get(i).getTime();
-			if (time == eeTime) {
-				return; // update with the given time exists -> no need for new
-			}
-			else if (eeTime < time) {
-				this.updates.add(i, ee);
-				return;
-			}
+	private void putToQueue(double time) {
+		if (time == Double.MAX_VALUE) {
+			return; // "no event" needs no update
 		}
-		
-		/* all existing updates are earlier -> add to the end of the list */
-		this.updates.add(ee);  
+		this.updates.add(time);
 	}
 	
 	public String toString() {
 		String times = "updates @ " + this.nextEvent.getTime();
 		
-		for (ExternalEvent ee : this.updates) {
-			times += ", " + ee.getTime();
+		for (Double time : this.updates) {
+			times += ", " + time;
 		}
 		
 		return times;
@@ -5,11 +5,14 @@
 package input;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
 
 import core.SimError;
 
@@ -61,123 +64,155 @@ public class StandardEventsReader implements ExternalEventsReader {
 	/** Message identifier to use to refer to all messages ({@value}) */ 
 	public static final String ALL_MESSAGES_ID = "*";
 	
-	private Scanner scanner;
+	/** size of the read buffer */
+	private static final int BUFFER_SIZE = 1 << 16;
+	/** exact powers of ten for the fast double parsing path */
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 
+		1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 
+		1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	/** maximum number of digits that are parsed exactly on the fast path */
+	private static final int MAX_FAST_DIGITS = 15;
+
+	private InputStream in;
+	private byte[] buffer;
+	private int bufferPos;
+	private int bufferLen;
+	/** the line that is being parsed */
+	private byte[] line;
+	private int lineLen;
+	/** parse position in the line */
+	private int linePos;
+	/** start and end (exclusive) of the current token in the line */
+	private int tokenStart;
+	private int tokenEnd;
 	
 	public StandardEventsReader(File eventsFile){
 		try {
-			this.scanner = new Scanner(eventsFile);
+			this.in = new FileInputStream(eventsFile);
 		} catch (FileNotFoundException e) {
 			throw new SimError(e.getMessage(),e);
 		}
+		this.buffer = new byte[BUFFER_SIZE];
+		this.line = new byte[256];
 	}
 	
 	
 	public List<ExternalEvent> readEvents(int nrof) {
 		ArrayList<ExternalEvent> events = new ArrayList<ExternalEvent>(nrof);
 		int eventsRead = 0;
-		// skip empty and comment lines
-		Pattern skipPattern = Pattern.compile("(#.*)|(^\\s*$)");
 
-		while (eventsRead < nrof && scanner.hasNextLine()) {
-			String line = scanner.nextLine();
-			Scanner lineScan = new Scanner(line);
-			if (skipPattern.matcher(line).matches()) {
+		while (eventsRead < nrof && readLine()) {
+			if (isSkipLine()) {
 				// skip empty and comment lines
 				continue;
 			}
 			
 			double time;
-			String action;
 			String msgId;
 			int hostAddr;
-			int host2Addr;
+			int host2Addr;
 					
 			try {
-				time = lineScan.nextDouble();
-				action = lineScan.next();		
+				nextToken();
+				time = tokenDouble();
+				nextToken();
 			
-				if (action.equals(DROP)) {
-					msgId = lineScan.next();
-					hostAddr = getHostAddress(lineScan.next());
+				if (tokenEquals(DROP)) {
+					nextToken();
+					msgId = tokenString();
+					nextToken();
+					hostAddr = tokenHostAddress();
 					events.add(new MessageDeleteEvent(hostAddr, msgId,
 							time, true));
 				}
-				else if (action.equals(REMOVE)) {
-					msgId = lineScan.next();
-					hostAddr = getHostAddress(lineScan.next());
+				else if (tokenEquals(REMOVE)) {
+					nextToken();
+					msgId = tokenString();
+					nextToken();
+					hostAddr = tokenHostAddress();
 					events.add(new MessageDeleteEvent(hostAddr, msgId,
 							time, false));
-				}
-				else if (action.equals(CONNECTION)) {
-					String connEventType;
-					boolean isUp;
-					hostAddr = getHostAddress(lineScan.next());
-					host2Addr = getHostAddress(lineScan.next());
-					connEventType = lineScan.next();
-					
-					String interfaceId = null;
-					if (lineScan.hasNext()) {
-						interfaceId = lineScan.next();
-					}	
-					
-					if (connEventType.equalsIgnoreCase(CONNECTION_UP)) {
-						isUp = true;
-					}
-					else if (connEventType.equalsIgnoreCase(CONNECTION_DOWN)) {
-						isUp = false;
-					}
-					else {
-						throw new SimError("Unknown up/down value '" + 
-								connEventType + "'");
-					}
-					
-					ConnectionEvent ce = new ConnectionEvent(hostAddr, 
-							host2Addr, interfaceId, isUp, time);
-					
-					events.add(ce);
 				}
-				else {
-					msgId = lineScan.next();
-					hostAddr = getHostAddress(lineScan.next());
-				
-					host2Addr = getHostAddress(lineScan.next());
+				else if (tokenEquals(CONNECTION)) {
+					boolean isUp;
+					nextToken();
+					hostAddr = tokenHostAddress();
+					nextToken();
+					host2Addr = tokenHostAddress();
+					nextToken();
+					
+					if (tokenEqualsIgnoreCase(CONNECTION_UP)) {
+						isUp = true;
+					}
+					else if (tokenEqualsIgnoreCase(CONNECTION_DOWN)) {
+						isUp = false;
+					}
+					else {
+						throw new SimError("Unknown up/down value '" + 
+								tokenString() + "'");
+					}
+					
+					String interfaceId = null;
+					if (hasNextToken()) {
+						nextToken();
+						interfaceId = tokenString();
+					}	
+					
+					ConnectionEvent ce = new ConnectionEvent(hostAddr, 
+							host2Addr, interfaceId, isUp, time);
+					
+					events.add(ce);
+				}
+				else {
+					int actionStart = tokenStart;
+					int actionEnd = tokenEnd;
+
+					nextToken();
+					msgId = tokenString();
+					nextToken();
+					hostAddr = tokenHostAddress();
+					nextToken();
+					host2Addr = tokenHostAddress();
 				
-					if (action.equals(CREATE)){
-						int size = lineScan.nextInt();
+					tokenStart = actionStart;
+					tokenEnd = actionEnd;
+					if (tokenEquals(CREATE)){
+						nextToken();
+						int size = tokenInt();
 						int respSize = 0;
-						if (lineScan.hasNextInt()) {
-							respSize = lineScan.nextInt();
+						if (hasNextToken()) {
+							nextToken();
+							if (isIntToken()) {
+								respSize = tokenInt();
+							}
 						}
 						events.add(new MessageCreateEvent(hostAddr, host2Addr,
 								msgId, size, respSize, time));
 					}
 					else {
 						int stage = -1;
-						if (action.equals(SEND)) {
+						if (tokenEquals(SEND)) {
 							stage = MessageRelayEvent.SENDING;
 						}
-						else if (action.equals(DELIVERED)) {
+						else if (tokenEquals(DELIVERED)) {
 							stage = MessageRelayEvent.TRANSFERRED;
 						}
-						else if (action.equals(ABORT)) {
+						else if (tokenEquals(ABORT)) {
 							stage = MessageRelayEvent.ABORTED;
 						}
 						else {
-							throw new SimError("Unknown action '" + action + 
-								"' in external events");
+							throw new SimError("Unknown action '" + 
+								tokenString() + "' in external events");
 						}
 						events.add(new MessageRelayEvent(hostAddr, host2Addr,
 								msgId, time, stage));
 					}						
 				}
-				// discard the newline in the end
-				if (lineScan.hasNextLine()) {
-					lineScan.nextLine(); // TODO: test
-				}
 				eventsRead++;
 			} catch (Exception e) {
 				throw new SimError("Can't parse external event " + 
-						(eventsRead+1) + " from '" + line + "'", e);
+						(eventsRead+1) + " from '" + 
+						new String(line, 0, lineLen) + "'", e);
 			}
 		}
 		
@@ -185,30 +220,278 @@ public class StandardEventsReader implements ExternalEventsReader {
 	}
 
 	/**
-	 * Parses a host address from a hostId string (the numeric part after
+	 * Reads the next line (without the line terminator) to the line buffer
+	 * @return true if a line was read, false if the end of file was reached
+	 */
+	private boolean readLine() {
+		lineLen = 0;
+		linePos = 0;
+		boolean gotData = false;
+
+		while (true) {
+			if (bufferPos >= bufferLen && !fillBuffer()) {
+				return gotData;
+			}
+			gotData = true;
+			byte b = buffer[bufferPos++];
+
+			if (b == '\n') {
+				return true;
+			}
+			else if (b == '\r') {
+				// "\r\n" is one line terminator
+				if ((bufferPos < bufferLen || fillBuffer()) && 
+						buffer[bufferPos] == '\n') {
+					bufferPos++;
+				}
+				return true;
+			}
+
+			if (lineLen == line.length) {
+				line = Arrays.copyOf(line, line.length * 2);
+			}
+			line[lineLen++] = b;
+		}
+	}
+
+	/**
+	 * Fills the read buffer from the input stream
+	 * @return true if some data was read, false if the end of file was 
+	 * reached
+	 */
+	private boolean fillBuffer() {
+		try {
+			int n = in.read(buffer);
+			bufferPos = 0;
+			bufferLen = (n < 0 ? 0 : n);
+			return n > 0;
+		} catch (IOException e) {
+			throw new SimError("Can't read external events", e);
+		}
+	}
+
+	/**
+	 * Returns true if the current line is an empty line, a line that contains
+	 * only white space, or a comment line (starts with '#')
+	 * @return true if the line should be skipped
+	 */
+	private boolean isSkipLine() {
+		if (lineLen > 0 && line[0] == '#') {
+			return true;
+		}
+		return !hasNextToken();
+	}
+
+	/**
+	 * Returns true if the given byte is a white space character
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1C && b <= 0x1F);
+	}
+
+	/**
+	 * Returns true if the current line has more tokens
+	 * @return true if the line has more tokens
+	 */
+	private boolean hasNextToken() {
+		while (linePos < lineLen && isWhitespace(line[linePos])) {
+			linePos++;
+		}
+		return linePos < lineLen;
+	}
+
+	/**
+	 * Moves to the next token of the line
+	 * @throws NoSuchElementException if the line has no more tokens
+	 */
+	private void nextToken() {
+		if (!hasNextToken()) {
+			throw new NoSuchElementException("Missing field");
+		}
+		tokenStart = linePos;
+		while (linePos < lineLen && !isWhitespace(line[linePos])) {
+			linePos++;
+		}
+		tokenEnd = linePos;
+	}
+
+	/**
+	 * Returns true if the current token equals to the given (ASCII) string
+	 */
+	private boolean tokenEquals(String s) {
+		if (tokenEnd - tokenStart != s.length()) {
+			return false;
+		}
+		for (int i=0; i < s.length(); i++) {
+			if (line[tokenStart + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the current token equals to the given (ASCII) string
+	 * ignoring the case
+	 */
+	private boolean tokenEqualsIgnoreCase(String s) {
+		if (tokenEnd - tokenStart != s.length()) {
+			return false;
+		}
+		for (int i=0; i < s.length(); i++) {
+			if (Character.toLowerCase((char)line[tokenStart + i]) != 
+				Character.toLowerCase(s.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the current token as a String
+	 */
+	private String tokenString() {
+		return new String(line, tokenStart, tokenEnd - tokenStart);
+	}
+
+	/**
+	 * Returns true if the current token is an integer value
+	 */
+	private boolean isIntToken() {
+		try {
+			tokenInt();
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Parses an integer value from the current token
+	 * @return The value
+	 * @throws NumberFormatException if the token is not an integer value
+	 */
+	private int tokenInt() {
+		int i = tokenStart;
+		boolean negative = false;
+		if (i < tokenEnd && (line[i] == '-' || line[i] == '+')) {
+			negative = line[i] == '-';
+			i++;
+		}
+		if (i == tokenEnd || tokenEnd - i > 10) {
+			// no digits or possibly too many for an int
+			return Integer.parseInt(tokenString());
+		}
+
+		long value = 0;
+		for (; i < tokenEnd; i++) {
+			int digit = line[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Invalid integer '" + 
+						tokenString() + "'");
+			}
+			value = value * 10 + digit;
+		}
+		if (negative) {
+			value = -value;
+		}
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Integer out of range '" + 
+					tokenString() + "'");
+		}
+		return (int)value;
+	}
+
+	/**
+	 * Parses a double value from the current token. Plain decimal values
+	 * with at most {@value #MAX_FAST_DIGITS} digits are parsed without 
+	 * creating a String (and with the same result as 
+	 * {@link Double#parseDouble(String)}), other values are passed to
+	 * Double.parseDouble.
+	 * @return The value
+	 * @throws NumberFormatException if the token is not a double value
+	 */
+	private double tokenDouble() {
+		int i = tokenStart;
+		boolean negative = false;
+		if (i < tokenEnd && (line[i] == '-' || line[i] == '+')) {
+			negative = line[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		boolean hasDigits = false;
+		int digits = 0;
+		int fractionDigits = -1; // -1 until the decimal point is found
+		for (; i < tokenEnd; i++) {
+			byte b = line[i];
+			if (b >= '0' && b <= '9') {
+				hasDigits = true;
+				if (digits > 0 || b != '0') {
+					digits++;
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (fractionDigits >= 0) {
+					fractionDigits++;
+				}
+			}
+			else if (b == '.' && fractionDigits < 0) {
+				fractionDigits = 0;
+			}
+			else {
+				break; // not a plain decimal value
+			}
+		}
+
+		if (i < tokenEnd || !hasDigits || digits > MAX_FAST_DIGITS || 
+				fractionDigits >= POWERS_OF_TEN.length) {
+			return Double.parseDouble(tokenString());
+		}
+
+		double value = mantissa;
+		if (fractionDigits > 0) {
+			value /= POWERS_OF_TEN[fractionDigits];
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a host address from the current token (the numeric part after
 	 * optional non-numeric part).
-	 * @param hostId The id to parse the address from
 	 * @return The address
 	 * @throws SimError if no address could be parsed from the id
 	 */
-	private int getHostAddress(String hostId) {
-		String addressPart = "";
-		if (hostId.matches("^\\d+$")) {
-			addressPart = hostId; // host id is only the address
+	private int tokenHostAddress() {
+		int digitsStart = tokenStart;
+		while (digitsStart < tokenEnd && 
+				(line[digitsStart] < '0' || line[digitsStart] > '9')) {
+			digitsStart++;
 		}
-		else if (hostId.matches("^\\D+\\d+$")) {
-			String [] parts = hostId.split("\\D");
-			addressPart = parts[parts.length-1]; // last occurence is the addr
+		for (int i = digitsStart; i < tokenEnd; i++) {
+			if (line[i] < '0' || line[i] > '9') {
+				digitsStart = tokenEnd; // non-digits after the address
+				break;
+			}
 		}
-		else {
-			throw new SimError("Invalid host ID '" + hostId + "'");
+		if (digitsStart == tokenEnd) {
+			throw new SimError("Invalid host ID '" + tokenString() + "'");
+		}
+
+		int start = tokenStart;
+		tokenStart = digitsStart; // parse only the address part
+		try {
+			return tokenInt();
+		} finally {
+			tokenStart = start;
 		}
-		
-		return Integer.parseInt(addressPart);
 	}
 	
 	public void close() {
-		this.scanner.close();
+		try {
+			this.in.close();
+		} catch (IOException e) {
+			throw new SimError(e);
+		}
 	}
 
 }
@@ -0,0 +1,64 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package input;
+
+import routing.ActiveRouter;
+import routing.MessageRouter;
+import core.Connection;
+import core.DTNHost;
+import core.World;
+
+/**
+ * Event for finalizing the ongoing transfer of a connection at the time
+ * when the transfer is done. Only the sending router of the connection
+ * handles the event; other hosts are not updated.
+ */
+public class TransferDoneEvent extends ExternalEvent {
+	/** the connection whose transfer is done */
+	private Connection con;
+	/** order of scheduling (for events that happen at the same time) */
+	long order;
+	/** is the event waiting in the queue (not taken or cancelled) */
+	boolean queued;
+
+	/**
+	 * Creates a transfer done event
+	 * @param con The connection whose transfer is done
+	 * @param time Time when the transfer is done
+	 */
+	public TransferDoneEvent(Connection con, double time) {
+		super(time);
+		this.con = con;
+	}
+
+	/**
+	 * Returns the connection whose transfer is done
+	 * @return The connection
+	 */
+	public Connection getConnection() {
+		return this.con;
+	}
+
+	/**
+	 * Lets the sending router finalize the transfer
+	 */
+	@Override
+	public void processEvent(World world) {
+		DTNHost from = this.con.getMessageSender();
+		if (from == null) {
+			return; /* transfer was finalized or aborted already */
+		}
+
+		MessageRouter router = from.getRouter();
+		if (router instanceof ActiveRouter) {
+			((ActiveRouter)router).updateTransfer(this.con);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TRANSFER_DONE @" + this.time + " " + this.con;
+	}
+}
@@ -0,0 +1,132 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package input;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Event queue of the transfer done events of the connections. A connection
+ * has at most one event in the queue; when the time of its transfer 
+ * changes, the old event is cancelled and a new one added. Cancelled
+ * events are skipped when they reach the head of the queue, and the queue
+ * is rebuilt without them if they become the majority. Events that 
+ * happen at the same time are in the order they were added.
+ */
+public class TransferDoneQueue implements EventQueue {
+	/** how many cancelled events the queue can have before it is rebuilt
+	 * (if they also are the majority of the events) */
+	private static final int MIN_PURGE_SIZE = 64;
+
+	/** the events ordered by their time and the order they were added */
+	private PriorityQueue<TransferDoneEvent> events;
+	/** how many events have been added */
+	private long nrofAdded;
+	/** how many of the events in the queue are cancelled */
+	private int nrofCancelled;
+
+	/**
+	 * Constructor. Creates an empty queue.
+	 */
+	public TransferDoneQueue() {
+		this.events = new PriorityQueue<TransferDoneEvent>(11,
+				new Comparator<TransferDoneEvent>() {
+			public int compare(TransferDoneEvent e1, TransferDoneEvent e2) {
+				int c = e1.compareTo(e2);
+				if (c != 0) {
+					return c;
+				}
+				return e1.order < e2.order ? -1 : (e1.order > e2.order ? 1 : 0);
+			}
+		});
+		this.nrofAdded = 0;
+	}
+
+	/**
+	 * Returns the next transfer done event or event with time 
+	 * Double.MAX_VALUE if there aren't any
+	 * @return The next event
+	 */
+	public ExternalEvent nextEvent() {
+		skipCancelled();
+		if (this.events.isEmpty()) {
+			return new ExternalEvent(Double.MAX_VALUE);
+		}
+		TransferDoneEvent event = this.events.poll();
+		event.queued = false;
+		return event;
+	}
+
+	/**
+	 * Returns the next event's time or Double.MAX_VALUE if there aren't 
+	 * any events
+	 * @return The next event's time
+	 */
+	public double nextEventsTime() {
+		skipCancelled();
+		if (this.events.isEmpty()) {
+			return Double.MAX_VALUE;
+		}
+		return this.events.peek().getTime();
+	}
+
+	/**
+	 * Adds an event to the queue
+	 * @param event The event to add
+	 */
+	public void add(TransferDoneEvent event) {
+		event.order = this.nrofAdded++;
+		event.queued = true;
+		this.events.add(event);
+	}
+
+	/**
+	 * Cancels an event of the queue (if it was not taken from the queue 
+	 * already). The event is left in the queue but it is never returned.
+	 * @param event The event to cancel
+	 */
+	public void cancel(TransferDoneEvent event) {
+		if (!event.queued) {
+			return;
+		}
+		event.queued = false;
+		this.nrofCancelled++;
+		if (this.nrofCancelled >= MIN_PURGE_SIZE && 
+				this.nrofCancelled * 2 > this.events.size()) {
+			purge();
+		}
+	}
+
+	/**
+	 * Removes the cancelled events from the head of the queue
+	 */
+	private void skipCancelled() {
+		while (!this.events.isEmpty() && !this.events.peek().queued) {
+			this.events.poll();
+			this.nrofCancelled--;
+		}
+	}
+
+	/**
+	 * Rebuilds the queue without the cancelled events
+	 */
+	private void purge() {
+		PriorityQueue<TransferDoneEvent> old = this.events;
+		this.events = new PriorityQueue<TransferDoneEvent>(
+				Math.max(old.size() - this.nrofCancelled, 1), 
+				old.comparator());
+		for (TransferDoneEvent e : old) {
+			if (e.queued) {
+				this.events.add(e);
+			}
+		}
+		this.nrofCancelled = 0;
+	}
+
+	public String toString() {
+		return "transfers done @ " + nextEventsTime() + " (" + 
+			(this.events.size() - this.nrofCancelled) + " events)";
+	}
+}
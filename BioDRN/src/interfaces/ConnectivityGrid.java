@@ -14,6 +14,7 @@ import core.Coord;
 import core.DTNSim;
 import core.NetworkInterface;
 import core.Settings;
+import core.World;
 
 /**
  * <P>
@@ -33,11 +34,29 @@ import core.Settings;
  * connectivity. 
  * </P>
  * <P>
+ * If packed range checking is enabled (see {@link #PACKED_RANGE_CHECK_S}),
+ * every cell also keeps the coordinates of its interfaces in packed
+ * arrays and only the interfaces that are (about) within the querying 
+ * interface's range are returned as near interfaces. The distances are
+ * compared squared over the packed arrays in a tight loop the JIT can
+ * vectorize. The range used in the check has a small slack so the exact
+ * range check done when connecting still decides the borderline cases.
+ * </P>
+ * <P>
  * <strong>Note:</strong> this class does NOT support negative
  * coordinates. Also, it makes sense to normalize the coordinates to start
  * from zero to conserve memory. 
  */
 public class ConnectivityGrid extends ConnectivityOptimizer {
+	/**
+	 * Packed range checking -setting id ({@value}). Boolean (true/false) 
+	 * variable in the {@link World#SETTINGS_NS} namespace. If true, near 
+	 * interfaces are filtered by their distance. Default = false.
+	 */
+	public static final String PACKED_RANGE_CHECK_S = "packedRangeCheck";
+	/** multiplier for the range used in packed range checks */
+	private static final double RANGE_SLACK = 1.000001;
+
 	private GridCell[][] cells;
 	private HashMap<NetworkInterface,GridCell> ginterfaces;
 	private int cellSize;
@@ -45,6 +64,9 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	private int cols;
 	private static int worldSizeX;
 	private static int worldSizeY;
+	private static boolean packedRangeCheck;
+	/** squared distances of the cell's interfaces (reused in every check) */
+	private double[] distances;
 
 	static HashMap<Integer,ConnectivityGrid> gridobjects;
 
@@ -60,6 +82,10 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		int [] worldSize = s.getCsvInts(MovementModel.WORLD_SIZE,2);
 		worldSizeX = worldSize[0];
 		worldSizeY = worldSize[1];
+
+		Settings optSettings = new Settings(World.SETTINGS_NS);
+		packedRangeCheck = optSettings.contains(PACKED_RANGE_CHECK_S) && 
+			optSettings.getBoolean(PACKED_RANGE_CHECK_S);
 	}
 
 	/**
@@ -81,6 +107,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 			}
 		}
 		ginterfaces = new HashMap<NetworkInterface,GridCell>();
+		distances = new double[GridCell.EXPECTED_INTERFACE_COUNT];
 	}
 
 	/**
@@ -148,6 +175,21 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		}
 	}
 
+	/**
+	 * Invalidates the packed coordinates of the interface's cell (if packed
+	 * range checking is enabled)
+	 * @param ni The interface whose host moved
+	 */
+	@Override
+	public void locationChanged(NetworkInterface ni) {
+		if (packedRangeCheck) {
+			GridCell c = ginterfaces.get(ni);
+			if (c != null) {
+				c.coordinatesValid = false;
+			}
+		}
+	}
+
 	/**
 	 * Finds all neighboring cells and the cell itself based on the coordinates
 	 * @param c The coordinates
@@ -211,12 +253,58 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		if (loc != null) {	
 			GridCell[] neighbors = 
 				getNeighborCellsByCoord(netinterf.getLocation());
+			if (packedRangeCheck) {
+				addInterfacesInRange(netinterf, neighbors, ni);
+				return ni;
+			}
 			for (int i=0; i < neighbors.length; i++) {
 				ni.addAll(neighbors[i].getInterfaces());
 			}
 		}
 		return ni;
 	}
+
+	/**
+	 * Adds the interfaces of the given cells that are within the range of
+	 * the given interface (with a small slack) to a list
+	 * @param netinterf The interface whose range is used
+	 * @param neighbors The cells whose interfaces are checked
+	 * @param result The list where the interfaces are added to
+	 */
+	private void addInterfacesInRange(NetworkInterface netinterf, 
+			GridCell[] neighbors, ArrayList<NetworkInterface> result) {
+		Coord c = netinterf.getLocation();
+		double x = c.getX();
+		double y = c.getY();
+		double range = netinterf.getTransmitRange() * RANGE_SLACK;
+		double maxDistance = range * range;
+
+		for (int i=0; i < neighbors.length; i++) {
+			GridCell cell = neighbors[i];
+			int n = cell.interfaces.size();
+			if (n == 0) {
+				continue;
+			}
+			cell.updateCoordinates();
+			if (distances.length < n) {
+				distances = new double[2 * n];
+			}
+
+			double[] xs = cell.xs;
+			double[] ys = cell.ys;
+			double[] d = distances;
+			for (int j=0; j < n; j++) {
+				double dx = xs[j] - x;
+				double dy = ys[j] - y;
+				d[j] = dx*dx + dy*dy;
+			}
+			for (int j=0; j < n; j++) {
+				if (d[j] <= maxDistance) {
+					result.add(cell.interfaces.get(j));
+				}
+			}
+		}
+	}
 
 
 	/**
@@ -236,11 +324,41 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		// how large array is initially chosen
 		private static final int EXPECTED_INTERFACE_COUNT = 5;
 		private ArrayList<NetworkInterface> interfaces;
+		/** coordinates of the interfaces (in the same order) */
+		private double[] xs;
+		private double[] ys;
+		/** are the coordinates up to date (no interface has moved or 
+		 * been added or removed after they were read) */
+		private boolean coordinatesValid;
 
 		private GridCell() {
 			this.interfaces = new ArrayList<NetworkInterface>(
 					EXPECTED_INTERFACE_COUNT);
+			this.coordinatesValid = false;
 		}
+
+		/**
+		 * Reads the interfaces' coordinates to the packed arrays unless
+		 * they are up to date. The coordinates stay valid until the host 
+		 * of one of the cell's interfaces moves or the cell's interfaces 
+		 * change.
+		 */
+		private void updateCoordinates() {
+			if (this.coordinatesValid) {
+				return;
+			}
+			int n = interfaces.size();
+			if (xs == null || xs.length < n) {
+				xs = new double[2 * n];
+				ys = new double[2 * n];
+			}
+			for (int i=0; i < n; i++) {
+				Coord c = interfaces.get(i).getLocation();
+				xs[i] = c.getX();
+				ys[i] = c.getY();
+			}
+			this.coordinatesValid = true;
+		}
 
 		/**
 		 * Returns a list of of interfaces in this cell
@@ -256,6 +374,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		 */
 		public void addInterface(NetworkInterface ni) {
 			this.interfaces.add(ni);
+			this.coordinatesValid = false;
 		}
 
 		/**
@@ -264,6 +383,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		 */
 		public void removeInterface(NetworkInterface ni) {
 			this.interfaces.remove(ni);
+			this.coordinatesValid = false;
 		}
 
 		/**
@@ -273,7 +393,8 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		 */
 		public void moveInterface(NetworkInterface ni, GridCell to) {
 			to.addInterface(ni);
-			boolean removeOk = this.interfaces.remove(ni); 
+			boolean removeOk = this.interfaces.remove(ni); 
+			this.coordinatesValid = false;
 			assert removeOk : "interface " + ni + 
 				" not found from cell with " + interfaces.toString();
 		}
@@ -25,11 +25,22 @@ abstract public class ConnectivityOptimizer {
 	 */
 	abstract public void addInterfaces(Collection<NetworkInterface> interfaces);
 
+	/**
+	 * Removes a network interface from the optimizer (if it is present)
+	 */
+	abstract public void removeInterface(NetworkInterface ni);
+
 	/**
 	 * Updates a network interface's location
 	 */
 	abstract public void updateLocation(NetworkInterface ni);
 
+	/**
+	 * Called when the location of a network interface's host changes. 
+	 * Optimizers that cache the locations override this.
+	 */
+	public void locationChanged(NetworkInterface ni) { }
+
 	/**
 	 * Finds all network interfaces that might be located so that they can be
 	 * connected with the network interface
@@ -4,8 +4,6 @@
  */
 package interfaces;
 
-import java.util.Collection;
-
 import core.Connection;
 import core.DTNHost;
 import core.NetworkInterface;
@@ -19,8 +17,22 @@ import core.VBRConnection;
  * transmissions. The configured transmit speed is the maximum obtainable speed.
  */
 public class InterferenceLimitedInterface extends NetworkInterface {
+	/** how large speed divisor table is initially created */
+	private static final int INITIAL_DIVISOR_COUNT = 64;
+	/** sqrt(n*log(n)) values of the Gupta-Kumar equation indexed by n */
+	private static double[] speedDivisors;
+
 	protected int currentTransmitSpeed;
+	/** number of transmissions at the time of the last update */
 	protected int numberOfTransmissions;
+	/** number of transmissions that are currently going on */
+	private int ongoingTransmissions;
+	/** number of connected interfaces that are transferring */
+	private int transferringNeighbors;
+
+	static {
+		fillSpeedDivisors(INITIAL_DIVISOR_COUNT);
+	}
 
 	public InterferenceLimitedInterface(Settings s) {
 		super(s);
@@ -38,6 +50,38 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 		this.transmitSpeed = ni.transmitSpeed;
 		this.currentTransmitSpeed = 0;
 		this.numberOfTransmissions = 0;
+		this.ongoingTransmissions = 0;
+		this.transferringNeighbors = 0;
+	}
+
+	/**
+	 * (Re)creates the speed divisor lookup table so that it contains values
+	 * at least for the given number of active stations
+	 * @param count Number of entries the table must have
+	 */
+	private static synchronized void fillSpeedDivisors(int count) {
+		if (speedDivisors != null && speedDivisors.length >= count) {
+			return; /* another caller already grew the table */
+		}
+		double[] divisors = new double[count];
+		for (int i=0; i<count; i++) {
+			divisors[i] = Math.sqrt((1.0*i) * Math.log(1.0*i));
+		}
+		speedDivisors = divisors;
+	}
+
+	/**
+	 * Returns the divisor of the maximum transmit speed for the given
+	 * number of active stations, i.e., sqrt(n*log(n))
+	 * @param numberOfActive Number of active stations (at least 2)
+	 * @return The divisor
+	 */
+	private static double getSpeedDivisor(int numberOfActive) {
+		if (numberOfActive >= speedDivisors.length) {
+			fillSpeedDivisors(Math.max(numberOfActive + 1, 
+					2 * speedDivisors.length));
+		}
+		return speedDivisors[numberOfActive];
 	}
 
 	
@@ -95,24 +139,21 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 			}
 		}
 		// Then find new possible connections
-		Collection<NetworkInterface> interfaces = 
-			optimizer.getNearInterfaces(this);
-		for (NetworkInterface i : interfaces) 
-			connect(i);
+		connectToNearInterfaces();
+
+		updateConnections();
+	}
 
+	/**
+	 * Recalculates the current transmission speed and updates the
+	 * connections of this interface
+	 */
+	@Override
+	public void updateConnections() {
 		// Find the current number of transmissions
 		// (to calculate the current transmission speed
-		numberOfTransmissions = 0;
-		int numberOfActive = 1;
-		for (Connection con : this.connections) {
-			if (con.getMessage() != null) {
-				numberOfTransmissions++;
-			}
-			if (((InterferenceLimitedInterface)con.getOtherInterface(this)).
-					isTransferring() == true) {
-				numberOfActive++;
-			}
-		}
+		setNumberOfTransmissions(ongoingTransmissions);
+		int numberOfActive = 1 + transferringNeighbors;
 
 		int ntrans = numberOfTransmissions;
 		if ( numberOfTransmissions < 1) ntrans = 1;
@@ -121,9 +162,7 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 		// Based on the equation of Gupta and Kumar - and the transmission speed
 		// is divided equally to all the ongoing transmissions 
 		currentTransmitSpeed = (int)Math.floor((double)transmitSpeed / 
-				(Math.sqrt((1.0*numberOfActive) *
-						Math.log(1.0*numberOfActive))) /
-							ntrans );
+				getSpeedDivisor(numberOfActive) / ntrans);
 		
 		for (Connection con : getConnections()) {
 			con.update();
@@ -145,6 +184,80 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 		}
 	}
 
+	/**
+	 * Sets the number of transmissions seen by the other interfaces and
+	 * informs the connected interfaces if this interface started or stopped
+	 * transferring.
+	 * @param transmissions The new number of transmissions
+	 */
+	private void setNumberOfTransmissions(int transmissions) {
+		boolean wasTransferring = isTransferring();
+		this.numberOfTransmissions = transmissions;
+
+		if (wasTransferring != isTransferring()) {
+			int change = (wasTransferring ? -1 : 1);
+			for (Connection con : this.connections) {
+				NetworkInterface other = con.getOtherInterface(this);
+				if (other instanceof InterferenceLimitedInterface) {
+					((InterferenceLimitedInterface)other).
+						transferringNeighbors += change;
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void connectionOpened(Connection con, 
+			NetworkInterface anotherInterface) {
+		if (!(anotherInterface instanceof InterferenceLimitedInterface)) {
+			return;
+		}
+		InterferenceLimitedInterface other = 
+			(InterferenceLimitedInterface)anotherInterface;
+		if (this.isTransferring()) {
+			other.transferringNeighbors++;
+		}
+		if (other.isTransferring()) {
+			this.transferringNeighbors++;
+		}
+	}
+
+	@Override
+	protected void connectionClosed(Connection con, 
+			NetworkInterface anotherInterface) {
+		if (!(anotherInterface instanceof InterferenceLimitedInterface)) {
+			return;
+		}
+		InterferenceLimitedInterface other = 
+			(InterferenceLimitedInterface)anotherInterface;
+		if (this.isTransferring()) {
+			other.transferringNeighbors--;
+		}
+		if (other.isTransferring()) {
+			this.transferringNeighbors--;
+		}
+		if (con.getMessage() != null) {
+			/* transfers of removed connections are not counted even if
+			 * they are aborted later */
+			this.ongoingTransmissions--;
+			other.ongoingTransmissions--;
+		}
+	}
+
+	@Override
+	protected void transferStarted(Connection con) {
+		if (con.isUp()) {
+			this.ongoingTransmissions++;
+		}
+	}
+
+	@Override
+	protected void transferEnded(Connection con) {
+		if (con.isUp()) {
+			this.ongoingTransmissions--;
+		}
+	}
+
 	/**
 	 * Returns true if this interface is actually transmitting data
 	 */
@@ -4,6 +4,7 @@
  */
 package movement;
 
+import input.ExternalMovementIndex;
 import input.ExternalMovementReader;
 
 import java.util.HashMap;
@@ -28,10 +29,19 @@ public class ExternalMovement extends MovementModel {
 	public static final String MOVEMENT_FILE_S = "file";
 	/** number of preloaded intervals per preload run -setting id ({@value})*/
 	public static final String NROF_PRELOAD_S = "nrofPreload";
+	/** use indexed trace -setting id ({@value}). Boolean (default = false).
+	 * If true, the locations are read from a memory mapped index of the
+	 * trace file that is created (once) next to the trace file.
+	 * @see ExternalMovementIndex */
+	public static final String USE_INDEX_S = "useIndex";
 	
 	/** default initial location for excess nodes */
 	private static final Coord DEF_INIT_LOC = new Coord(0,0);
 	private static ExternalMovementReader reader;
+	/** index of the trace (null if the trace is read with the reader) */
+	private static ExternalMovementIndex index;
+	/** index of the next time instance to read from the index */
+	private static int nextSample;
 	private static String inputFileName;
 	
 	/** mapping of external id to movement model */
@@ -81,10 +91,20 @@ public class ExternalMovement extends MovementModel {
 			Settings s = new Settings(EXTERNAL_MOVEMENT_NS);
 			idMapping = new HashMap<String, ExternalMovement>();
 			inputFileName = s.getSetting(MOVEMENT_FILE_S);
-			reader = new ExternalMovementReader(inputFileName);
 			
-			initLocations = reader.readNextMovements();
-			initTime = reader.getLastTimeStamp();
+			if (s.contains(USE_INDEX_S) && s.getBoolean(USE_INDEX_S)) {
+				reader = null;
+				index = ExternalMovementIndex.open(inputFileName);
+				initLocations = index.getInitialLocations();
+				initTime = index.getTime(0);
+				nextSample = 1;
+			}
+			else {
+				index = null;
+				reader = new ExternalMovementReader(inputFileName);
+				initLocations = reader.readNextMovements();
+				initTime = reader.getLastTimeStamp();
+			}
 			samplingInterval = -1;
 			lastPreloadTime = -1;
 			
@@ -223,11 +243,17 @@ public class ExternalMovement extends MovementModel {
 	
 	@Override
 	public int getMaxX() {
+		if (index != null) {
+			return (int)(index.getMaxX() - index.getMinX()) + 1;
+		}
 		return (int)(reader.getMaxX() - reader.getMinX()) + 1;
 	}
 
 	@Override
 	public int getMaxY() {
+		if (index != null) {
+			return (int)(index.getMaxY() - index.getMinY()) + 1;
+		}
 		return (int)(reader.getMaxY() - reader.getMinY()) + 1;
 	}
 
@@ -243,6 +269,10 @@ public class ExternalMovement extends MovementModel {
 	 * were read.
 	 */
 	private static double readMorePaths() {
+		if (index != null) {
+			return readMoreIndexedPaths();
+		}
+		
 		List<Tuple<String, Coord>> list = reader.readNextMovements();
 		double time = reader.getLastTimeStamp();
 		
@@ -266,6 +296,33 @@ public class ExternalMovement extends MovementModel {
 		}
 	}
 	
+	/**
+	 * Reads paths for the next time instance from the index
+	 * @return The time stamp of the time instance or Double.NaN if all time
+	 * instances have been read
+	 */
+	private static double readMoreIndexedPaths() {
+		if (nextSample >= index.getNrofSamples()) {
+			return Double.NaN;
+		}
+		
+		int sample = nextSample++;
+		double time = index.getTime(sample);
+		
+		if (samplingInterval == -1) {
+			samplingInterval = time - initTime;
+		}
+		
+		for (int i=0, n = index.getNrofNodes(); i < n; i++) {
+			ExternalMovement em = idMapping.get(index.getId(i));
+			if (em != null && index.hasLocation(i, sample)) {
+				em.addLocation(index.getLocation(i, sample), time);
+			}
+		}
+		
+		return time;
+	}
+	
 	/**
 	 * Reset state so that next instance will have a fresh state
 	 */
@@ -0,0 +1,131 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package report;
+
+import input.ContactTraceReader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+import core.DTNHost;
+import core.InterfaceConnectionListener;
+import core.NetworkInterface;
+import core.SimError;
+
+/**
+ * Records the link up/down events of the simulation, including the type
+ * of the interfaces, to a binary contact trace file. The trace can be
+ * replayed in later runs as an external events file (see 
+ * {@link ContactTraceReader}), e.g., with connection and movement simulation
+ * turned off. All link events are recorded, also during the warm up period,
+ * so that a replay has the same connections as the recorded run.
+ * Intervalled reports are not supported.
+ * <P>
+ * The trace file has the extension {@value ContactTraceReader#TRACE_EXT}
+ * instead of the normal report suffix.
+ * </P>
+ */
+public class ContactTraceReport extends Report 
+	implements InterfaceConnectionListener {
+	private DataOutputStream trace;
+	/** indexes of the interface types that have been written to the trace */
+	private HashMap<String, Short> interfaceTypes;
+
+	/**
+	 * Constructor.
+	 */
+	public ContactTraceReport() {
+		this.interfaceTypes = new HashMap<String, Short>();
+		String fileName = getOutputFileName();
+		if (fileName.endsWith(OUT_SUFFIX)) {
+			fileName = fileName.substring(0, 
+					fileName.length() - OUT_SUFFIX.length());
+		}
+		fileName += ContactTraceReader.TRACE_EXT;
+
+		try {
+			this.trace = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(fileName)));
+			trace.writeInt(ContactTraceReader.MAGIC);
+			trace.writeByte(ContactTraceReader.VERSION);
+		} catch (IOException e) {
+			throw new SimError("Couldn't open file '" + fileName + 
+					"' for report output\n" + e.getMessage(), e);
+		}
+	}
+
+	public void hostsConnected(DTNHost host1, DTNHost host2) {
+		/* recorded in interfacesConnected */
+	}
+
+	public void hostsDisconnected(DTNHost host1, DTNHost host2) {
+		/* recorded in interfacesDisconnected */
+	}
+
+	public void interfacesConnected(NetworkInterface ni1, 
+			NetworkInterface ni2) {
+		writeRecord(ContactTraceReader.LINK_UP, ni1, ni2);
+	}
+
+	public void interfacesDisconnected(NetworkInterface ni1, 
+			NetworkInterface ni2) {
+		writeRecord(ContactTraceReader.LINK_DOWN, ni1, ni2);
+	}
+
+	/**
+	 * Writes a connection record (and the interface type record if the
+	 * type has not been written yet) to the trace
+	 * @param type Type of the record
+	 * @param ni1 The interface that initiated the (dis)connection
+	 * @param ni2 The interface in the other end of the connection
+	 */
+	private void writeRecord(byte type, NetworkInterface ni1, 
+			NetworkInterface ni2) {
+		try {
+			short index = getInterfaceTypeIndex(ni1.getInterfaceType());
+			trace.writeByte(type);
+			trace.writeDouble(getSimTime());
+			trace.writeInt(ni1.getHost().getAddress());
+			trace.writeInt(ni2.getHost().getAddress());
+			trace.writeShort(index);
+		} catch (IOException e) {
+			throw new SimError("Couldn't write contact trace", e);
+		}
+	}
+
+	/**
+	 * Returns the index of an interface type in the trace. Writes the type
+	 * definition to the trace if the type was not defined yet.
+	 * @param interfaceType The interface type 
+	 * @return The index of the interface type
+	 * @throws IOException if writing the definition fails
+	 */
+	private short getInterfaceTypeIndex(String interfaceType) 
+			throws IOException {
+		Short index = interfaceTypes.get(interfaceType);
+		if (index == null) {
+			index = (short)interfaceTypes.size();
+			interfaceTypes.put(interfaceType, index);
+			trace.writeByte(ContactTraceReader.INTERFACE_TYPE);
+			trace.writeShort(index);
+			trace.writeUTF(interfaceType);
+		}
+		return index;
+	}
+
+	@Override
+	public void done() {
+		try {
+			trace.close();
+		} catch (IOException e) {
+			throw new SimError("Couldn't close contact trace", e);
+		}
+		super.done();
+	}
+
+}
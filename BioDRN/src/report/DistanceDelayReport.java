@@ -42,7 +42,7 @@ public class DistanceDelayReport extends Report implements MessageListener {
 	 */
 	public void messageTransferred(Message m, DTNHost from, DTNHost to,
 			boolean firstDelivery) {
-		if (isWarmupID(m.getId()) || !firstDelivery) {
+		if (isWarmupID(m.getIntId()) || !firstDelivery) {
 			return; // report is only interested of first deliveries  
 		}
 		
@@ -52,7 +52,7 @@ public class DistanceDelayReport extends Report implements MessageListener {
 		}
 		
 		report(m.getId(), info.getLoc1().distance(info.getLoc2()),
-				getSimTime() - info.getTime(), m.getHops().size()-1);
+				getSimTime() - info.getTime(), m.getHopCount());
 	}
 
 	/**
@@ -60,7 +60,7 @@ public class DistanceDelayReport extends Report implements MessageListener {
 	 */
 	public void newMessage(Message m) {
 		if (isWarmup()) {
-			addWarmupID(m.getId());
+			addWarmupID(m.getIntId());
 			return;
 		}
 		
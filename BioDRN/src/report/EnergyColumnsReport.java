@@ -0,0 +1,235 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package report;
+
+import input.EnergySeriesReader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import routing.util.EnergyModel;
+import core.DTNHost;
+import core.EnergyIndex;
+import core.Settings;
+import core.SimError;
+import core.SimScenario;
+import core.UpdateListener;
+
+/**
+ * Columnar version of the {@link EnergyLevelReport}. The energy levels of
+ * all (or only some) nodes are sampled every configurable-amount-of
+ * seconds into primitive arrays, one column per node, and written as
+ * binary blocks when the buffers are full and when the simulation is done.
+ * The total energy and the number of alive sensor nodes are sampled from
+ * the world's {@link EnergyIndex}. Samples are taken only after the warmup
+ * period.
+ * <P>
+ * The output file has the extension {@value EnergySeriesReader#SERIES_EXT}
+ * instead of the normal report suffix. See {@link EnergySeriesReader} for
+ * the file format and for converting the series to CSV.
+ * </P>
+ */
+public class EnergyColumnsReport extends Report implements UpdateListener {
+	/** Reporting granularity -setting id ({@value}).
+	 * Defines the interval how often (seconds) a new sample of energy levels
+	 * is taken */
+	public static final String GRANULARITY = "granularity";
+	/** Optional reported nodes (comma separated list of network addresses).
+	 * By default all nodes are reported. */
+	public static final String REPORTED_NODES = "nodes";
+	/** Number of samples in a written block -setting id ({@value}).
+	 * Default = {@value #DEF_BLOCK_SIZE} */
+	public static final String BLOCK_SIZE_S = "blockSize";
+	/** Default number of samples in a block */
+	public static final int DEF_BLOCK_SIZE = 1024;
+
+	/** value of the granularity setting */
+	protected final int granularity;
+	/** time of last update*/
+	protected double lastUpdate;
+	/** Networks addresses (integers) of the nodes which are reported */
+	protected HashSet<Integer> reportedNodes;
+
+	private int blockSize;
+	private DataOutputStream output;
+	/** reported hosts, one per column (null until the first sample) */
+	private DTNHost[] columns;
+	/** energy models of the column hosts (null for hosts without one) */
+	private EnergyModel[] models;
+
+	/* samples of the current block */
+	private int nrofSamples;
+	private double[] times;
+	private double[] totals;
+	private int[] alive;
+	private double[][] levels;
+
+	/**
+	 * Constructor. Reads the settings and initializes the report module.
+	 */
+	public EnergyColumnsReport() {
+		Settings settings = getSettings();
+		this.lastUpdate = 0;
+		this.granularity = settings.getInt(GRANULARITY);
+
+		if (settings.contains(REPORTED_NODES)) {
+			this.reportedNodes = new HashSet<Integer>();
+			for (Integer nodeId : settings.getCsvInts(REPORTED_NODES)) {
+				this.reportedNodes.add(nodeId);
+			}
+		}
+		else {
+			this.reportedNodes = null;
+		}
+
+		this.blockSize = DEF_BLOCK_SIZE;
+		if (settings.contains(BLOCK_SIZE_S)) {
+			this.blockSize = settings.getInt(BLOCK_SIZE_S);
+		}
+		this.times = new double[blockSize];
+		this.totals = new double[blockSize];
+		this.alive = new int[blockSize];
+	}
+
+	/**
+	 * Does not create the text output file of the report. The samples are
+	 * written only to the series file.
+	 */
+	@Override
+	protected void init() { }
+
+	/**
+	 * Takes a new sample of the energy levels if "granularity" seconds
+	 * have passed since the last sample.
+	 * @param hosts All the hosts in the world
+	 */
+	public void updated(List<DTNHost> hosts) {
+		double simTime = getSimTime();
+		if (isWarmup()) {
+			return; /* warmup period is on */
+		}
+		/* takes a sample once every granularity seconds */
+		if (simTime - lastUpdate >= granularity) {
+			sample(hosts);
+			this.lastUpdate = simTime - simTime % granularity;
+		}
+	}
+
+	/**
+	 * Selects the reported hosts and writes the header of the output
+	 * @param hosts All the hosts in the world
+	 */
+	private void initColumns(List<DTNHost> hosts) {
+		List<DTNHost> reported = new ArrayList<DTNHost>();
+		for (DTNHost h : hosts) {
+			if (this.reportedNodes == null ||
+					this.reportedNodes.contains(h.getAddress())) {
+				reported.add(h);
+			}
+		}
+		this.columns = reported.toArray(new DTNHost[reported.size()]);
+		this.models = new EnergyModel[columns.length];
+		this.levels = new double[columns.length][blockSize];
+
+		String name = getOutputFileName();
+		if (name.endsWith(OUT_SUFFIX)) {
+			name = name.substring(0, name.length() - OUT_SUFFIX.length());
+		}
+		name += EnergySeriesReader.SERIES_EXT;
+
+		try {
+			this.output = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(name), 1 << 16));
+			output.writeInt(EnergySeriesReader.MAGIC);
+			output.writeInt(EnergySeriesReader.VERSION);
+			output.writeInt(columns.length);
+			for (DTNHost h : columns) {
+				output.writeInt(h.getAddress());
+				output.writeUTF(h.toString());
+			}
+		} catch (IOException e) {
+			throw new SimError("Couldn't open file '" + name +
+					"' for report output\n" + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Takes a sample of the energy levels
+	 * @param hosts The list of hosts in the world
+	 */
+	private void sample(List<DTNHost> hosts) {
+		if (this.columns == null) {
+			initColumns(hosts);
+		}
+
+		int i = this.nrofSamples;
+		EnergyIndex index = SimScenario.getInstance().getWorld().
+			getEnergyIndex();
+		String role = EnergyModel.CONSUMING_HOST_PREFIX;
+		times[i] = getSimTime();
+		totals[i] = index.getTotalEnergy(role);
+		alive[i] = index.getNrofAlive(role);
+
+		for (int c=0; c < columns.length; c++) {
+			if (models[c] == null) { /* attached at the host's first update */
+				models[c] = (EnergyModel)columns[c].getComBus().
+					getProperty(EnergyModel.ENERGY_MODEL_ID);
+			}
+			levels[c][i] = (models[c] != null ?
+					models[c].getEnergy() : Double.NaN);
+		}
+
+		if (++this.nrofSamples == blockSize) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * Writes the buffered samples as a block
+	 */
+	private void writeBlock() {
+		int n = this.nrofSamples;
+		try {
+			output.writeInt(n);
+			for (int i=0; i < n; i++) {
+				output.writeDouble(times[i]);
+			}
+			for (int i=0; i < n; i++) {
+				output.writeDouble(totals[i]);
+			}
+			for (int i=0; i < n; i++) {
+				output.writeInt(alive[i]);
+			}
+			for (double[] column : levels) {
+				for (int i=0; i < n; i++) {
+					output.writeDouble(column[i]);
+				}
+			}
+		} catch (IOException e) {
+			throw new SimError("Couldn't write the energy series", e);
+		}
+		this.nrofSamples = 0;
+	}
+
+	@Override
+	public void done() {
+		if (this.output != null) {
+			if (this.nrofSamples > 0) {
+				writeBlock();
+			}
+			try {
+				output.close();
+			} catch (IOException e) {
+				throw new SimError("Couldn't close the energy series", e);
+			}
+		}
+		super.done();
+	}
+}
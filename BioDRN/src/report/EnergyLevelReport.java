@@ -9,9 +9,12 @@ import java.util.HashSet;
 import java.util.List;
 
 import core.DTNHost;
+import core.EnergyIndex;
 import core.Settings;
 import core.SimError;
+import core.SimScenario;
 import core.UpdateListener;
+import routing.util.EnergyModel;
 
 /**
  * Node energy level report. Reports the energy level of all (or only some) 
@@ -102,14 +105,7 @@ public class EnergyLevelReport extends Report implements UpdateListener {
  */
 private void createSnapshot(List<DTNHost> hosts) {
 	//write ("[" + (int)getSimTime() + "]"); /* simulation time stamp */
-	double totEnergy = 0;
-	int deadNodesNum = 0;
-	int countOfSNs = 0;
-	for (DTNHost h : hosts) {
-		if(h.toString().startsWith("n")){
-			countOfSNs++;
-		}
-	}
+	EnergyIndex index = SimScenario.getInstance().getWorld().getEnergyIndex();
 	for (DTNHost h : hosts) {
 		if(h.toString().startsWith("CD") || h.toString().startsWith("CS") || h.toString().startsWith("G"))
 			continue;
@@ -118,7 +114,12 @@ private void createSnapshot(List<DTNHost> hosts) {
 			!this.reportedNodes.contains(h.getAddress())) {
 			continue; /* node not in the list */
 		}
+		EnergyModel energy = (EnergyModel)h.getComBus().
+			getProperty(EnergyModel.ENERGY_MODEL_ID);
 		Double value = (Double)h.getComBus().getProperty("Energy.value");
+		if (energy != null) {
+			value = energy.getEnergy(); /* integrates the consumption */
+		}
 		//Double totalValue = (Double)h.getComBus().getProperty("TotalEnergy.value");
 		//Double value = h.getCurEnergy();
 		if (value == null) {
@@ -126,12 +127,6 @@ private void createSnapshot(List<DTNHost> hosts) {
 				//	" is not using an energy aware router");
 			continue;
 		}
-		if(h.toString().startsWith("n")){
-			totEnergy+= value;
-		}
-		if(value<=0)
-			deadNodesNum += 1;
-		
 		BigDecimal bd = new BigDecimal(getSimTime());
 		bd = bd.setScale(2, BigDecimal.ROUND_HALF_UP);
 		
@@ -140,7 +135,10 @@ private void createSnapshot(List<DTNHost> hosts) {
 	}
 	BigDecimal bd = new BigDecimal(getSimTime());
 	bd = bd.setScale(2, BigDecimal.ROUND_HALF_UP);
-	write( bd + " " + "available_energy:" + " " + totEnergy +" " + (countOfSNs - deadNodesNum));
+	/* totals of the sensor nodes from the world's energy aggregate */
+	String role = EnergyModel.CONSUMING_HOST_PREFIX;
+	write( bd + " " + "available_energy:" + " " + index.getTotalEnergy(role) +
+			" " + index.getNrofAlive(role));
 	//write(deadNodesNum + " ");
 	
 	}
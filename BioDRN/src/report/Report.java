@@ -9,6 +9,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -61,6 +62,9 @@ public abstract class Report {
 	private int precision;
 	protected int warmupTime;
 	protected Set<String> warmupIDs;
+	/** int IDs (see {@link core.Message#getIntId()}) of the messages 
+	 * created during the warm up period */
+	private BitSet warmupMessageIDs;
 	
 	private int lastOutputSuffix;
 	private double outputInterval;
@@ -78,6 +82,7 @@ public abstract class Report {
 		this.lastOutputSuffix = 0;
 		this.outputInterval = -1;
 		this.warmupIDs = null;
+		this.warmupMessageIDs = null;
 
 		Settings settings = new Settings();
 		scenarioName = settings.valueFillString(settings.getSetting(
@@ -256,6 +261,15 @@ public abstract class Report {
 		this.prefix = txt;
 	}
 	
+	/**
+	 * Returns the name (and path) of the output file of this report
+	 * @return the name of the output file (or the prefix of the file names 
+	 * for intervalled reports)
+	 */
+	protected String getOutputFileName() {
+		return this.outFileName;
+	}
+
 	/**
 	 * Returns the name of the scenario as read from the settings
 	 * @return the name of the scenario as read from the settings
@@ -313,6 +327,29 @@ public abstract class Report {
 		return this.warmupIDs.contains(id);
 	}
 	
+	/**
+	 * Adds a message's int ID to the warm up message set
+	 * @param intId The int ID of the message (see 
+	 * {@link core.Message#getIntId()})
+	 */
+	protected void addWarmupID(int intId) {
+		if (this.warmupMessageIDs == null) { // lazy creation of the set
+			this.warmupMessageIDs = new BitSet();
+		}
+		
+		this.warmupMessageIDs.set(intId);
+	}
+	
+	/**
+	 * Returns true if the given int ID is in the warm up message set
+	 * @param intId The int ID of the message
+	 * @return true if the given ID is in the warm up message set
+	 */
+	protected boolean isWarmupID(int intId) {
+		return this.warmupMessageIDs != null && 
+			this.warmupMessageIDs.get(intId);
+	}
+	
 	/**
 	 * Returns a Settings object initialized for the report class' name space
 	 * that uses {@value REPORT_NS} as the secondary name space.
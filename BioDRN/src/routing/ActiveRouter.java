@@ -25,6 +25,7 @@ import core.SettingsError;
 import core.SimClock;
 import core.SimScenario;
 import core.Tuple;
+import core.World;
 
 
 /**
@@ -40,6 +41,15 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 	/** should messages that final recipient marks as delivered be deleted
 	 * from message buffer */
 	protected boolean deleteDelivered;
+	/** Transfer batch size -setting id ({@value}). Integer valued.
+	 * Maximum number of messages that are sent back-to-back through a
+	 * connection after one routing decision. When a message is accepted,
+	 * the messages that would have been tried after it are queued to the
+	 * connection and they are offered to the receiver one at a time as soon
+	 * as the previous transfer is done. Default=1 (no batching). */
+	public static final String TRANSFER_BATCH_SIZE_S = "transferBatchSize";
+	/** maximum number of messages sent back-to-back through a connection */
+	protected int transferBatchSize;
 	
 	/** prefix of all response message IDs */
 	public static final String RESPONSE_PREFIX = "R_";
@@ -108,6 +118,17 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 			this.deleteDelivered = false;
 		}
 		
+		if (s.contains(TRANSFER_BATCH_SIZE_S)) {
+			this.transferBatchSize = s.getInt(TRANSFER_BATCH_SIZE_S);
+			if (this.transferBatchSize < 1) {
+				throw new SettingsError(TRANSFER_BATCH_SIZE_S + " must be " +
+						"at least 1");
+			}
+		}
+		else {
+			this.transferBatchSize = 1;
+		}
+		
 //		this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 //		
 //		if (this.initEnergy.length != 1 && this.initEnergy.length != 2) {
@@ -152,6 +173,7 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 	 */
 	protected ActiveRouter(ActiveRouter r) {
 		super(r);
+		this.transferBatchSize = r.transferBatchSize;
 //		this.deleteDelivered = r.deleteDelivered;
 //		this.initEnergy = r.initEnergy;
 //		setEnergy(this.initEnergy);
@@ -225,7 +247,7 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 	
 	//method to verify that the host is receiving message
     protected int isReceiving() {
-        return this.incomingMessages.size();
+        return getNrofIncomingMessages();
     }
     
 	@Override
@@ -253,9 +275,16 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 		 * (startTransfer may remove messages) */
 		ArrayList<Message> temp = 
 			new ArrayList<Message>(this.getMessageCollection());
-		for (Message m : temp) {
+		for (int i=0, n=temp.size(); i<n; i++) {
+			Message m = temp.get(i);
 			if (other == m.getTo()) {
 				if (startTransfer(m, con) == RCV_OK) {
+					/* queue the rest of the messages for the same host */
+					for (int j=i+1; j<n && isBatchFree(con); j++) {
+						if (other == temp.get(j).getTo()) {
+							con.addToBatch(temp.get(j));
+						}
+					}
 					return true;
 				}
 			}
@@ -337,6 +366,42 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 		return retVal;
 	}
 	
+	/**
+	 * Returns true if more messages can be queued to the batch of a
+	 * connection (see {@link #TRANSFER_BATCH_SIZE_S})
+	 * @param con The connection
+	 * @return True if the batch is not full
+	 */
+	protected boolean isBatchFree(Connection con) {
+		return con.getBatchSize() < this.transferBatchSize - 1;
+	}
+	
+	/**
+	 * Starts the transfer of the next message queued to a connection.
+	 * Messages that are no longer in the buffer or that the receiver
+	 * rejects are skipped. If the receiver asks to try later, the rest of
+	 * the batch is discarded.
+	 * @param con The connection whose previous transfer was finalized
+	 * @return True if a transfer was started
+	 */
+	protected boolean startNextInBatch(Connection con) {
+		for (Message m = con.nextInBatch(); m != null; m = con.nextInBatch()) {
+			Message current = getMessage(m.getIntId());
+			if (current == null) {
+				continue; // dropped (or delivered) after the batch was made
+			}
+			int retVal = startTransfer(current, con);
+			if (retVal == RCV_OK) {
+				return true;
+			}
+			else if (retVal > 0) {
+				break; // should try later -> routing decides again
+			}
+		}
+		con.clearBatch();
+		return false;
+	}
+	
 	/**
 	 * Makes rudimentary checks (that we have at least one message and one
 	 * connection) about can this router start transfer.
@@ -370,7 +435,7 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 			return TRY_LATER_BUSY; // only one connection at a time
 		}
 	
-		if ( hasMessage(m.getId()) || isDeliveredMessage(m) ){
+		if ( hasMessage(m.getIntId()) || isDeliveredMessage(m) ){
 			return DENIED_OLD; // already seen this message -> reject it
 		}
 		
@@ -510,10 +575,17 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 			return null;
 		}
 		
-		for (Tuple<Message, Connection> t : tuples) {
+		for (int i=0, n=tuples.size(); i<n; i++) {
+			Tuple<Message, Connection> t = tuples.get(i);
 			Message m = t.getKey();
 			Connection con = t.getValue();
 			if (startTransfer(m, con) == RCV_OK) {
+				/* queue the rest of the messages for the same connection */
+				for (int j=i+1; j<n && isBatchFree(con); j++) {
+					if (tuples.get(j).getValue() == con) {
+						con.addToBatch(tuples.get(j).getKey());
+					}
+				}
 				return t;
 			}
 		}
@@ -531,9 +603,14 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 	  * transfer was started. 
 	  */
 	protected Message tryAllMessages(Connection con, List<Message> messages) {
-		for (Message m : messages) {
+		for (int i=0, n=messages.size(); i<n; i++) {
+			Message m = messages.get(i);
 			int retVal = startTransfer(m, con); 
 			if (retVal == RCV_OK) {
+				/* queue the following messages to be sent after this one */
+				for (int j=i+1; j<n && isBatchFree(con); j++) {
+					con.addToBatch(messages.get(j));
+				}
 				return m;	// accepted a message, don't try others
 			}
 			else if (retVal > 0) { 
@@ -704,40 +781,31 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 		/* in theory we can have multiple sending connections even though
 		  currently all routers allow only one concurrent sending connection */
 		for (int i=0; i<this.sendingConnections.size(); ) {
-			boolean removeCurrent = false;
-			Connection con = sendingConnections.get(i);
-			
-			/* finalize ready transfers */
-			if (con.isMessageTransferred()) {
-				if (con.getMessage() != null) {
-					transferDone(con);
-					con.finalizeTransfer();
-				} /* else: some other entity aborted transfer */
-				removeCurrent = true;
-			}
-			/* remove connections that have gone down */
-			else if (!con.isUp()) {
-				if (con.getMessage() != null) {
-					transferAborted(con);
-					con.abortTransfer();
-				}
-				removeCurrent = true;
-			} 
-			
-			if (removeCurrent) {
-				// if the message being sent was holding excess buffer, free it
-				if (this.getFreeBufferSize() < 0) {
-					this.makeRoomForMessage(0);
-				}
-				sendingConnections.remove(i);
-			}
-			else {
+			if (!checkSendingConnection(i)) {
 				/* index increase needed only if nothing was removed */
 				i++;
 			}
 		}
 		
-		/* time to do a TTL check and drop old messages? Only if not sending */
+		checkTtls();
+	}
+	
+	/**
+	 * Drops the expired messages of a deactivated host at the same times as
+	 * {@link #update()} would drop them
+	 * @return True if the host still has messages
+	 */
+	@Override
+	public boolean updateDeactivated() {
+		checkTtls();
+		return getNrofMessages() > 0;
+	}
+	
+	/**
+	 * Drops the messages whose TTL has expired if it's time to do a TTL 
+	 * check (every {@link #TTL_CHECK_INTERVAL} seconds, only if not sending)
+	 */
+	private void checkTtls() {
 		if (SimClock.getTime() - lastTtlCheck >= TTL_CHECK_INTERVAL && 
 				sendingConnections.size() == 0) {
 			dropExpiredMessages();
@@ -745,6 +813,77 @@ public abstract class ActiveRouter extends MessageRouter implements ModuleCommun
 		}
 	}
 	
+	/**
+	 * Finalizes or aborts the transfer of a sending connection when its 
+	 * transfer done event is processed or when the connection goes down. 
+	 * Only this connection is checked; the rest of the router is updated at
+	 * the next update round.
+	 * @param con The connection whose transfer is done or that went down
+	 * @see input.TransferDoneEvent
+	 */
+	public void updateTransfer(Connection con) {
+		int index = this.sendingConnections.indexOf(con);
+		if (index >= 0) {
+			checkSendingConnection(index);
+		}
+	}
+
+	/**
+	 * Aborts the transfer of the sending connection in the given index if
+	 * the connection has gone down, or finalizes it if the transfer is 
+	 * done. Such a connection is removed from the sending connections and
+	 * the next message of its batch (if any) is started.
+	 * @param index Index of the connection in the sending connections
+	 * @return True if the connection was removed, false if not
+	 */
+	private boolean checkSendingConnection(int index) {
+		boolean sendNext = false;
+		Connection con = sendingConnections.get(index);
+
+		/* remove connections that have gone down */
+		if (!con.isUp()) {
+			if (con.getMessage() != null) {
+				transferAborted(con);
+				con.abortTransfer();
+			}
+		}
+		/* finalize ready transfers */
+		else if (con.isMessageTransferred()) {
+			if (con.getMessage() != null) {
+				transferDone(con);
+				con.finalizeTransfer();
+				sendNext = con.getBatchSize() > 0;
+			} /* else: some other entity aborted transfer */
+		}
+		else {
+			return false;
+		}
+
+		// if the message being sent was holding excess buffer, free it
+		if (this.getFreeBufferSize() < 0) {
+			this.makeRoomForMessage(0);
+		}
+		sendingConnections.remove(index);
+		if (sendNext) {
+			/* re-added to the end of the list if a transfer starts */
+			startNextInBatch(con);
+		}
+		else {
+			con.clearBatch(); // queued messages were never offered
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the host of this router from the active simulation set for
+	 * the rest of the simulation, e.g., when the host has run out of energy
+	 * or has failed. 
+	 * @see World#deactivateHost(DTNHost)
+	 */
+	protected void deactivateHost() {
+		SimScenario.getInstance().getWorld().deactivateHost(getHost());
+	}
+
 	/**
 	 * Method is called just before a transfer is aborted at {@link #update()} 
 	 * due connection going down. This happens on the sending host. 
@@ -5,9 +5,9 @@
 package routing;
 
 import input.FailedNodeListReader;
-import input.NeighborListReader;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -15,7 +15,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 
 import routing.maxprop.MaxPropDijkstra;
@@ -23,14 +22,15 @@ import routing.maxprop.MeetingProbabilitySet;
 import core.Connection;
 import core.DTNHost;
 import core.Message;
-import core.ModuleCommunicationBus;
+import core.ModuleCommunicationBus;
+import core.ModuleCommunicationDoubleListener;
 import core.NetworkInterface;
 import core.Settings;
-import core.SettingsError;
 import core.SimClock;
-import core.SimScenario;
 import core.Tuple;
 
+import routing.util.EnergyModel;
+
 /**
  * Implementation of MaxProp router as described in 
  * <I>MaxProp: Routing for Vehicle-Based Disruption-Tolerant Networks</I> by
@@ -43,7 +43,8 @@ import core.Tuple;
  * algorithm.  Refer to Karvo and Ott, <I>Time Scales and Delay-Tolerant Routing 
  * Protocols</I> Chants, 2008 
  */
-public class BioDRNMaxPropRouter extends ActiveRouter {
+public class BioDRNMaxPropRouter extends ActiveRouter 
+		implements ModuleCommunicationDoubleListener {
     /** Router's setting namespace ({@value})*/
 	public static final String MAXPROP_NS = "MaxPropRouter";
 	/**
@@ -61,8 +62,9 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
 	private Map<Integer, MeetingProbabilitySet> allProbs;
 	/** the cost-to-node calculator */
 	private MaxPropDijkstra dijkstra;	
-	/** IDs of the messages that are known to have reached the final dst */
-	private Set<String> ackedMessageIds;
+	/** int IDs of the messages that are known to have reached the final dst
+	 * (see {@link Message#getIntId()}) */
+	private BitSet ackedMessageIds;
 	/** mapping of the current costs for all messages. This should be set to
 	 * null always when the costs should be updated (a host is met or a new
 	 * message is received) */
@@ -105,28 +107,20 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
 
 		/** {@link ModuleCommunicationBus} identifier for the "current amount of 
 		 * energy left" variable. Value type: double */
-		public static final String ENERGY_VALUE_ID = "Energy.value";
+		public static final String ENERGY_VALUE_ID = "Energy.value";
+		/** slot of the energy value in the communication bus */
+		private static final int ENERGY_SLOT = 
+			ModuleCommunicationBus.getSlot(ENERGY_VALUE_ID);
 		public static final String IS_ENERGY_CONSTRAINED = "isEnergyConstrained";
 		
-		private final double[] initEnergy;
-		private double warmupTime;
 		private double currentEnergy;
-		/** energy usage per scan */
-		private double scanEnergy;
-		private double transmitEnergy;
-		private double lastScanUpdate;
-		private double lastUpdate;
-		private double scanInterval;	
+		/** energy model of the host */
+		private EnergyModel energy;
 		private int isEnergyConstrained = 2;
 		private ModuleCommunicationBus comBus;
-		private static Random rng = null;
 		
 		private double initTime;
-		private static NeighborListReader neighborListReader;
 		private static FailedNodeListReader failedNodeListReader;
-		private double samplingInterval = 600;
-		private double lastSamplingUpdate = 0;
-		private ArrayList<String >currentNodeNeighborList;
 		private ArrayList<String> failedNodeList;
 		private int lastCCID;
 		private int firstCD;
@@ -155,37 +149,10 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
         }
         
         //For Bio-DRN
-        this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
-		
-		if (this.initEnergy.length != 1 && this.initEnergy.length != 2) {
-			throw new SettingsError(INIT_ENERGY_S + " setting must have " + 
-					"either a single value or two comma separated values");
-		}
-		
-		this.scanEnergy = s.getDouble(SCAN_ENERGY_S);
-		this.transmitEnergy = s.getDouble(TRANSMIT_ENERGY_S);
-		this.scanInterval  = s.getDouble(SimScenario.SCAN_INTERVAL_S);
+		this.energy = new EnergyModel(s);
 		this.lastCCID = s.getInt("lastCCID");
-		
-		if (s.contains(WARMUP_S)) {
-			this.warmupTime = s.getInt(WARMUP_S);
-			if (this.warmupTime == -1) {
-				this.warmupTime = new Settings(report.Report.REPORT_NS).
-					getInt(report.Report.WARMUP_S);
-			}
-		}
-		else {
-			this.warmupTime = 0;
-		}
 		this.isEnergyConstrained = s.getInt(IS_ENERGY_CONSTRAINED);
 		
-		this.samplingInterval = s.getInt("samplingInterval");
-		
-		if(s.contains("neighborListFile")){
-			String filePath = s.getSetting("neighborListFile");
-			neighborListReader = new NeighborListReader(filePath);
-		}
-		
 		if(s.contains("failedNodeListFile")){
 			String filePath = s.getSetting("failedNodeListFile");
 			failedNodeListReader = new FailedNodeListReader(filePath);
@@ -206,24 +173,15 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
 		this.probs = new MeetingProbabilitySet(probSetMaxSize, this.alpha);
 		this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
 		this.dijkstra = new MaxPropDijkstra(this.allProbs);
-		this.ackedMessageIds = new HashSet<String>();
+		this.ackedMessageIds = new BitSet();
 		this.avgSamples = new int[BYTES_TRANSFERRED_AVG_SAMPLES];
 		
 		//For bio-DRN
-		this.initEnergy = r.initEnergy;
-		setEnergy(this.initEnergy);
-		this.scanEnergy = r.scanEnergy;
-		this.transmitEnergy = r.transmitEnergy;
-		this.scanInterval = r.scanInterval;
-		this.warmupTime  = r.warmupTime;
+		this.energy = r.energy.replicate();
 		this.comBus = null;
-		this.lastScanUpdate = r.lastScanUpdate;
-		this.lastUpdate = r.lastUpdate;
 		this.isEnergyConstrained = r.isEnergyConstrained;
 
 		this.initTime = r.initTime;
-		this.samplingInterval = r.samplingInterval;
-		this.lastSamplingUpdate = r.lastSamplingUpdate;
 		this.lastCCID = r.lastCCID;
 		this.firstCD = r.firstCD;
 		this.failedNodesSamplingInterval = r.failedNodesSamplingInterval;
@@ -246,8 +204,8 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
 				BioDRNMaxPropRouter otherRouter = (BioDRNMaxPropRouter)mRouter;
 				
 				/* exchange ACKed message data */
-				this.ackedMessageIds.addAll(otherRouter.ackedMessageIds);
-				otherRouter.ackedMessageIds.addAll(this.ackedMessageIds);
+				this.ackedMessageIds.or(otherRouter.ackedMessageIds);
+				otherRouter.ackedMessageIds.or(this.ackedMessageIds);
 				deleteAckedMessages();
 				otherRouter.deleteAckedMessages();
 				
@@ -290,8 +248,13 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
 	 * Deletes the messages from the message buffer that are known to be ACKed
 	 */
 	private void deleteAckedMessages() {
-		for (String id : this.ackedMessageIds) {
-			if (this.hasMessage(id) && !isSending(id)) {
+		for (int i = ackedMessageIds.nextSetBit(0); i >= 0;
+				i = ackedMessageIds.nextSetBit(i + 1)) {
+			if (!this.hasMessage(i)) {
+				continue;
+			}
+			String id = Message.getIdString(i);
+			if (!isSending(id)) {
 				this.deleteMessage(id, false);
 			}
 		}
@@ -303,7 +266,7 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
 		Message m = super.messageTransferred(id, from);
 		/* was this node the final recipient of the message? */
 		if (isDeliveredMessage(m)) {
-			this.ackedMessageIds.add(id);
+			this.ackedMessageIds.set(Message.lookupIntId(id));
 		}
 		return m;
 	}
@@ -319,7 +282,7 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
 		Message m = con.getMessage();
 		/* was the message delivered to the final recipient? */
 		if (m.getTo() == con.getOtherNode(getHost())) { 
-			this.ackedMessageIds.add(m.getId()); // yes, add to ACKed messages
+			this.ackedMessageIds.set(m.getIntId()); // yes, add to ACKed messages
 			this.deleteMessage(m.getId(), false); // delete from buffer
 		}
 	}
@@ -383,92 +346,21 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
     
 
 	/**
-	 * Sets the current energy level into the given range using uniform 
-	 * random distribution.
-	 * @param range The min and max values of the range, or if only one value
-	 * is given, that is used as the energy level
-	 */
-	protected void setEnergy(double range[]) {
-		if (range.length == 1) {
-			this.currentEnergy = range[0];
-		}
-		else {
-			if (rng == null) {
-				rng = new Random((int)(range[0] + range[1]));
-			}
-			this.currentEnergy = range[0] + 
-				rng.nextDouble() * (range[1] - range[0]);
-		}
-	}
-	
-	/**
-	 * Updates the current energy so that the given amount is reduced from it.
-	 * If the energy level goes below zero, sets the level to zero.
-	 * Does nothing if the warmup time has not passed.
-	 * @param amount The amount of energy to reduce
-	 */
-	protected void reduceEnergy(double amount) {
-		if (SimClock.getTime() < this.warmupTime) {
-			return;
-		}
-		
-		comBus.updateDouble(ENERGY_VALUE_ID, -amount);
-		if (this.currentEnergy < 0) {
-			comBus.updateProperty(ENERGY_VALUE_ID, 0.0);
-		}
-	}
-	
-
-	/**
-	 * Reduces the energy reserve for the amount that is used by sending data
-	 * and scanning for the other nodes. 
+	 * Updates the host's energy model and removes the host from the
+	 * simulation if it has run out of energy or has failed.
 	 */
-	protected void reduceSendingAndScanningEnergy() {
-		double simTime = SimClock.getTime();
+	protected void updateEnergy() {
 		if(this.isEnergyConstrained == 2){
 			if (this.comBus == null) {
 				this.comBus = getHost().getComBus();
-				this.comBus.addProperty(ENERGY_VALUE_ID, this.currentEnergy);
-				this.comBus.subscribe(ENERGY_VALUE_ID, this);
-			}
-			
-			if (this.currentEnergy <= 0) {
-				/* turn radio off */
-				this.comBus.updateProperty(NetworkInterface.RANGE_ID, 0.0);
-				return; /* no more energy to start new transfers */
-			}
-			
-			//int currentHostId = Integer.parseInt(getHost().toString().substring(1));
-			
-			//Address failed nodes
-			if (failedNodeList!= null && failedNodeList.contains(getHost().toString())){
-//				System.out.println("Here: Failed Node List: " + failedNodeList);
-				this.comBus.updateProperty(ENERGY_VALUE_ID, 0.0);
-				this.comBus.updateProperty(NetworkInterface.RANGE_ID, 0.0);
-				return; /* no more energy to start new transfers */
+				this.energy.init(getHost());
+				this.currentEnergy = this.energy.getEnergy();
+				this.comBus.subscribe(ENERGY_SLOT, this);
 			}
 			
-			//Transmission energy
-			if (getHost().toString().startsWith("n") 
-					&& simTime > this.lastUpdate && sendingConnections.size() > 0) {
-				// System.out.println("Node: " + getHost()+" Sending " + sendingConnections);
-				reduceEnergy((simTime - this.lastUpdate) * this.transmitEnergy);
-			}
-			
-			//Receiving energy
-			 if (getHost().toString().startsWith("n") 
-					 && simTime > this.lastUpdate && isReceiving() > 0) {
-         		//System.out.println("Node: " + getHost()+" Receiving " + sendingConnections);
-                	reduceEnergy((simTime - this.lastUpdate) * this.transmitEnergy);
-			 }
-			this.lastUpdate = simTime;
-		
-			//Scanning energy
-			if (getHost().toString().startsWith("n")  
-					&& simTime > this.lastScanUpdate + this.scanInterval) {
-				/* scanning at this update round */
-				reduceEnergy(this.scanEnergy);
-				this.lastScanUpdate = simTime;
+			if (this.energy.update(sendingConnections.size() > 0, 
+					isReceiving() > 0, failedNodeList)) {
+				deactivateHost(); /* out of energy or failed */
 			}
 		}
 	}
@@ -478,9 +370,8 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
 	@Override
 	public void update() {
 		super.update();
-		updateNeighborList();
 		failedNodeList();
-		reduceSendingAndScanningEnergy();
+		updateEnergy();
 		if (!canStartTransfer() ||isTransferring()) {
 			return; // nothing to transfer or is currently transferring 
 		}
@@ -493,28 +384,6 @@ public class BioDRNMaxPropRouter extends ActiveRouter {
 		tryOtherMessages();	
 	}
 	
-	//Update neighbor list based on time slot and failed nodes
-	protected void updateNeighborList() {
-		if (SimClock.getIntTime() >= this.lastSamplingUpdate) {
-			currentNodeNeighborList = neighborListReader.getNeighborList(getHost().toString(), SimClock.getIntTime());
-			this.lastSamplingUpdate += this.samplingInterval;
-			getHost().setNeighborList(currentNodeNeighborList);
-			
-			if (currentNodeNeighborList!= null && currentNodeNeighborList.size() > 0) {
-				getHost().setNeighborList(currentNodeNeighborList);
-			}
-			
-//					failedNodeList = failedNodeListReader.getFailedNodeList(SimClock.getIntTime());
-			
-			if(currentNodeNeighborList != null && getHost().toString().matches("n30")){
-				System.out.println("Current energy; "+ getHost().getComBus().getDouble(ENERGY_VALUE_ID, -1));
-				System.out.println("At time: " + SimClock.getIntTime() +" Neighorlist: ");
-				System.out.println("Node " + getHost().toString() +" : " + currentNodeNeighborList.toString());
-				//System.out.println("Failed node list: " + failedNodeList);
-			}
-		}	
-	}
-
 
 protected void failedNodeList() {
 	if (SimClock.getIntTime() >= this.lastFailedNodesSamplingUpdate) {
@@ -618,8 +487,8 @@ protected boolean shouldMessageBeSent(Connection con) {
 			for (Message m : msgCollection) {
 				/* skip messages that the other host has or that have
 				 * passed the other host */
-				if (othRouter.hasMessage(m.getId()) ||
-						m.getHops().contains(other)) {
+				if (othRouter.hasMessage(m.getIntId()) ||
+						m.hasPassed(other)) {
 					continue; 
 				}
 				messages.add(new Tuple<Message, Connection>(m,con));
@@ -746,7 +615,9 @@ protected boolean shouldMessageBeSent(Connection con) {
 			int hopc1 = msg1.getHopCount();
 			int hopc2 = msg2.getHopCount();
 
-			if (msg1 == msg2) {
+			/* the same message offered through different connections can
+			 * still have different costs */
+			if (msg1 == msg2 && from1 == from2) {
 				return 0;
 			}
 			
@@ -853,4 +724,8 @@ protected boolean shouldMessageBeSent(Connection con) {
 		// TODO Auto-generated method stub
 		
 	}
+
+	public void moduleDoubleChanged(int slot, double newValue) {
+		// the energy level is not tracked from the bus (as above)
+	}
 }
\ No newline at end of file
@@ -4,19 +4,18 @@
  */
 package routing;
 import input.FailedNodeListReader;
-import input.NeighborListReader;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 import core.*;
+import routing.util.EnergyModel;
 
 /**
  * Energy level-aware variant of Epidemic router.
  */
 public class BioDRNRouter extends ActiveRouter 
-		implements ModuleCommunicationListener{
+		implements ModuleCommunicationDoubleListener{
 	
 	//Newly added for Bio-DRN
 		/** Energy consumption **/
@@ -36,27 +35,19 @@ public class BioDRNRouter extends ActiveRouter
 		/** {@link ModuleCommunicationBus} identifier for the "current amount of 
 		 * energy left" variable. Value type: double */
 		public static final String ENERGY_VALUE_ID = "Energy.value";
+		/** slot of the energy value in the communication bus */
+		private static final int ENERGY_SLOT = 
+			ModuleCommunicationBus.getSlot(ENERGY_VALUE_ID);
 		public static final String IS_ENERGY_CONSTRAINED = "isEnergyConstrained";
 		
-		private final double[] initEnergy;
-		private double warmupTime;
 		private double currentEnergy;
-		/** energy usage per scan */
-		private double scanEnergy;
-		private double transmitEnergy;
-		private double lastScanUpdate;
-		private double lastUpdate;
-		private double scanInterval;	
+		/** energy model of the host */
+		private EnergyModel energy;
 		private int isEnergyConstrained = 2;
 		private ModuleCommunicationBus comBus;
-		private static Random rng = null;
 		
 		private double initTime;
-		private static NeighborListReader neighborListReader;
 		private static FailedNodeListReader failedNodeListReader;
-		private int samplingInterval = 600;
-		private int lastSamplingUpdate = 0;
-		private ArrayList<String >currentNodeNeighborList;
 		private ArrayList<String> failedNodeList;
 		private int lastCCID;
 		private int firstCD;
@@ -70,38 +61,11 @@ public class BioDRNRouter extends ActiveRouter
 	 */
 	public BioDRNRouter(Settings s) {
 		super(s);
-		this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
-		
-		if (this.initEnergy.length != 1 && this.initEnergy.length != 2) {
-			throw new SettingsError(INIT_ENERGY_S + " setting must have " + 
-					"either a single value or two comma separated values");
-		}
-		
-		this.scanEnergy = s.getDouble(SCAN_ENERGY_S);
-		this.transmitEnergy = s.getDouble(TRANSMIT_ENERGY_S);
-		this.scanInterval  = s.getDouble(SimScenario.SCAN_INTERVAL_S);
+		this.energy = new EnergyModel(s);
 		this.lastCCID = s.getInt("lastCCID");
 		this.firstCD = s.getInt("firstCD");
-		
-		if (s.contains(WARMUP_S)) {
-			this.warmupTime = s.getInt(WARMUP_S);
-			if (this.warmupTime == -1) {
-				this.warmupTime = new Settings(report.Report.REPORT_NS).
-					getInt(report.Report.WARMUP_S);
-			}
-		}
-		else {
-			this.warmupTime = 0;
-		}
 		this.isEnergyConstrained = s.getInt(IS_ENERGY_CONSTRAINED);
 		
-		this.samplingInterval = s.getInt("samplingInterval");
-		
-		if(s.contains("neighborListFile")){
-			String filePath = s.getSetting("neighborListFile");
-			neighborListReader = new NeighborListReader(filePath);
-		}
-		
 		if(s.contains("failedNodeListFile")){
 			String filePath = s.getSetting("failedNodeListFile");
 			failedNodeListReader = new FailedNodeListReader(filePath);
@@ -118,20 +82,11 @@ public class BioDRNRouter extends ActiveRouter
 	 */
 	protected BioDRNRouter(BioDRNRouter r) {
 		super(r);
-		this.initEnergy = r.initEnergy;
-		setEnergy(this.initEnergy);
-		this.scanEnergy = r.scanEnergy;
-		this.transmitEnergy = r.transmitEnergy;
-		this.scanInterval = r.scanInterval;
-		this.warmupTime  = r.warmupTime;
+		this.energy = r.energy.replicate();
 		this.comBus = null;
-		this.lastScanUpdate = r.lastScanUpdate;
-		this.lastUpdate = r.lastUpdate;
 		this.isEnergyConstrained = r.isEnergyConstrained;
 
 		this.initTime = r.initTime;
-		this.samplingInterval = r.samplingInterval;
-		this.lastSamplingUpdate = r.lastSamplingUpdate;
 		this.lastCCID = r.lastCCID;
 		this.firstCD = r.firstCD;
 		this.failedNodesSamplingInterval = r.failedNodesSamplingInterval;
@@ -139,92 +94,21 @@ public class BioDRNRouter extends ActiveRouter
 	
 	
 	/**
-	 * Sets the current energy level into the given range using uniform 
-	 * random distribution.
-	 * @param range The min and max values of the range, or if only one value
-	 * is given, that is used as the energy level
-	 */
-	protected void setEnergy(double range[]) {
-		if (range.length == 1) {
-			this.currentEnergy = range[0];
-		}
-		else {
-			if (rng == null) {
-				rng = new Random((int)(range[0] + range[1]));
-			}
-			this.currentEnergy = range[0] + 
-				rng.nextDouble() * (range[1] - range[0]);
-		}
-	}
-	
-	/**
-	 * Updates the current energy so that the given amount is reduced from it.
-	 * If the energy level goes below zero, sets the level to zero.
-	 * Does nothing if the warmup time has not passed.
-	 * @param amount The amount of energy to reduce
-	 */
-	protected void reduceEnergy(double amount) {
-		if (SimClock.getTime() < this.warmupTime) {
-			return;
-		}
-		
-		comBus.updateDouble(ENERGY_VALUE_ID, -amount);
-		if (this.currentEnergy < 0) {
-			comBus.updateProperty(ENERGY_VALUE_ID, 0.0);
-		}
-	}
-	
-
-	/**
-	 * Reduces the energy reserve for the amount that is used by sending data
-	 * and scanning for the other nodes. 
+	 * Updates the host's energy model and removes the host from the
+	 * simulation if it has run out of energy or has failed.
 	 */
-	protected void reduceSendingAndScanningEnergy() {
-		double simTime = SimClock.getTime();
+	protected void updateEnergy() {
 		if(this.isEnergyConstrained == 2){
 			if (this.comBus == null) {
 				this.comBus = getHost().getComBus();
-				this.comBus.addProperty(ENERGY_VALUE_ID, this.currentEnergy);
-				this.comBus.subscribe(ENERGY_VALUE_ID, this);
+				this.energy.init(getHost());
+				this.currentEnergy = this.energy.getEnergy();
+				this.comBus.subscribe(ENERGY_SLOT, this);
 			}
 			
-			if (this.currentEnergy <= 0) {
-				/* turn radio off */
-				this.comBus.updateProperty(NetworkInterface.RANGE_ID, 0.0);
-				return; /* no more energy to start new transfers */
-			}
-			
-			//int currentHostId = Integer.parseInt(getHost().toString().substring(1));
-			
-			//Address failed nodes
-			if (failedNodeList!= null && failedNodeList.contains(getHost().toString())){
-//				System.out.println("Here: Failed Node List: " + failedNodeList);
-				this.comBus.updateProperty(ENERGY_VALUE_ID, 0.0);
-				this.comBus.updateProperty(NetworkInterface.RANGE_ID, 0.0);
-				return; /* no more energy to start new transfers */
-			}
-			
-			//Transmission energy
-			if (getHost().toString().startsWith("n") 
-					&& simTime > this.lastUpdate && sendingConnections.size() > 0) {
-				// System.out.println("Node: " + getHost()+" Sending " + sendingConnections);
-				reduceEnergy((simTime - this.lastUpdate) * this.transmitEnergy);
-			}
-			
-			//Receiving energy
-			 if (getHost().toString().startsWith("n") 
-					 && simTime > this.lastUpdate && isReceiving() > 0) {
-         		//System.out.println("Node: " + getHost()+" Receiving " + sendingConnections);
-                	reduceEnergy((simTime - this.lastUpdate) * this.transmitEnergy);
-			 }
-			this.lastUpdate = simTime;
-		
-			//Scanning energy
-			if (getHost().toString().startsWith("n")  
-					&& simTime > this.lastScanUpdate + this.scanInterval) {
-				/* scanning at this update round */
-				reduceEnergy(this.scanEnergy);
-				this.lastScanUpdate = simTime;
+			if (this.energy.update(sendingConnections.size() > 0, 
+					isReceiving() > 0, failedNodeList)) {
+				deactivateHost(); /* out of energy or failed */
 			}
 		}
 	}
@@ -277,9 +161,8 @@ public class BioDRNRouter extends ActiveRouter
 	@Override
 	public void update() {
 		super.update();
-		updateNeighborList();
 		failedNodeList();
-		reduceSendingAndScanningEnergy();
+		updateEnergy();
 		
 		if (isTransferring() || !canStartTransfer()) {
 			return; // transferring, don't try other connections yet
@@ -293,25 +176,6 @@ public class BioDRNRouter extends ActiveRouter
 		this.tryAllMessagesToAllConnections();
 	}
 	
-	//Update neighbor list based on time slot and failed nodes
-	protected void updateNeighborList() {
-		if (SimClock.getIntTime() >= this.lastSamplingUpdate ) {
-			currentNodeNeighborList = neighborListReader.getNeighborList(getHost().toString(), SimClock.getIntTime());
-			this.lastSamplingUpdate += this.samplingInterval;
-			
-			if (currentNodeNeighborList!= null && currentNodeNeighborList.size() > 0) {
-				getHost().setNeighborList(currentNodeNeighborList);
-			}
-			
-			if(currentNodeNeighborList != null && getHost().toString().matches("n30")){
-				System.out.println("Current energy; "+ getHost().getComBus().getDouble(ENERGY_VALUE_ID, -1));
-				System.out.println("At time: " + SimClock.getIntTime() +" Neighorlist: ");
-				System.out.println("Node " + getHost().toString() +" : " + currentNodeNeighborList.toString());
-				//System.out.println("Failed node list: " + failedNodeList);
-			}
-		}	
-	}
-	
 	protected void failedNodeList() {
 		if (SimClock.getIntTime() >= this.lastFailedNodesSamplingUpdate) {
 			this.lastFailedNodesSamplingUpdate += this.failedNodesSamplingInterval;
@@ -329,8 +193,11 @@ public class BioDRNRouter extends ActiveRouter
 
 	@Override
 	public void moduleValueChanged(String key, Object newValue) {
-		this.currentEnergy = (Double) newValue;
-		
+		moduleDoubleChanged(ENERGY_SLOT, (Double)newValue);
+	}
+
+	public void moduleDoubleChanged(int slot, double newValue) {
+		this.currentEnergy = newValue;
 	}
 
 }
\ No newline at end of file
@@ -5,21 +5,20 @@
 package routing;
 
 import input.FailedNodeListReader;
-import input.NeighborListReader;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 import core.Connection;
 import core.DTNHost;
 import core.Message;
 import core.ModuleCommunicationBus;
+import core.ModuleCommunicationDoubleListener;
 import core.NetworkInterface;
 import core.Settings;
-import core.SettingsError;
 import core.SimClock;
-import core.SimScenario;
+
+import routing.util.EnergyModel;
 
 /**
  * Implementation of Spray and wait router as depicted in 
@@ -27,7 +26,8 @@ import core.SimScenario;
  * Connected Mobile Networks</I> by Thrasyvoulos Spyropoulus et al.
  *
  */
-public class BioDRNSnWRouter extends ActiveRouter {
+public class BioDRNSnWRouter extends ActiveRouter 
+		implements ModuleCommunicationDoubleListener {
 	/** identifier for the initial number of copies setting ({@value})*/ 
 	public static final String NROF_COPIES = "nrofCopies";
 	/** identifier for the binary-mode setting ({@value})*/ 
@@ -37,6 +37,9 @@ public class BioDRNSnWRouter extends ActiveRouter {
 	/** Message property key */
 	public static final String MSG_COUNT_PROPERTY = SPRAYANDWAIT_NS + "." +
 		"copies";
+	/** Integer property slot of the message property */
+	protected static final int MSG_COUNT_SLOT =
+		Message.getIntSlot(MSG_COUNT_PROPERTY);
 	
 	protected int initialNrofCopies;
 	protected boolean isBinary;
@@ -59,27 +62,19 @@ public class BioDRNSnWRouter extends ActiveRouter {
 		/** {@link ModuleCommunicationBus} identifier for the "current amount of 
 		 * energy left" variable. Value type: double */
 		public static final String ENERGY_VALUE_ID = "Energy.value";
+		/** slot of the energy value in the communication bus */
+		private static final int ENERGY_SLOT = 
+			ModuleCommunicationBus.getSlot(ENERGY_VALUE_ID);
 		public static final String IS_ENERGY_CONSTRAINED = "isEnergyConstrained";
 		
-		private final double[] initEnergy;
-		private double warmupTime;
 		private double currentEnergy;
-		/** energy usage per scan */
-		private double scanEnergy;
-		private double transmitEnergy;
-		private double lastScanUpdate;
-		private double lastUpdate;
-		private double scanInterval;	
+		/** energy model of the host */
+		private EnergyModel energy;
 		private int isEnergyConstrained = 2;
 		private ModuleCommunicationBus comBus;
-		private static Random rng = null;
 		
 		private double initTime;
-		private static NeighborListReader neighborListReader;
 		private static FailedNodeListReader failedNodeListReader;
-		private double samplingInterval = 600;
-		private double lastSamplingUpdate = 0;
-		private ArrayList<String >currentNodeNeighborList;
 		private ArrayList<String> failedNodeList;
 		private int lastCCID;
 		private int firstCD;
@@ -92,37 +87,10 @@ public class BioDRNSnWRouter extends ActiveRouter {
 		
 		initialNrofCopies = snwSettings.getInt(NROF_COPIES);
 		isBinary = snwSettings.getBoolean( BINARY_MODE);
-this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
-		
-		if (this.initEnergy.length != 1 && this.initEnergy.length != 2) {
-			throw new SettingsError(INIT_ENERGY_S + " setting must have " + 
-					"either a single value or two comma separated values");
-		}
-		
-		this.scanEnergy = s.getDouble(SCAN_ENERGY_S);
-		this.transmitEnergy = s.getDouble(TRANSMIT_ENERGY_S);
-		this.scanInterval  = s.getDouble(SimScenario.SCAN_INTERVAL_S);
+		this.energy = new EnergyModel(s);
 		this.lastCCID = s.getInt("lastCCID");
-		
-		if (s.contains(WARMUP_S)) {
-			this.warmupTime = s.getInt(WARMUP_S);
-			if (this.warmupTime == -1) {
-				this.warmupTime = new Settings(report.Report.REPORT_NS).
-					getInt(report.Report.WARMUP_S);
-			}
-		}
-		else {
-			this.warmupTime = 0;
-		}
 		this.isEnergyConstrained = s.getInt(IS_ENERGY_CONSTRAINED);
 		
-		this.samplingInterval = s.getInt("samplingInterval");
-		
-		if(s.contains("neighborListFile")){
-			String filePath = s.getSetting("neighborListFile");
-			neighborListReader = new NeighborListReader(filePath);
-		}
-		
 		if(s.contains("failedNodeListFile")){
 			String filePath = s.getSetting("failedNodeListFile");
 			failedNodeListReader = new FailedNodeListReader(filePath);
@@ -141,112 +109,32 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 		super(r);
 		this.initialNrofCopies = r.initialNrofCopies;
 		this.isBinary = r.isBinary;
-		this.initEnergy = r.initEnergy;
-		setEnergy(this.initEnergy);
-		this.scanEnergy = r.scanEnergy;
-		this.transmitEnergy = r.transmitEnergy;
-		this.scanInterval = r.scanInterval;
-		this.warmupTime  = r.warmupTime;
+		this.energy = r.energy.replicate();
 		this.comBus = null;
-		this.lastScanUpdate = r.lastScanUpdate;
-		this.lastUpdate = r.lastUpdate;
 		this.isEnergyConstrained = r.isEnergyConstrained;
 
 		this.initTime = r.initTime;
-		this.samplingInterval = r.samplingInterval;
-		this.lastSamplingUpdate = r.lastSamplingUpdate;
 		this.lastCCID = r.lastCCID;
 		this.firstCD = r.firstCD;
 		this.failedNodesSamplingInterval = r.failedNodesSamplingInterval;
 	}
 	
 	/**
-	 * Sets the current energy level into the given range using uniform 
-	 * random distribution.
-	 * @param range The min and max values of the range, or if only one value
-	 * is given, that is used as the energy level
-	 */
-	protected void setEnergy(double range[]) {
-		if (range.length == 1) {
-			this.currentEnergy = range[0];
-		}
-		else {
-			if (rng == null) {
-				rng = new Random((int)(range[0] + range[1]));
-			}
-			this.currentEnergy = range[0] + 
-				rng.nextDouble() * (range[1] - range[0]);
-		}
-	}
-	
-	/**
-	 * Updates the current energy so that the given amount is reduced from it.
-	 * If the energy level goes below zero, sets the level to zero.
-	 * Does nothing if the warmup time has not passed.
-	 * @param amount The amount of energy to reduce
-	 */
-	protected void reduceEnergy(double amount) {
-		if (SimClock.getTime() < this.warmupTime) {
-			return;
-		}
-		
-		comBus.updateDouble(ENERGY_VALUE_ID, -amount);
-		if (this.currentEnergy < 0) {
-			comBus.updateProperty(ENERGY_VALUE_ID, 0.0);
-		}
-	}
-	
-
-	/**
-	 * Reduces the energy reserve for the amount that is used by sending data
-	 * and scanning for the other nodes. 
+	 * Updates the host's energy model and removes the host from the
+	 * simulation if it has run out of energy or has failed.
 	 */
-	protected void reduceSendingAndScanningEnergy() {
-		double simTime = SimClock.getTime();
+	protected void updateEnergy() {
 		if(this.isEnergyConstrained == 2){
 			if (this.comBus == null) {
 				this.comBus = getHost().getComBus();
-				this.comBus.addProperty(ENERGY_VALUE_ID, this.currentEnergy);
-				this.comBus.subscribe(ENERGY_VALUE_ID, this);
-			}
-			
-			if (this.currentEnergy <= 0) {
-				/* turn radio off */
-				this.comBus.updateProperty(NetworkInterface.RANGE_ID, 0.0);
-				return; /* no more energy to start new transfers */
-			}
-			
-			//int currentHostId = Integer.parseInt(getHost().toString().substring(1));
-			
-			//Address failed nodes
-			if (failedNodeList!= null && failedNodeList.contains(getHost().toString())){
-//				System.out.println("Here: Failed Node List: " + failedNodeList);
-				this.comBus.updateProperty(ENERGY_VALUE_ID, 0.0);
-				this.comBus.updateProperty(NetworkInterface.RANGE_ID, 0.0);
-				return; /* no more energy to start new transfers */
-			}
-			
-			//Transmission energy
-			if (getHost().toString().startsWith("n") 
-					&& simTime > this.lastUpdate && sendingConnections.size() > 0) {
-				// System.out.println("Node: " + getHost()+" Sending " + sendingConnections);
-				reduceEnergy((simTime - this.lastUpdate) * this.transmitEnergy);
+				this.energy.init(getHost());
+				this.currentEnergy = this.energy.getEnergy();
+				this.comBus.subscribe(ENERGY_SLOT, this);
 			}
 			
-			//Receiving energy
-			 if (getHost().toString().startsWith("n") 
-					 && simTime > this.lastUpdate && isReceiving() > 0) {
-         		//System.out.println("Node: " + getHost()+" Receiving " + sendingConnections);
-                	reduceEnergy((simTime - this.lastUpdate) * this.transmitEnergy);
-			 }
-			this.lastUpdate = simTime;
-		
-			//Scanning energy
-			if (getHost().toString().startsWith("n")  
-					&& simTime > this.lastScanUpdate + this.scanInterval) {
-				/* scanning at this update round */
-				reduceEnergy(this.scanEnergy);
-				this.lastScanUpdate = simTime;
+			if (this.energy.update(sendingConnections.size() > 0, 
+					isReceiving() > 0, failedNodeList)) {
+				deactivateHost(); /* out of energy or failed */
 			}
 		}
 	}
@@ -259,9 +147,8 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 	@Override
 	public Message messageTransferred(String id, DTNHost from) {
 		Message msg = super.messageTransferred(id, from);
-		Integer nrofCopies = (Integer)msg.getProperty(MSG_COUNT_PROPERTY);
-		
-		assert nrofCopies != null : "Not a SnW message: " + msg;
+		assert msg.hasIntProperty(MSG_COUNT_SLOT) : "Not a SnW message: " + msg;
+		int nrofCopies = msg.getIntProperty(MSG_COUNT_SLOT, 0);
 		
 		if (isBinary) {
 			/* in binary S'n'W the receiving node gets ceil(n/2) copies */
@@ -272,7 +159,7 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 			nrofCopies = 1;
 		}
 		
-		msg.updateProperty(MSG_COUNT_PROPERTY, nrofCopies);
+		msg.updateIntProperty(MSG_COUNT_SLOT, nrofCopies);
 		return msg;
 	}
 	
@@ -281,7 +168,7 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 		makeRoomForNewMessage(msg.getSize());
 
 		msg.setTtl(this.msgTtl);
-		msg.addProperty(MSG_COUNT_PROPERTY, new Integer(initialNrofCopies));
+		msg.addIntProperty(MSG_COUNT_SLOT, initialNrofCopies);
 		addToMessages(msg, true);
 		return true;
 	}
@@ -334,9 +221,8 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 	@Override
 	public void update() {
 		super.update();
-		updateNeighborList();
 		failedNodeList();
-		reduceSendingAndScanningEnergy();
+		updateEnergy();
 		if (!canStartTransfer() || isTransferring()) {
 			return; // nothing to transfer or is currently transferring 
 		}
@@ -356,28 +242,6 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 		}
 	}
 	
-	//Update neighbor list based on time slot and failed nodes
-	protected void updateNeighborList() {
-		if (SimClock.getIntTime() >= this.lastSamplingUpdate) {
-			currentNodeNeighborList = neighborListReader.getNeighborList(getHost().toString(), SimClock.getIntTime());
-			this.lastSamplingUpdate += this.samplingInterval;
-			getHost().setNeighborList(currentNodeNeighborList);
-			
-			if (currentNodeNeighborList!= null && currentNodeNeighborList.size() > 0) {
-				getHost().setNeighborList(currentNodeNeighborList);
-			}
-			
-//			failedNodeList = failedNodeListReader.getFailedNodeList(SimClock.getIntTime());
-			
-			if(currentNodeNeighborList != null && getHost().toString().matches("n30")){
-				System.out.println("Current energy; "+ getHost().getComBus().getDouble(ENERGY_VALUE_ID, -1));
-				System.out.println("At time: " + SimClock.getIntTime() +" Neighorlist: ");
-				System.out.println("Node " + getHost().toString() +" : " + currentNodeNeighborList.toString());
-				//System.out.println("Failed node list: " + failedNodeList);
-			}
-		}	
-	}
-	
 	protected void failedNodeList() {
 		if (SimClock.getIntTime() >= this.lastFailedNodesSamplingUpdate) {
 			this.lastFailedNodesSamplingUpdate += this.failedNodesSamplingInterval;
@@ -397,10 +261,9 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 		List<Message> list = new ArrayList<Message>();
 
 		for (Message m : getMessageCollection()) {
-			Integer nrofCopies = (Integer)m.getProperty(MSG_COUNT_PROPERTY);
-			assert nrofCopies != null : "SnW message " + m + " didn't have " + 
-				"nrof copies property!";
-			if (nrofCopies > 1) {
+			assert m.hasIntProperty(MSG_COUNT_SLOT) : "SnW message " + m + 
+				" didn't have nrof copies property!";
+			if (m.getIntProperty(MSG_COUNT_SLOT, 0) > 1) {
 				list.add(m);
 			}
 		}
@@ -417,7 +280,7 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 	 */
 	@Override
 	protected void transferDone(Connection con) {
-		Integer nrofCopies;
+		int nrofCopies;
 		String msgId = con.getMessage().getId();
 		/* get this router's copy of the message */
 		Message msg = getMessage(msgId);
@@ -427,14 +290,14 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 		}
 		
 		/* reduce the amount of copies left */
-		nrofCopies = (Integer)msg.getProperty(MSG_COUNT_PROPERTY);
+		nrofCopies = msg.getIntProperty(MSG_COUNT_SLOT, 0);
 		if (isBinary) { 
 			nrofCopies /= 2;
 		}
 		else {
 			nrofCopies--;
 		}
-		msg.updateProperty(MSG_COUNT_PROPERTY, nrofCopies);
+		msg.updateIntProperty(MSG_COUNT_SLOT, nrofCopies);
 	}
 	
 	@Override
@@ -444,6 +307,10 @@ this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
 
 	@Override
 	public void moduleValueChanged(String key, Object newValue) {
-		this.currentEnergy = (Double) newValue;	
+		moduleDoubleChanged(ENERGY_SLOT, (Double)newValue);
+	}
+
+	public void moduleDoubleChanged(int slot, double newValue) {
+		this.currentEnergy = newValue;
 	}
 }
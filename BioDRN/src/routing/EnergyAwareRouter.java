@@ -11,7 +11,7 @@ import core.*;
  * Energy level-aware variant of Epidemic router.
  */
 public class EnergyAwareRouter extends ActiveRouter 
-		implements ModuleCommunicationListener{
+		implements ModuleCommunicationDoubleListener{
 	/** Initial units of energy -setting id ({@value}). Can be either a 
 	 * single value, or a range of two values. In the latter case, the used
 	 * value is a uniformly distributed random value between the two values. */
@@ -31,6 +31,9 @@ public class EnergyAwareRouter extends ActiveRouter
 	/** {@link ModuleCommunicationBus} identifier for the "current amount of 
 	 * energy left" variable. Value type: double */
 	public static final String ENERGY_VALUE_ID = "Energy.value";
+	/** slot of the energy value in the communication bus */
+	private static final int ENERGY_SLOT = 
+		ModuleCommunicationBus.getSlot(ENERGY_VALUE_ID);
 	
 	private final double[] initEnergy;
 	private double warmupTime;
@@ -131,9 +134,9 @@ public class EnergyAwareRouter extends ActiveRouter
 			return;
 		}
 		
-		comBus.updateDouble(ENERGY_VALUE_ID, -amount);
+		comBus.updateDouble(ENERGY_SLOT, -amount);
 		if (this.currentEnergy < 0) {
-			comBus.updateProperty(ENERGY_VALUE_ID, 0.0);
+			comBus.setDouble(ENERGY_SLOT, 0.0);
 		}
 	}
 	
@@ -146,13 +149,13 @@ public class EnergyAwareRouter extends ActiveRouter
 		
 		if (this.comBus == null) {
 			this.comBus = getHost().getComBus();
-			this.comBus.addProperty(ENERGY_VALUE_ID, this.currentEnergy);
-			this.comBus.subscribe(ENERGY_VALUE_ID, this);
+			this.comBus.addProperty(ENERGY_SLOT, this.currentEnergy);
+			this.comBus.subscribe(ENERGY_SLOT, this);
 		}
 		
 		if (this.currentEnergy <= 0) {
 			/* turn radio off */
-			this.comBus.updateProperty(NetworkInterface.RANGE_ID, 0.0);
+			this.comBus.setDouble(NetworkInterface.RANGE_SLOT, 0.0);
 			return; /* no more energy to start new transfers */
 		}
 		
@@ -200,6 +203,15 @@ public class EnergyAwareRouter extends ActiveRouter
 		this.currentEnergy = (Double)newValue;
 	}
 
+	/**
+	 * Called by the combus is the energy value is changed
+	 * @param slot The slot of the energy ID
+	 * @param newValue The new energy value
+	 */
+	public void moduleDoubleChanged(int slot, double newValue) {
+		this.currentEnergy = newValue;
+	}
+
 	
 	@Override
 	public String toString() {
@@ -5,6 +5,7 @@
 package routing;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -52,8 +53,9 @@ public class MaxPropRouter extends ActiveRouter {
 	private Map<Integer, MeetingProbabilitySet> allProbs;
 	/** the cost-to-node calculator */
 	private MaxPropDijkstra dijkstra;	
-	/** IDs of the messages that are known to have reached the final dst */
-	private Set<String> ackedMessageIds;
+	/** int IDs of the messages that are known to have reached the final dst
+	 * (see {@link Message#getIntId()}) */
+	private BitSet ackedMessageIds;
 	/** mapping of the current costs for all messages. This should be set to
 	 * null always when the costs should be updated (a host is met or a new
 	 * message is received) */
@@ -111,7 +113,7 @@ public class MaxPropRouter extends ActiveRouter {
 		this.probs = new MeetingProbabilitySet(probSetMaxSize, this.alpha);
 		this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
 		this.dijkstra = new MaxPropDijkstra(this.allProbs);
-		this.ackedMessageIds = new HashSet<String>();
+		this.ackedMessageIds = new BitSet();
 		this.avgSamples = new int[BYTES_TRANSFERRED_AVG_SAMPLES];
 	}	
 
@@ -132,8 +134,8 @@ public class MaxPropRouter extends ActiveRouter {
 				MaxPropRouter otherRouter = (MaxPropRouter)mRouter;
 				
 				/* exchange ACKed message data */
-				this.ackedMessageIds.addAll(otherRouter.ackedMessageIds);
-				otherRouter.ackedMessageIds.addAll(this.ackedMessageIds);
+				this.ackedMessageIds.or(otherRouter.ackedMessageIds);
+				otherRouter.ackedMessageIds.or(this.ackedMessageIds);
 				deleteAckedMessages();
 				otherRouter.deleteAckedMessages();
 				
@@ -176,8 +178,13 @@ public class MaxPropRouter extends ActiveRouter {
 	 * Deletes the messages from the message buffer that are known to be ACKed
 	 */
 	private void deleteAckedMessages() {
-		for (String id : this.ackedMessageIds) {
-			if (this.hasMessage(id) && !isSending(id)) {
+		for (int i = ackedMessageIds.nextSetBit(0); i >= 0;
+				i = ackedMessageIds.nextSetBit(i + 1)) {
+			if (!this.hasMessage(i)) {
+				continue;
+			}
+			String id = Message.getIdString(i);
+			if (!isSending(id)) {
 				this.deleteMessage(id, false);
 			}
 		}
@@ -189,7 +196,7 @@ public class MaxPropRouter extends ActiveRouter {
 		Message m = super.messageTransferred(id, from);
 		/* was this node the final recipient of the message? */
 		if (isDeliveredMessage(m)) {
-			this.ackedMessageIds.add(id);
+			this.ackedMessageIds.set(Message.lookupIntId(id));
 		}
 		return m;
 	}
@@ -205,7 +212,7 @@ public class MaxPropRouter extends ActiveRouter {
 		Message m = con.getMessage();
 		/* was the message delivered to the final recipient? */
 		if (m.getTo() == con.getOtherNode(getHost())) { 
-			this.ackedMessageIds.add(m.getId()); // yes, add to ACKed messages
+			this.ackedMessageIds.set(m.getIntId()); // yes, add to ACKed messages
 			this.deleteMessage(m.getId(), false); // delete from buffer
 		}
 	}
@@ -343,8 +350,8 @@ public class MaxPropRouter extends ActiveRouter {
 			for (Message m : msgCollection) {
 				/* skip messages that the other host has or that have
 				 * passed the other host */
-				if (othRouter.hasMessage(m.getId()) ||
-						m.getHops().contains(other)) {
+				if (othRouter.hasMessage(m.getIntId()) ||
+						m.hasPassed(other)) {
 					continue; 
 				}
 				messages.add(new Tuple<Message, Connection>(m,con));
@@ -471,7 +478,9 @@ public class MaxPropRouter extends ActiveRouter {
 			int hopc1 = msg1.getHopCount();
 			int hopc2 = msg2.getHopCount();
 
-			if (msg1 == msg2) {
+			/* the same message offered through different connections can
+			 * still have different costs */
+			if (msg1 == msg2 && from1 == from2) {
 				return 0;
 			}
 			
@@ -5,6 +5,7 @@
 package routing;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -50,8 +51,9 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 	private Map<Integer, MeetingProbabilitySet> allProbs;
 	/** the cost-to-node calculator */
 	private MaxPropDijkstra dijkstra;	
-	/** IDs of the messages that are known to have reached the final dst */
-	private Set<String> ackedMessageIds;
+	/** int IDs of the messages that are known to have reached the final dst
+	 * (see {@link Message#getIntId()}) */
+	private BitSet ackedMessageIds;
 	/** mapping of the current costs for all messages. This should be set to
 	 * null always when the costs should be updated (a host is met or a new
 	 * message is received) */
@@ -121,7 +123,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 				MeetingProbabilitySet.INFINITE_SET_SIZE, this.alpha);
 		this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
 		this.dijkstra = new MaxPropDijkstra(this.allProbs);
-		this.ackedMessageIds = new HashSet<String>();
+		this.ackedMessageIds = new BitSet();
 		this.avgSamples = new int[BYTES_TRANSFERRED_AVG_SAMPLES];
 		initMeetings();
 	}	
@@ -164,8 +166,8 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 				}
 				
 				/* exchange ACKed message data */
-				this.ackedMessageIds.addAll(otherRouter.ackedMessageIds);
-				otherRouter.ackedMessageIds.addAll(this.ackedMessageIds);
+				this.ackedMessageIds.or(otherRouter.ackedMessageIds);
+				otherRouter.ackedMessageIds.or(this.ackedMessageIds);
 				deleteAckedMessages();
 				otherRouter.deleteAckedMessages();
 				
@@ -320,8 +322,13 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 	 * Deletes the messages from the message buffer that are known to be ACKed
 	 */
 	private void deleteAckedMessages() {
-		for (String id : this.ackedMessageIds) {
-			if (this.hasMessage(id) && !isSending(id)) {
+		for (int i = ackedMessageIds.nextSetBit(0); i >= 0;
+				i = ackedMessageIds.nextSetBit(i + 1)) {
+			if (!this.hasMessage(i)) {
+				continue;
+			}
+			String id = Message.getIdString(i);
+			if (!isSending(id)) {
 				this.deleteMessage(id, false);
 			}
 		}
@@ -333,7 +340,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 		Message m = super.messageTransferred(id, from);
 		/* was this node the final recipient of the message? */
 		if (isDeliveredMessage(m)) {
-			this.ackedMessageIds.add(id);
+			this.ackedMessageIds.set(Message.lookupIntId(id));
 		}
 		return m;
 	}
@@ -349,7 +356,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 		Message m = con.getMessage();
 		/* was the message delivered to the final recipient? */
 		if (m.getTo() == con.getOtherNode(getHost())) { 
-			this.ackedMessageIds.add(m.getId()); // yes, add to ACKed messages
+			this.ackedMessageIds.set(m.getIntId()); // yes, add to ACKed messages
 			this.deleteMessage(m.getId(), false); // delete from buffer
 		}
 	}
@@ -486,8 +493,8 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 			for (Message m : msgCollection) {
 				/* skip messages that the other host has or that have
 				 * passed the other host */
-				if (othRouter.hasMessage(m.getId()) ||
-						m.getHops().contains(other)) {
+				if (othRouter.hasMessage(m.getIntId()) ||
+						m.hasPassed(other)) {
 					continue; 
 				}
 				messages.add(new Tuple<Message, Connection>(m,con));
@@ -611,7 +618,9 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 			int hopc1 = msg1.getHopCount();
 			int hopc2 = msg2.getHopCount();
 
-			if (msg1 == msg2) {
+			/* the same message offered through different connections can
+			 * still have different costs */
+			if (msg1 == msg2 && from1 == from2) {
 				return 0;
 			}
 			
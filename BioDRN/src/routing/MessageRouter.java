@@ -15,6 +15,7 @@ import java.util.Random;
 import core.Application;
 import core.Connection;
 import core.DTNHost;
+import core.IntHashMap;
 import core.Message;
 import core.MessageListener;
 import core.Settings;
@@ -66,12 +67,16 @@ public abstract class MessageRouter {
 	public static final int DENIED_UNSPECIFIED = -999;
 	
 	private List<MessageListener> mListeners;
-	/** The messages being transferred with msgID_hostName keys */
-	protected HashMap<String, Message> incomingMessages;
-	/** The messages this router is carrying */
-	private HashMap<String, Message> messages; 
-	/** The messages this router has received as the final recipient */
-	private HashMap<String, Message> deliveredMessages;
+	/** The messages being transferred, by message int ID and by the 
+	 * sender's address */
+	private IntHashMap<IntHashMap<Message>> incomingMessages;
+	/** number of the messages being transferred */
+	private int nrofIncoming;
+	/** The messages this router is carrying, by int ID */
+	private IntHashMap<Message> messages; 
+	/** The messages this router has received as the final recipient,
+	 * by int ID */
+	private IntHashMap<Message> deliveredMessages;
 	/** Host where this router belongs to */
 	private DTNHost host;
 	/** size of the buffer */
@@ -122,9 +127,10 @@ public abstract class MessageRouter {
 	 * @param mListeners The message listeners
 	 */
 	public void init(DTNHost host, List<MessageListener> mListeners) {
-		this.incomingMessages = new HashMap<String, Message>();
-		this.messages = new HashMap<String, Message>();
-		this.deliveredMessages = new HashMap<String, Message>();
+		this.incomingMessages = new IntHashMap<IntHashMap<Message>>();
+		this.nrofIncoming = 0;
+		this.messages = new IntHashMap<Message>();
+		this.deliveredMessages = new IntHashMap<Message>();
 		this.mListeners = mListeners;
 		this.host = host;
 	}
@@ -159,6 +165,17 @@ public abstract class MessageRouter {
 		}
 	}
 	
+	/**
+	 * Updates the router of a deactivated host instead of {@link #update()}.
+	 * Routers that drop expired messages should drop them here the same 
+	 * way as in update.
+	 * @return True if the router still has messages that can expire
+	 * @see core.World#deactivateHost(DTNHost)
+	 */
+	public boolean updateDeactivated() {
+		return false;
+	}
+	
 	/**
 	 * Informs the router about change in connections state.
 	 * @param con The connection that changed
@@ -171,7 +188,16 @@ public abstract class MessageRouter {
 	 * @return The message
 	 */
 	protected Message getMessage(String id) {
-		return this.messages.get(id);
+		return getMessage(Message.lookupIntId(id));
+	}
+	
+	/**
+	 * Returns a message by int ID.
+	 * @param intId Int ID of the message (see {@link Message#getIntId()})
+	 * @return The message or null if the router doesn't have it
+	 */
+	protected Message getMessage(int intId) {
+		return this.messages.get(intId);
 	}
 	
 	/**
@@ -180,7 +206,16 @@ public abstract class MessageRouter {
 	 * @return True if the router has message with this id, false if not
 	 */
 	protected boolean hasMessage(String id) {
-		return this.messages.containsKey(id);
+		return hasMessage(Message.lookupIntId(id));
+	}
+	
+	/**
+	 * Checks if this router has a message with certain int ID buffered.
+	 * @param intId Int ID of the message (see {@link Message#getIntId()})
+	 * @return True if the router has message with this id, false if not
+	 */
+	protected boolean hasMessage(int intId) {
+		return this.messages.containsKey(intId);
 	}
 	
 	/**
@@ -192,7 +227,7 @@ public abstract class MessageRouter {
 	 * this host as the final recipient.
 	 */
 	protected boolean isDeliveredMessage(Message m) {
-		return (this.deliveredMessages.containsKey(m.getId()));
+		return (this.deliveredMessages.containsKey(m.getIntId()));
 	}
 	
 	/**
@@ -259,12 +294,10 @@ public abstract class MessageRouter {
 	 */
 	public void sendMessage(String id, DTNHost to) {
 		Message m = getMessage(id);
-		Message m2;
 		if (m == null) throw new SimError("no message for id " +
 				id + " to send at " + this.host);
  
-		m2 = m.replicate();	// send a replicate of the message
-		to.receiveMessage(m2, this.host);
+		to.receiveMessage(m, this.host); // receiver replicates the message
 	}
 	
 	/**
@@ -278,8 +311,9 @@ public abstract class MessageRouter {
 	}
 	
 	/**
-	 * Try to start receiving a message from another host.
-	 * @param m Message to put in the receiving buffer
+	 * Try to start receiving a message from another host. A replicate of
+	 * the message is put in the receiving buffer if the message is accepted.
+	 * @param m The sender's copy of the message (must not be modified)
 	 * @param from Who the message is from
 	 * @return Value zero if the node accepted the message (RCV_OK), value less
 	 * than zero if node rejected the message (e.g. DENIED_OLD), value bigger
@@ -341,7 +375,7 @@ public abstract class MessageRouter {
 			addToMessages(aMessage, false);
 		}
 		else if (isFirstDelivery) {
-			this.deliveredMessages.put(id, aMessage);
+			this.deliveredMessages.put(incoming.getIntId(), aMessage);
 		}
 		
 		for (MessageListener ml : this.mListeners) {
@@ -359,7 +393,15 @@ public abstract class MessageRouter {
 	 * @param from Who the message was from (previous hop).
 	 */
 	protected void putToIncomingBuffer(Message m, DTNHost from) {
-		this.incomingMessages.put(m.getId() + "_" + from.toString(), m);
+		IntHashMap<Message> senders = this.incomingMessages.get(m.getIntId());
+		if (senders == null) {
+			/* usually only one host sends the same message at a time */
+			senders = new IntHashMap<Message>(2);
+			this.incomingMessages.put(m.getIntId(), senders);
+		}
+		if (senders.put(from.getAddress(), m) == null) {
+			this.nrofIncoming++;
+		}
 	}
 	
 	/**
@@ -370,7 +412,29 @@ public abstract class MessageRouter {
 	 * @return The found message or null if such message wasn't found
 	 */
 	protected Message removeFromIncomingBuffer(String id, DTNHost from) {
-		return this.incomingMessages.remove(id + "_" + from.toString());
+		int intId = Message.lookupIntId(id);
+		IntHashMap<Message> senders = this.incomingMessages.get(intId);
+		if (senders == null) {
+			return null;
+		}
+		
+		Message m = senders.remove(from.getAddress());
+		if (m != null) {
+			this.nrofIncoming--;
+		}
+		if (senders.isEmpty()) {
+			this.incomingMessages.remove(intId);
+		}
+		return m;
+	}
+	
+	/**
+	 * Returns the number of messages that are being transferred to this
+	 * router
+	 * @return The number of incoming messages
+	 */
+	protected int getNrofIncomingMessages() {
+		return this.nrofIncoming;
 	}
 	
 	/**
@@ -380,7 +444,17 @@ public abstract class MessageRouter {
 	 * @return True if such message is incoming right now
 	 */
 	protected boolean isIncomingMessage(String id) {
-		return this.incomingMessages.containsKey(id);
+		return isIncomingMessage(Message.lookupIntId(id));
+	}
+	
+	/**
+	 * Returns true if a message with the given int ID is one of the
+	 * currently incoming messages, false if not
+	 * @param intId Int ID of the message (see {@link Message#getIntId()})
+	 * @return True if such message is incoming right now
+	 */
+	protected boolean isIncomingMessage(int intId) {
+		return this.incomingMessages.containsKey(intId);
 	}
 	
 	/**
@@ -391,7 +465,7 @@ public abstract class MessageRouter {
 	 * message, if false, nothing is informed.
 	 */
 	protected void addToMessages(Message m, boolean newMessage) {
-		this.messages.put(m.getId(), m);
+		this.messages.put(m.getIntId(), m);
 		
 		if (newMessage) {
 			for (MessageListener ml : this.mListeners) {
@@ -406,7 +480,7 @@ public abstract class MessageRouter {
 	 * @return The removed message or null if message for the ID wasn't found
 	 */
 	protected Message removeFromMessages(String id) {
-		Message m = this.messages.remove(id);
+		Message m = this.messages.remove(Message.lookupIntId(id));
 		return m;
 	}
 	
@@ -541,7 +615,7 @@ public abstract class MessageRouter {
 	 */
 	public RoutingInfo getRoutingInfo() {
 		RoutingInfo ri = new RoutingInfo(this);
-		RoutingInfo incoming = new RoutingInfo(this.incomingMessages.size() + 
+		RoutingInfo incoming = new RoutingInfo(this.nrofIncoming + 
 				" incoming message(s)");
 		RoutingInfo delivered = new RoutingInfo(this.deliveredMessages.size() +
 				" delivered message(s)");
@@ -553,8 +627,10 @@ public abstract class MessageRouter {
 		ri.addMoreInfo(delivered);
 		ri.addMoreInfo(cons);
 		
-		for (Message m : this.incomingMessages.values()) {
-			incoming.addMoreInfo(new RoutingInfo(m));
+		for (IntHashMap<Message> senders : this.incomingMessages.values()) {
+			for (Message m : senders.values()) {
+				incoming.addMoreInfo(new RoutingInfo(m));
+			}
 		}
 		
 		for (Message m : this.deliveredMessages.values()) {
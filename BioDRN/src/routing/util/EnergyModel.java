@@ -0,0 +1,425 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.util;
+
+import java.util.List;
+import java.util.Random;
+
+import core.DTNHost;
+import core.EnergyIndex;
+import core.ModuleCommunicationBus;
+import core.ModuleCommunicationDoubleListener;
+import core.NetworkInterface;
+import core.Settings;
+import core.SettingsError;
+import core.SimClock;
+import core.SimScenario;
+
+/**
+ * Energy model of the BioDRN routers. The model records the state
+ * transitions of the host (sending and/or receiving, scanning) and
+ * integrates the energy consumption lazily, i.e., only when the energy
+ * level is read or the state changes. The time when the battery will be
+ * depleted with the current state is predicted at every transition, so
+ * checking for the depletion does not need any energy calculations.
+ * <P>
+ * Sending and receiving both consume {@link #TRANSMIT_ENERGY_S} per second
+ * and a scan, which happens every scan interval, consumes
+ * {@link #SCAN_ENERGY_S}. Only the hosts whose name starts with
+ * {@link #CONSUMING_HOST_PREFIX} consume energy and nothing is consumed
+ * during the warmup period.
+ * </P>
+ * <P>
+ * The current energy level is kept in the host's
+ * {@link ModuleCommunicationBus} with the identifier
+ * {@link #ENERGY_VALUE_ID}, but the value is up to date only after
+ * {@link #getEnergy()} has been called. The model itself is available from
+ * the bus with the identifier {@link #ENERGY_MODEL_ID}. If some other
+ * module sets the energy value, the model continues from the new value.
+ * </P>
+ * <P>
+ * The energy trajectory and the predicted depletion time are reported to
+ * the world's {@link EnergyIndex} at every state change. The world
+ * schedules an update at the next predicted depletion, so the host is
+ * removed when its energy runs out and not at the next update interval.
+ * </P>
+ */
+public class EnergyModel implements ModuleCommunicationDoubleListener {
+	/** Initial energy levels -setting id ({@value}). Two comma separated
+	 * values or one value. If two values are given, the energy level of
+	 * each host is drawn from the range using uniform distribution. */
+	public static final String INIT_ENERGY_S = "initialEnergy";
+	/** Energy usage per scanning -setting id ({@value}). */
+	public static final String SCAN_ENERGY_S = "scanEnergy";
+	/** Energy usage per second when sending -setting id ({@value}). */
+	public static final String TRANSMIT_ENERGY_S = "transmitEnergy";
+	/** Energy update warmup period -setting id ({@value}). Defines the
+	 * simulation time after which the energy level starts to decrease due to
+	 * scanning, transmissions, etc. Default value = 0. If value of "-1" is
+	 * defined, uses the value from the report warmup setting
+	 * {@link report.Report#WARMUP_S} from the namespace
+	 * {@value report.Report#REPORT_NS}. */
+	public static final String WARMUP_S = "energyWarmup";
+
+	/** {@link ModuleCommunicationBus} identifier for the "current amount of
+	 * energy left" variable. Value type: double */
+	public static final String ENERGY_VALUE_ID = "Energy.value";
+	/** {@link ModuleCommunicationBus} identifier for the energy model of
+	 * the host. Value type: EnergyModel */
+	public static final String ENERGY_MODEL_ID = "Energy.model";
+	/** Prefix of the names of the hosts that consume energy ({@value}) */
+	public static final String CONSUMING_HOST_PREFIX = "n";
+
+	/** slot of the energy value in the communication bus */
+	private static final int ENERGY_SLOT =
+		ModuleCommunicationBus.getSlot(ENERGY_VALUE_ID);
+
+	private static Random rng = null;
+
+	private final double[] initEnergy;
+	/** energy usage per scan */
+	private final double scanEnergy;
+	private final double transmitEnergy;
+	private final double scanInterval;
+	private final double warmupTime;
+
+	private ModuleCommunicationBus comBus;
+	private DTNHost host;
+	private EnergyIndex index;
+	/** energy level at the time of the last integration */
+	private double energy;
+	/** time of the last integration */
+	private double lastTime;
+	/** does the host consume energy at all */
+	private boolean isConsuming;
+	private boolean isSending;
+	private boolean isReceiving;
+	/** predicted time when the energy runs out with the current state */
+	private double depletionTime;
+	/** is this model updating the value in the bus */
+	private boolean isStoring;
+	/** the failed host list that was checked last */
+	private List<String> failedHosts;
+	/** was the host in the failed host list */
+	private boolean isFailed;
+
+	/**
+	 * Constructor. Creates a prototype model based on the settings.
+	 * @param s The settings object
+	 */
+	public EnergyModel(Settings s) {
+		this.initEnergy = s.getCsvDoubles(INIT_ENERGY_S);
+
+		if (this.initEnergy.length != 1 && this.initEnergy.length != 2) {
+			throw new SettingsError(INIT_ENERGY_S + " setting must have " +
+					"either a single value or two comma separated values");
+		}
+
+		this.scanEnergy = s.getDouble(SCAN_ENERGY_S);
+		this.transmitEnergy = s.getDouble(TRANSMIT_ENERGY_S);
+
+		double interval = s.getDouble(SimScenario.SCAN_INTERVAL_S);
+		if (interval <= 0) {
+			/* scanning at every update round */
+			interval = new Settings(SimScenario.SCENARIO_NS).getDouble(
+					SimScenario.UP_INT_S);
+		}
+		this.scanInterval = interval;
+
+		if (s.contains(WARMUP_S)) {
+			int warmup = s.getInt(WARMUP_S);
+			if (warmup == -1) {
+				warmup = new Settings(report.Report.REPORT_NS).
+					getInt(report.Report.WARMUP_S);
+			}
+			this.warmupTime = warmup;
+		}
+		else {
+			this.warmupTime = 0;
+		}
+	}
+
+	/**
+	 * Copy constructor. Sets the initial energy level of the new model
+	 * (see {@link #INIT_ENERGY_S}).
+	 * @param proto The model prototype where setting values are copied from
+	 */
+	public EnergyModel(EnergyModel proto) {
+		this.initEnergy = proto.initEnergy;
+		this.scanEnergy = proto.scanEnergy;
+		this.transmitEnergy = proto.transmitEnergy;
+		this.scanInterval = proto.scanInterval;
+		this.warmupTime = proto.warmupTime;
+		this.comBus = null;
+		this.depletionTime = Double.POSITIVE_INFINITY;
+
+		if (initEnergy.length == 1) {
+			this.energy = initEnergy[0];
+		}
+		else {
+			if (rng == null) {
+				rng = new Random((int)(initEnergy[0] + initEnergy[1]));
+			}
+			this.energy = initEnergy[0] +
+				rng.nextDouble() * (initEnergy[1] - initEnergy[0]);
+		}
+	}
+
+	/**
+	 * Attaches the model to a host. The energy level is added to the host's
+	 * communication bus and the energy consumption starts from the current
+	 * simulation time.
+	 * @param host The host
+	 */
+	public void init(DTNHost host) {
+		this.comBus = host.getComBus();
+		this.host = host;
+		this.index = SimScenario.getInstance().getWorld().getEnergyIndex();
+		this.isConsuming = host.toString().startsWith(CONSUMING_HOST_PREFIX);
+		this.lastTime = SimClock.getTime();
+
+		comBus.addProperty(ENERGY_SLOT, this.energy);
+		comBus.addProperty(ENERGY_MODEL_ID, this);
+		comBus.subscribe(ENERGY_SLOT, this);
+		predictDepletion();
+	}
+
+	/**
+	 * Returns the current energy level. The value in the communication bus
+	 * is updated too.
+	 * @return The energy left
+	 */
+	public double getEnergy() {
+		integrate(SimClock.getTime());
+		return this.energy;
+	}
+
+	/**
+	 * Returns the predicted time when the energy runs out if the state of
+	 * the host does not change
+	 * @return The predicted depletion time or
+	 * <CODE>Double.POSITIVE_INFINITY</CODE> if no energy is consumed
+	 */
+	public double getDepletionTime() {
+		return this.depletionTime;
+	}
+
+	/**
+	 * Returns true if the energy has run out
+	 * @return True if there is no energy left
+	 */
+	public boolean isDepleted() {
+		if (SimClock.getTime() < this.depletionTime) {
+			return false;
+		}
+		integrate(SimClock.getTime());
+		return true;
+	}
+
+	/**
+	 * Records the transfer state of the host. The energy consumption is
+	 * integrated up to the current time only if the state changes.
+	 * @param sending Is the host sending something
+	 * @param receiving Is the host receiving something
+	 */
+	public void setTransferState(boolean sending, boolean receiving) {
+		if (sending == this.isSending && receiving == this.isReceiving) {
+			return;
+		}
+		integrate(SimClock.getTime());
+		this.isSending = sending;
+		this.isReceiving = receiving;
+		predictDepletion();
+	}
+
+	/**
+	 * Updates the state of the model on the host's update. The transfer
+	 * state is recorded and the radio is turned off if the energy has run
+	 * out or the host is in the list of failed hosts. The energy of a failed
+	 * host is set to zero.
+	 * @param sending Is the host sending something
+	 * @param receiving Is the host receiving something
+	 * @param failedHosts Names of the failed hosts (or null if none)
+	 * @return True if the host has no energy left and should be removed
+	 * from the simulation
+	 */
+	public boolean update(boolean sending, boolean receiving,
+			List<String> failedHosts) {
+		if (failedHosts != this.failedHosts) { /* the list was sampled */
+			this.failedHosts = failedHosts;
+			this.isFailed = failedHosts != null &&
+				failedHosts.contains(host.toString());
+		}
+
+		if (isDepleted()) {
+			comBus.setDouble(NetworkInterface.RANGE_SLOT, 0.0);
+			return true;
+		}
+		if (this.isFailed) {
+			comBus.setDouble(ENERGY_SLOT, 0.0);
+			comBus.setDouble(NetworkInterface.RANGE_SLOT, 0.0);
+			return true;
+		}
+
+		/* the consumption is integrated only when the state changes */
+		setTransferState(sending, receiving);
+		return false;
+	}
+
+	/**
+	 * Returns the energy consumption per second in the current state
+	 * (excluding scanning)
+	 * @return The consumption rate
+	 */
+	private double getRate() {
+		double rate = 0;
+		if (this.isSending) {
+			rate += this.transmitEnergy;
+		}
+		if (this.isReceiving) {
+			rate += this.transmitEnergy;
+		}
+		return rate;
+	}
+
+	/**
+	 * Returns the number of scans in the time interval (from, to]. Scans
+	 * happen at multiples of the scan interval.
+	 * @param from Start of the interval
+	 * @param to End of the interval
+	 * @return The number of scans
+	 */
+	private double getNrofScans(double from, double to) {
+		return Math.floor(to / scanInterval) - Math.floor(from / scanInterval);
+	}
+
+	/**
+	 * Reduces the energy consumed since the last integration
+	 * @param time The time up to which the consumption is integrated
+	 */
+	private void integrate(double time) {
+		if (time <= this.lastTime) {
+			return;
+		}
+
+		if (this.isConsuming) {
+			double from = Math.max(this.lastTime, this.warmupTime);
+			if (time >= this.depletionTime) {
+				this.energy = 0;
+			}
+			else if (from < time) {
+				this.energy -= getRate() * (time - from) +
+					scanEnergy * getNrofScans(from, time);
+				if (this.energy < 0) {
+					this.energy = 0;
+				}
+			}
+		}
+
+		this.lastTime = time;
+		store();
+	}
+
+	/**
+	 * Predicts the time when the energy runs out in the current state and
+	 * reports the new trajectory to the energy index
+	 */
+	private void predictDepletion() {
+		double start = Math.max(this.lastTime, this.warmupTime);
+		this.depletionTime = computeDepletionTime();
+		if (this.isConsuming) {
+			index.update(host, energy, start, getRate(), scanEnergy,
+					scanInterval, depletionTime);
+		}
+		else {
+			index.update(host, energy, start, 0, 0, scanInterval,
+					depletionTime);
+		}
+	}
+
+	/**
+	 * Computes the time when the energy runs out in the current state
+	 * @return The depletion time or <CODE>Double.POSITIVE_INFINITY</CODE>
+	 */
+	private double computeDepletionTime() {
+		if (!this.isConsuming) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if (this.energy <= 0) {
+			return this.lastTime;
+		}
+
+		double rate = getRate();
+		/* consumption of a full scan interval */
+		double perInterval = rate * scanInterval + scanEnergy;
+		if (perInterval <= 0) {
+			return Double.POSITIVE_INFINITY; /* nothing is consumed */
+		}
+
+		double time = Math.max(this.lastTime, this.warmupTime);
+		double left = this.energy;
+
+		/* up to the next scan */
+		double nextScan = (Math.floor(time / scanInterval) + 1) * scanInterval;
+		if (rate > 0 && left <= rate * (nextScan - time)) {
+			return time + left / rate;
+		}
+		left -= rate * (nextScan - time) + scanEnergy;
+		if (left <= 0) {
+			return nextScan;
+		}
+
+		/* full intervals that leave some energy; the last one empties it */
+		double intervals = Math.ceil(left / perInterval) - 1;
+		left -= intervals * perInterval;
+		time = nextScan + intervals * scanInterval;
+		if (rate > 0 && left <= rate * scanInterval) {
+			return time + left / rate;
+		}
+		return time + scanInterval;
+	}
+
+	/**
+	 * Updates the energy value in the communication bus
+	 */
+	private void store() {
+		this.isStoring = true;
+		comBus.setDouble(ENERGY_SLOT, this.energy);
+		this.isStoring = false;
+	}
+
+	/**
+	 * Called by the combus if some other module changed the energy value.
+	 * The energy consumption continues from the new value.
+	 * @param key The energy ID
+	 * @param newValue The new energy value
+	 */
+	public void moduleValueChanged(String key, Object newValue) {
+		moduleDoubleChanged(ENERGY_SLOT, (Double)newValue);
+	}
+
+	/**
+	 * Called by the combus if some other module changed the energy value.
+	 * The energy consumption continues from the new value.
+	 * @param slot The slot of the energy ID
+	 * @param newValue The new energy value
+	 */
+	public void moduleDoubleChanged(int slot, double newValue) {
+		if (this.isStoring) {
+			return; /* this model's own update */
+		}
+		this.energy = newValue;
+		this.lastTime = Math.max(this.lastTime, SimClock.getTime());
+		predictDepletion();
+	}
+
+	/**
+	 * Returns a new model based on this prototype
+	 * @return The new model
+	 */
+	public EnergyModel replicate() {
+		return new EnergyModel(this);
+	}
+}
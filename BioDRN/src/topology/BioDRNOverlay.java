@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package topology;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical BioDRN overlay ("B" variant). The host groups (other than
+ * the CDs) form the tiers of the hierarchy. Every node is linked to its
+ * parent, the nearest node of the closest tier above it, and the nodes of
+ * the upper tiers are also linked to their siblings (nodes with the same
+ * parent). The nodes of the top tier are all linked to each other. CDs
+ * are linked to the coordinators and to all the nodes within their radio
+ * range.
+ */
+public class BioDRNOverlay extends OverlayBuilder {
+	/** parent of each node of the upper tiers in the current snapshot
+	 * (-1 for no parent); parents of the lowest tier are searched by the
+	 * worker threads */
+	private int[] parents;
+	/** the closest non-empty tier above each tier (-1 for none) */
+	protected int[] upperTiers;
+	/** the lowest tier (its nodes are not linked to their siblings) */
+	protected int leafTier;
+
+	@Override
+	public void prepare(TopologySnapshot snapshot) {
+		int nrofNodes = snapshot.getNrofNodes();
+		int[] tierSizes = new int[snapshot.getNrofTiers()];
+		for (int i=0; i < nrofNodes; i++) {
+			if (snapshot.getTier(i) >= 0) {
+				tierSizes[snapshot.getTier(i)]++;
+			}
+		}
+
+		/* the closest non-empty tier above each tier */
+		this.upperTiers = new int[tierSizes.length];
+		int upper = -1;
+		for (int t=0; t < tierSizes.length; t++) {
+			upperTiers[t] = upper;
+			if (tierSizes[t] > 0) {
+				upper = t;
+				this.leafTier = t;
+			}
+		}
+
+		this.parents = new int[nrofNodes];
+		for (int i=0; i < nrofNodes; i++) {
+			int tier = snapshot.getTier(i);
+			if (tier < 0 || tier == leafTier || upperTiers[tier] < 0) {
+				parents[i] = -1;
+			}
+			else {
+				parents[i] = snapshot.getNearest(i, upperTiers[tier]);
+			}
+		}
+	}
+
+	@Override
+	public int[] getLinks(TopologySnapshot snapshot, int node) {
+		int nrofNodes = snapshot.getNrofNodes();
+		int[] links = new int[16];
+		int n = 0;
+
+		if (snapshot.isCD(node)) {
+			for (int i=0; i < nrofNodes && snapshot.isCoordinator(i); i++) {
+				links = add(links, n++, i);
+			}
+			for (int other : snapshot.getNearNodes(node)) {
+				if (!snapshot.isCD(other) && !snapshot.isCoordinator(other)
+						&& snapshot.isInRange(node, other)) {
+					links = add(links, n++, other);
+				}
+			}
+			return Arrays.copyOf(links, n);
+		}
+
+		int tier = snapshot.getTier(node);
+		int parent = parents[node];
+		if (tier == leafTier && upperTiers[tier] >= 0) {
+			parent = snapshot.getNearest(node, upperTiers[tier]);
+		}
+		if (parent >= 0) {
+			links = add(links, n++, parent);
+		}
+		if (tier != leafTier || parent < 0) {
+			/* siblings; links to the later ones come from them */
+			for (int i=0; i < node; i++) {
+				if (parents[i] == parent && snapshot.getTier(i) == tier) {
+					links = add(links, n++, i);
+				}
+			}
+		}
+		return Arrays.copyOf(links, n);
+	}
+
+	/**
+	 * Adds a node to an array of links and grows the array if needed
+	 * @param links The array
+	 * @param index Index where the node is added
+	 * @param node The node
+	 * @return The array (a new one if it was grown)
+	 */
+	private static int[] add(int[] links, int index, int node) {
+		if (index == links.length) {
+			links = Arrays.copyOf(links, 2 * links.length);
+		}
+		links[index] = node;
+		return links;
+	}
+}
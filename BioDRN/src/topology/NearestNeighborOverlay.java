@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package topology;
+
+/**
+ * Overlay where every node (other than a CD) is linked to its k nearest
+ * nodes that are not CDs ("K&lt;k&gt;" variants, e.g. "K3"). The nodes in
+ * the neighboring connectivity grid cells are checked first and all the
+ * nodes are searched only if there are not enough of them within the
+ * radio range.
+ */
+public class NearestNeighborOverlay extends OverlayBuilder {
+	private int k;
+
+	/**
+	 * Constructor.
+	 * @param k Number of nearest nodes each node is linked to
+	 */
+	public NearestNeighborOverlay(int k) {
+		this.k = k;
+	}
+
+	@Override
+	public int[] getLinks(TopologySnapshot snapshot, int node) {
+		if (snapshot.isCD(node)) {
+			return null;
+		}
+
+		int[] nearest = new int[k];
+		double[] dists = new double[k];
+		int n = addNearest(snapshot, node, snapshot.getNearNodes(node),
+				-1, nearest, dists, 0);
+		double range = snapshot.getRange(node);
+
+		if (n < k || dists[n - 1] > range * range) {
+			/* the k nearest may be outside of the near cells */
+			n = addNearest(snapshot, node, null, snapshot.getNrofNodes(),
+					nearest, dists, 0);
+		}
+
+		if (n < k) {
+			int[] links = new int[n];
+			System.arraycopy(nearest, 0, links, 0, n);
+			return links;
+		}
+		return nearest;
+	}
+
+	/**
+	 * Keeps the nearest candidates sorted by their distance
+	 * @param snapshot The snapshot
+	 * @param node The node whose nearest nodes are searched
+	 * @param candidates The candidates or null if all nodes are candidates
+	 * @param nrofNodes Number of all the nodes (if candidates is null)
+	 * @param nearest The nearest nodes found so far
+	 * @param dists The squared distances of the nearest nodes
+	 * @param n Number of nearest nodes found so far
+	 * @return The new number of nearest nodes
+	 */
+	private int addNearest(TopologySnapshot snapshot, int node,
+			int[] candidates, int nrofNodes, int[] nearest, double[] dists,
+			int n) {
+		int count = (candidates != null ? candidates.length : nrofNodes);
+		for (int c=0; c < count; c++) {
+			int other = (candidates != null ? candidates[c] : c);
+			if (other == node || snapshot.isCD(other)) {
+				continue;
+			}
+			double dist = snapshot.getDistanceSq(node, other);
+			if (n == k && dist >= dists[k - 1]) {
+				continue;
+			}
+			/* insertion to the sorted arrays */
+			int i = (n < k ? n++ : k - 1);
+			while (i > 0 && dists[i - 1] > dist) {
+				nearest[i] = nearest[i - 1];
+				dists[i] = dists[i - 1];
+				i--;
+			}
+			nearest[i] = other;
+			dists[i] = dist;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package topology;
+
+import java.util.Arrays;
+
+/**
+ * Original DRN overlay ("O" variant). The hierarchy is the same as in the
+ * {@link BioDRNOverlay}, except that the nodes of the two highest tiers are
+ * not linked to each other. Instead of the sibling links, the nodes of the
+ * lowest tier are linked to all the other nodes of the lowest tier within
+ * their radio range.
+ */
+public class OriginalDRNOverlay extends BioDRNOverlay {
+
+	@Override
+	public int[] getLinks(TopologySnapshot snapshot, int node) {
+		int[] links = super.getLinks(snapshot, node);
+		if (snapshot.isCD(node)) {
+			return links;
+		}
+
+		int tier = snapshot.getTier(node);
+		int n = 0;
+		for (int other : links) {
+			if (!isTopTier(tier) || !isTopTier(snapshot.getTier(other))) {
+				links[n++] = other;
+			}
+		}
+
+		if (tier == leafTier) {
+			int[] near = snapshot.getNearNodes(node);
+			links = Arrays.copyOf(links, n + near.length);
+			for (int other : near) {
+				if (snapshot.getTier(other) == leafTier &&
+						snapshot.isInRange(node, other)) {
+					links[n++] = other;
+				}
+			}
+		}
+		return Arrays.copyOf(links, n);
+	}
+
+	/**
+	 * Returns true if a tier is one of the two highest non-empty tiers
+	 * @param tier The tier
+	 * @return True for the two highest tiers, false for the others and CDs
+	 */
+	private boolean isTopTier(int tier) {
+		return tier >= 0 && (upperTiers[tier] < 0 ||
+				upperTiers[upperTiers[tier]] < 0);
+	}
+}
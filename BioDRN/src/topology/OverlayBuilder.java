@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package topology;
+
+import core.SettingsError;
+
+/**
+ * Superclass of the BioDRN overlay variants. A builder selects the links
+ * of each node from a {@link TopologySnapshot}; the links are made
+ * symmetric by the {@link TopologyGenerator}. The links of different nodes
+ * are selected concurrently, so {@link #getLinks(TopologySnapshot, int)}
+ * must not modify the state of the builder.
+ */
+public abstract class OverlayBuilder {
+	/** variant name of the range overlay ({@value}) */
+	public static final String RANGE_VARIANT = "R";
+	/** variant name of the star overlay ({@value}) */
+	public static final String STAR_VARIANT = "S";
+	/** variant name of the hierarchical BioDRN overlay ({@value}) */
+	public static final String BIODRN_VARIANT = "B";
+	/** variant name of the original DRN overlay ({@value}) */
+	public static final String ORIGINAL_DRN_VARIANT = "O";
+	/** prefix of the k-nearest neighbors overlay variant names ({@value}).
+	 * The prefix is followed by the number of neighbors, e.g. "K3". */
+	public static final String KNN_VARIANT_PREFIX = "K";
+
+	/**
+	 * Creates the builder of an overlay variant
+	 * @param variant Name of the variant
+	 * @return The builder
+	 * @throws SettingsError if the variant is unknown
+	 */
+	public static OverlayBuilder createBuilder(String variant) {
+		if (variant.equals(RANGE_VARIANT)) {
+			return new RangeOverlay();
+		}
+		else if (variant.equals(STAR_VARIANT)) {
+			return new StarOverlay();
+		}
+		else if (variant.equals(BIODRN_VARIANT)) {
+			return new BioDRNOverlay();
+		}
+		else if (variant.equals(ORIGINAL_DRN_VARIANT)) {
+			return new OriginalDRNOverlay();
+		}
+		else if (variant.startsWith(KNN_VARIANT_PREFIX)) {
+			try {
+				int k = Integer.parseInt(variant.substring(
+						KNN_VARIANT_PREFIX.length()));
+				if (k > 0) {
+					return new NearestNeighborOverlay(k);
+				}
+			} catch (NumberFormatException e) {
+				// handled below
+			}
+		}
+		throw new SettingsError("Unknown overlay variant '" + variant + "'");
+	}
+
+	/**
+	 * Prepares the builder for selecting the links of the nodes of a
+	 * snapshot. Called in the simulation thread before any calls to
+	 * {@link #getLinks(TopologySnapshot, int)} for the snapshot. The
+	 * default implementation does nothing.
+	 * @param snapshot The snapshot
+	 */
+	public void prepare(TopologySnapshot snapshot) { }
+
+	/**
+	 * Selects the links of a node
+	 * @param snapshot The snapshot
+	 * @param node The node
+	 * @return The nodes the node is linked to or null if the node is not
+	 * part of the overlay (it can still get links from other nodes)
+	 */
+	public abstract int[] getLinks(TopologySnapshot snapshot, int node);
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package topology;
+
+import java.util.Arrays;
+
+/**
+ * Overlay where every node is linked to all the nodes within its radio
+ * range ("R" variant).
+ */
+public class RangeOverlay extends OverlayBuilder {
+
+	@Override
+	public int[] getLinks(TopologySnapshot snapshot, int node) {
+		int[] near = snapshot.getNearNodes(node);
+		int[] links = new int[near.length];
+		int n = 0;
+		for (int other : near) {
+			if (snapshot.isInRange(node, other)) {
+				links[n++] = other;
+			}
+		}
+		return Arrays.copyOf(links, n);
+	}
+}
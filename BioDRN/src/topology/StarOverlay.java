@@ -0,0 +1,41 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package topology;
+
+/**
+ * Overlay where every node (other than a CD) is linked to its nearest
+ * coordinator and the coordinators are linked to each other ("S" variant).
+ */
+public class StarOverlay extends OverlayBuilder {
+
+	@Override
+	public int[] getLinks(TopologySnapshot snapshot, int node) {
+		if (snapshot.isCD(node)) {
+			return null;
+		}
+
+		if (snapshot.isCoordinator(node)) {
+			/* coordinators have the lowest addresses; links to the later
+			 * coordinators come from them */
+			int[] links = new int[node];
+			for (int i=0; i < node; i++) {
+				links[i] = i;
+			}
+			return links;
+		}
+
+		int nearest = -1;
+		double nearestDist = Double.MAX_VALUE;
+		for (int i=0; i < snapshot.getNrofNodes() &&
+				snapshot.isCoordinator(i); i++) {
+			double dist = snapshot.getDistanceSq(node, i);
+			if (dist < nearestDist) {
+				nearest = i;
+				nearestDist = dist;
+			}
+		}
+		return (nearest < 0 ? new int[0] : new int[] {nearest});
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package topology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import core.DTNHost;
+import core.Settings;
+import core.SettingsError;
+import core.SimError;
+import core.SimScenario;
+import core.TopologyCursor;
+import core.World;
+
+/**
+ * Topology cursor that builds the BioDRN overlay from the current positions
+ * and roles of the hosts at every sampling epoch instead of reading
+ * precomputed neighbor list files. The links of the nodes are selected in
+ * parallel by a pool of worker threads and then made symmetric.
+ * <P>
+ * The generator is configured with the host group settings:
+ * {@link #OVERLAY_S} selects the variant (see {@link OverlayBuilder}),
+ * <CODE>firstCD</CODE> and <CODE>lastCCID</CODE> give the roles of the
+ * nodes and {@link TopologyCursor#SAMPLING_INTERVAL_S} the epoch length.
+ * </P>
+ */
+public class TopologyGenerator extends TopologyCursor {
+	/** overlay variant -setting id ({@value}). Name of the variant that is
+	 * built (e.g. "B", "S", "R" or "K3"). If this setting is given, the
+	 * neighbor list file setting is ignored. */
+	public static final String OVERLAY_S = "overlay";
+	/** number of overlay worker threads -setting id ({@value}). Integer.
+	 * Default = number of available processors. */
+	public static final String NROF_THREADS_S = "overlayThreads";
+	/** address of the first CD -setting id ({@value}) */
+	public static final String FIRST_CD_S = "firstCD";
+	/** address of the last coordinator -setting id ({@value}) */
+	public static final String LAST_CCID_S = "lastCCID";
+
+	/** number of link selection tasks per worker thread */
+	private static final int TASKS_PER_THREAD = 4;
+
+	private OverlayBuilder builder;
+	private int firstCD;
+	private int lastCCID;
+	/** number of hosts in each host group */
+	private int[] groupSizes;
+	private int nrofThreads;
+	/** worker threads (null if the links are selected in this thread) */
+	private ExecutorService executor;
+
+	/**
+	 * Constructor.
+	 * @param s Settings of the host group where the overlay is defined
+	 * @param samplingInterval Length of an epoch (seconds)
+	 */
+	public TopologyGenerator(Settings s, int samplingInterval) {
+		super(samplingInterval);
+		if (samplingInterval <= 0) {
+			throw new SettingsError("Overlay generation needs a positive " +
+					SAMPLING_INTERVAL_S);
+		}
+		this.builder = OverlayBuilder.createBuilder(s.getSetting(OVERLAY_S));
+		this.firstCD = s.getInt(FIRST_CD_S);
+		this.lastCCID = s.getInt(LAST_CCID_S);
+
+		this.nrofThreads = Runtime.getRuntime().availableProcessors();
+		if (s.contains(NROF_THREADS_S)) {
+			this.nrofThreads = s.getInt(NROF_THREADS_S);
+		}
+		if (nrofThreads > 1) {
+			this.executor = Executors.newFixedThreadPool(nrofThreads,
+					new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "TopologyGenerator");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		Settings scen = new Settings(SimScenario.SCENARIO_NS);
+		this.groupSizes = new int[scen.getInt(SimScenario.NROF_GROUPS_S)];
+		for (int i=0; i < groupSizes.length; i++) {
+			Settings g = new Settings(SimScenario.GROUP_NS + (i+1));
+			g.setSecondaryNamespace(SimScenario.GROUP_NS);
+			groupSizes[i] = g.getInt(SimScenario.NROF_HOSTS_S);
+		}
+	}
+
+	@Override
+	protected Map<String, ArrayList<String>> getNeighborLists(World world,
+			int time) {
+		List<DTNHost> hosts = world.getHosts();
+		final TopologySnapshot snapshot = new TopologySnapshot(hosts,
+				groupSizes, firstCD, lastCCID);
+		final int nrofNodes = snapshot.getNrofNodes();
+		final int[][] links = new int[nrofNodes][];
+
+		builder.prepare(snapshot);
+		if (executor == null) {
+			for (int i=0; i < nrofNodes; i++) {
+				links[i] = builder.getLinks(snapshot, i);
+			}
+		}
+		else {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			int chunk = nrofNodes / (nrofThreads * TASKS_PER_THREAD) + 1;
+			for (int start=0; start < nrofNodes; start += chunk) {
+				final int from = start;
+				final int to = Math.min(start + chunk, nrofNodes);
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						for (int i=from; i < to; i++) {
+							links[i] = builder.getLinks(snapshot, i);
+						}
+						return null;
+					}
+				});
+			}
+			runAll(tasks);
+		}
+
+		return toNeighborLists(hosts, links);
+	}
+
+	/**
+	 * Runs the tasks in the worker threads and waits until all are done
+	 * @param tasks The tasks
+	 * @throws SimError if a task failed
+	 */
+	private void runAll(List<Callable<Object>> tasks) {
+		try {
+			for (Future<Object> f : executor.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			throw new SimError("Interrupted while building the overlay");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new SimError("Overlay building failed", (Exception)cause);
+		}
+	}
+
+	/**
+	 * Makes the links symmetric and converts them to neighbor lists
+	 * @param hosts The hosts
+	 * @param links The links of each node (null if the node was not part
+	 * of the overlay)
+	 * @return The neighbor lists mapped by the host names
+	 */
+	private Map<String, ArrayList<String>> toNeighborLists(
+			List<DTNHost> hosts, int[][] links) {
+		int nrofNodes = links.length;
+		int[] degrees = new int[nrofNodes];
+		boolean[] inOverlay = new boolean[nrofNodes];
+		for (int i=0; i < nrofNodes; i++) {
+			if (links[i] == null) {
+				continue;
+			}
+			inOverlay[i] = true;
+			for (int j : links[i]) {
+				degrees[i]++;
+				degrees[j]++;
+				inOverlay[j] = true;
+			}
+		}
+
+		int[][] adjacent = new int[nrofNodes][];
+		for (int i=0; i < nrofNodes; i++) {
+			adjacent[i] = new int[degrees[i]];
+			degrees[i] = 0;
+		}
+		for (int i=0; i < nrofNodes; i++) {
+			if (links[i] == null) {
+				continue;
+			}
+			for (int j : links[i]) {
+				adjacent[i][degrees[i]++] = j;
+				adjacent[j][degrees[j]++] = i;
+			}
+		}
+
+		Map<String, ArrayList<String>> lists =
+			new HashMap<String, ArrayList<String>>();
+		for (int i=0; i < nrofNodes; i++) {
+			if (!inOverlay[i]) {
+				continue;
+			}
+			int[] a = adjacent[i];
+			Arrays.sort(a);
+			ArrayList<String> list = new ArrayList<String>(a.length);
+			for (int j=0; j < a.length; j++) {
+				if (j == 0 || a[j] != a[j - 1]) {
+					list.add(hosts.get(a[j]).toString());
+				}
+			}
+			lists.put(hosts.get(i).toString(), list);
+		}
+		return lists;
+	}
+
+	@Override
+	protected int getNextEpochTime(int time) {
+		int interval = getSamplingInterval();
+		return (time / interval + 1) * interval;
+	}
+
+	@Override
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package topology;
+
+import interfaces.ConnectivityGrid;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import core.Coord;
+import core.DTNHost;
+import core.NetworkInterface;
+
+/**
+ * Positions and roles of all the hosts at one sampling epoch. The snapshot
+ * is taken in the simulation thread and after that it is only read, so the
+ * overlay builders can use it from many threads at the same time.
+ * <P>
+ * Nodes are indexed by the network addresses of the hosts. Nodes whose
+ * address is at most <CODE>lastCCID</CODE> are coordinators and nodes
+ * whose address is at least <CODE>firstCD</CODE> are CDs. The tier of a
+ * node is the index of its host group among the groups (CDs have tier -1).
+ * </P>
+ */
+public class TopologySnapshot {
+	private int nrofNodes;
+	private double[] xs;
+	private double[] ys;
+	private double[] ranges;
+	private int[] tiers;
+	private int nrofTiers;
+	private int firstCD;
+	private int lastCCID;
+	/** nodes in the neighboring connectivity grid cells of each node */
+	private int[][] nearNodes;
+
+	/**
+	 * Takes a snapshot of the hosts
+	 * @param hosts The hosts (indexed by their network addresses)
+	 * @param groupSizes Number of hosts in each host group
+	 * @param firstCD Address of the first CD
+	 * @param lastCCID Address of the last coordinator
+	 */
+	public TopologySnapshot(List<DTNHost> hosts, int[] groupSizes,
+			int firstCD, int lastCCID) {
+		this.nrofNodes = hosts.size();
+		this.firstCD = firstCD;
+		this.lastCCID = lastCCID;
+		this.xs = new double[nrofNodes];
+		this.ys = new double[nrofNodes];
+		this.ranges = new double[nrofNodes];
+		this.tiers = new int[nrofNodes];
+		this.nearNodes = new int[nrofNodes][];
+
+		/* the grid locations are updated only when the interfaces are 
+		 * updated, so they may be out of date at the start of an update */
+		for (int i=0; i < nrofNodes; i++) {
+			List<NetworkInterface> interfaces = hosts.get(i).getInterfaces();
+			if (!interfaces.isEmpty()) {
+				getGrid(interfaces.get(0)).updateLocation(interfaces.get(0));
+			}
+		}
+
+		int group = 0;
+		int groupEnd = (groupSizes.length > 0 ? groupSizes[0] : nrofNodes);
+		for (int i=0; i < nrofNodes; i++) {
+			while (i >= groupEnd && group < groupSizes.length - 1) {
+				group++;
+				groupEnd += groupSizes[group];
+			}
+			tiers[i] = (isCD(i) ? -1 : group);
+			if (tiers[i] >= nrofTiers) {
+				nrofTiers = tiers[i] + 1;
+			}
+
+			DTNHost host = hosts.get(i);
+			Coord c = host.getLocation();
+			xs[i] = c.getX();
+			ys[i] = c.getY();
+
+			List<NetworkInterface> interfaces = host.getInterfaces();
+			if (interfaces.isEmpty()) {
+				nearNodes[i] = new int[0];
+				continue;
+			}
+			NetworkInterface ni = interfaces.get(0);
+			ranges[i] = ni.getTransmitRange();
+			Collection<NetworkInterface> near = getGrid(ni).getNearInterfaces(ni);
+			int[] nodes = new int[near.size()];
+			int n = 0;
+			for (NetworkInterface other : near) {
+				int address = other.getHost().getAddress();
+				if (address != i) {
+					nodes[n++] = address;
+				}
+			}
+			nearNodes[i] = (n == nodes.length ? nodes :
+				Arrays.copyOf(nodes, n));
+		}
+	}
+
+	/**
+	 * Returns the connectivity grid of an interface
+	 * @param ni The interface
+	 * @return The grid of the interface's type
+	 */
+	private static ConnectivityGrid getGrid(NetworkInterface ni) {
+		/* the existing grid of the type is returned */
+		return ConnectivityGrid.ConnectivityGridFactory(
+				ni.getInterfaceType().hashCode(), ni.getTransmitRange());
+	}
+
+	/**
+	 * Returns the number of nodes
+	 * @return The number of nodes
+	 */
+	public int getNrofNodes() {
+		return this.nrofNodes;
+	}
+
+	/**
+	 * Returns the number of tiers (host groups that have other than CDs)
+	 * @return The number of tiers
+	 */
+	public int getNrofTiers() {
+		return this.nrofTiers;
+	}
+
+	/**
+	 * Returns the tier of a node
+	 * @param node The node
+	 * @return The tier or -1 for CDs
+	 */
+	public int getTier(int node) {
+		return this.tiers[node];
+	}
+
+	/**
+	 * Returns true if the node is a CD
+	 * @param node The node
+	 * @return True if the node is a CD
+	 */
+	public boolean isCD(int node) {
+		return node >= this.firstCD;
+	}
+
+	/**
+	 * Returns true if the node is a coordinator
+	 * @param node The node
+	 * @return True if the node is a coordinator
+	 */
+	public boolean isCoordinator(int node) {
+		return node <= this.lastCCID;
+	}
+
+	/**
+	 * Returns the transmit range of the first interface of a node
+	 * @param node The node
+	 * @return The range or 0 if the node has no interfaces
+	 */
+	public double getRange(int node) {
+		return this.ranges[node];
+	}
+
+	/**
+	 * Returns the nodes that were in the neighboring connectivity grid
+	 * cells of a node (a superset of the nodes within its range)
+	 * @param node The node
+	 * @return The nodes. The array must not be modified.
+	 */
+	public int[] getNearNodes(int node) {
+		return this.nearNodes[node];
+	}
+
+	/**
+	 * Returns the squared distance between two nodes
+	 * @param a The first node
+	 * @param b The second node
+	 * @return The squared distance
+	 */
+	public double getDistanceSq(int a, int b) {
+		double dx = xs[a] - xs[b];
+		double dy = ys[a] - ys[b];
+		return dx*dx + dy*dy;
+	}
+
+	/**
+	 * Returns true if a node is within the range of another node
+	 * @param node The node whose range is used
+	 * @param other The other node
+	 * @return True if the other node is within the range
+	 */
+	public boolean isInRange(int node, int other) {
+		double range = this.ranges[node];
+		return getDistanceSq(node, other) <= range * range;
+	}
+
+	/**
+	 * Returns the nearest node of a tier
+	 * @param node The node whose nearest node is searched
+	 * @param tier The tier
+	 * @return The nearest node of the tier (other than the node itself) or
+	 * -1 if the tier has no other nodes
+	 */
+	public int getNearest(int node, int tier) {
+		int nearest = -1;
+		double nearestDist = Double.MAX_VALUE;
+		for (int i=0; i < nrofNodes; i++) {
+			if (i == node || tiers[i] != tier) {
+				continue;
+			}
+			double dist = getDistanceSq(node, i);
+			if (dist < nearestDist) {
+				nearest = i;
+				nearestDist = dist;
+			}
+		}
+		return nearest;
+	}
+}
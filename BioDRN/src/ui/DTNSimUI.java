@@ -127,6 +127,9 @@ public abstract class DTNSimUI {
 	 * Runs maintenance jobs that are needed before exiting.
 	 */
 	public void done() {
+		if (this.world != null) {
+			world.done();
+		}
 		for (Report r : this.reports) {
 			r.done();
 		}